@@ -0,0 +1,135 @@
+package peer;
+
+import shared.fs.FileSystem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Riparazione in background delle repliche rimaste indietro (anti-entropy).
+ *
+ * A ogni giro si visitano i file locali di cui questo peer è una replica; per ogni
+ * altra replica si chiedono, a blocchi di path, le date di modifica delle sue copie
+ * (replicaVersions) e le si manda il contenuto dei file che le mancano o che ha più
+ * vecchi. Vince la copia modificata per ultima: ogni replica spinge solo le proprie
+ * versioni più recenti, quindi dopo un giro completo su tutti i peer le copie
+ * convergono. Un file che un'altra replica ha rinominato (e di cui riporta la lapide)
+ * non viene rimandato: se la copia locale è più vecchia del rename la si cancella,
+ * perché è rimasta sotto il vecchio nome mentre questa replica era irraggiungibile.
+ */
+public class AntiEntropy {
+    private static final int CHUNK = 256;   // path per richiesta di versioni
+
+    // Chiamate verso le altre repliche, fornite dal nodo
+    public interface Peers {
+        Map<String, Long> versions(String peer, List<String> paths) throws Exception;
+        boolean adopt(String peer, String path, byte[] data, long modifiedAt, long version) throws Exception;
+    }
+
+    private final String self;
+    private final FileSystem fs;
+    private final HashRing ring;
+    private final int replicas;
+    private final Peers peers;
+    private final long periodMs;
+    private final ScheduledExecutorService exec;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong pushed = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public AntiEntropy(String self, FileSystem fs, HashRing ring, int replicas, Peers peers, long periodMs) {
+        this.self = self;
+        this.fs = fs;
+        this.ring = ring;
+        this.replicas = replicas;
+        this.peers = peers;
+        this.periodMs = periodMs;
+        this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "repair-" + self);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        exec.scheduleWithFixedDelay(() -> {
+            try {
+                round();
+            } catch (Exception e) {
+                System.err.println("Riparazione repliche fallita: " + e.getMessage());
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Un giro completo; restituisce i file inviati
+    public synchronized int round() {
+        rounds.incrementAndGet();
+        List<String> files = new ArrayList<>();
+        Rebalancer.walk(fs, "/", files, null);
+
+        // path da confrontare, raggruppati per replica
+        Map<String, List<String>> byPeer = new LinkedHashMap<>();
+        for (String path : files) {
+            List<String> owners = ring.ownersOf(path, replicas);
+            if (!owners.contains(self)) continue;   // non è una nostra replica: se ne occupa il rebalancer
+            for (String owner : owners) {
+                if (!owner.equals(self)) byPeer.computeIfAbsent(owner, k -> new ArrayList<>()).add(path);
+            }
+        }
+
+        int count = 0;
+        for (Map.Entry<String, List<String>> e : byPeer.entrySet()) {
+            List<String> paths = e.getValue();
+            for (int i = 0; i < paths.size(); i += CHUNK) {
+                try {
+                    count += repair(e.getKey(), paths.subList(i, Math.min(paths.size(), i + CHUNK)));
+                } catch (Exception ex) {
+                    errors.incrementAndGet();
+                    break;   // replica non raggiungibile: si riprova al prossimo giro
+                }
+            }
+        }
+        pushed.addAndGet(count);
+        return count;
+    }
+
+    private int repair(String peer, List<String> paths) throws Exception {
+        Map<String, Long> remote = peers.versions(peer, new ArrayList<>(paths));
+        int count = 0;
+        for (String path : paths) {
+            Map<String, Object> attr = fs.getattr(path);
+            if (attr == null) continue;
+            long local = (Long) attr.get("modifiedAt");
+            Long theirs = remote != null ? remote.get(path) : null;
+            if (theirs != null && theirs < -1 && -theirs > local) {
+                // la cancellazione salta se il file è cambiato nel frattempo
+                if (fs.unlinkIfUnchanged(path, local, (Long) attr.get("size"))) removed.incrementAndGet();
+                continue;
+            }
+            if (theirs != null && theirs >= local) continue;
+
+            byte[] data = fs.read(path);
+            if (data == null) continue;
+            if (peers.adopt(peer, path, data, local, (Long) attr.get("version"))) count++;
+            else errors.incrementAndGet();
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        exec.shutdownNow();
+    }
+
+    public long getRounds() { return rounds.get(); }
+    public long getPushed() { return pushed.get(); }
+    public long getRemoved() { return removed.get(); }
+    public long getErrors() { return errors.get(); }
+}
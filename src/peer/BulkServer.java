@@ -0,0 +1,205 @@
+package peer;
+
+import shared.TransferHandle;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canale dati per i trasferimenti di file grandi.
+ *
+ * openTransfer registra il file con un token monouso e restituisce solo il
+ * TransferHandle; il client si collega a questo socket dedicato, invia il token
+ * e riceve il contenuto con FileChannel.transferTo dalla copia su disco, senza
+ * passare dall'heap del peer né dai peer intermedi. Il contenuto inviato è quello
+ * presente su disco al momento della connessione, fino alla lunghezza annunciata.
+ *
+ * Al più maxTransfers connessioni sono servite insieme, le altre vengono chiuse
+ * subito. Un client che non manda il token entro timeoutMs, o che smette di
+ * ricevere per più di timeoutMs, viene disconnesso e libera il posto.
+ *
+ * Solo le letture dei client (get) passano di qui: le copie tra peer (adopt,
+ * replicate, letture inoltrate) viaggiano ancora come byte[] sulle RPC.
+ */
+public class BulkServer {
+    private static final long TOKEN_TTL_MS = 60_000;
+    private static final long CHUNK = 1 << 20;   // byte per transferTo: il watchdog vede avanzare l'invio
+
+    private static final class Pending {
+        final Path file;
+        final long length;
+        final long expiresAt;
+
+        Pending(Path file, long length, long expiresAt) {
+            this.file = file;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String owner;
+    private final String host;
+    private final int port;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long timeoutMs;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService watchdog;
+    private ServerSocketChannel server;
+
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public BulkServer(String owner, String host, int port, int maxTransfers, long timeoutMs) {
+        this.owner = owner;
+        this.host = host;
+        this.port = port;
+        this.timeoutMs = Math.max(1, timeoutMs);
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Math.max(1, maxTransfers), 60, TimeUnit.SECONDS,
+                                              new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "bulk-" + port + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-watchdog-" + port);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::acceptLoop, "bulk-accept-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void close() {
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        workers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    // Prepara l'invio di file e restituisce l'handle da passare al client
+    public TransferHandle register(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        pending.values().removeIf(p -> p.expiresAt < now);   // token mai usati
+
+        long length = Files.size(file);
+        long token;
+        do {
+            token = random.nextLong();
+        } while (pending.putIfAbsent(token, new Pending(file, length, now + TOKEN_TTL_MS)) != null);
+        return new TransferHandle(owner, host, port, token, length);
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel ch = server.accept();
+                try {
+                    workers.execute(() -> serve(ch));
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();   // tutti i posti occupati: il client riproverà
+                    ch.close();
+                }
+            } catch (IOException e) {
+                if (server.isOpen()) System.err.println("bulk accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        // le letture e scritture bloccanti del canale non hanno timeout: il watchdog
+        // chiude il socket se per timeoutMs non arriva il token o non esce un byte
+        AtomicLong progressAt = new AtomicLong(System.currentTimeMillis());
+        ScheduledFuture<?> check = watchdog.scheduleAtFixedRate(() -> {
+            long at = progressAt.get();
+            if (at >= 0 && System.currentTimeMillis() - at > timeoutMs) {
+                progressAt.set(-1);
+                timeouts.incrementAndGet();
+                try {
+                    ch.close();
+                } catch (IOException ignored) {}
+            }
+        }, timeoutMs, Math.max(1, timeoutMs / 4), TimeUnit.MILLISECONDS);
+        try (SocketChannel c = ch) {
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            while (buf.hasRemaining()) {
+                if (c.read(buf) < 0) throw new EOFException();
+            }
+            Pending p = pending.remove(buf.getLong(0));
+            if (p == null || p.expiresAt < System.currentTimeMillis()) return;   // token sconosciuto o scaduto
+
+            try (FileChannel in = FileChannel.open(p.file, StandardOpenOption.READ)) {
+                long pos = 0;
+                while (pos < p.length) {
+                    progressAt.accumulateAndGet(System.currentTimeMillis(), (prev, now) -> prev < 0 ? prev : now);
+                    long n = in.transferTo(pos, Math.min(p.length - pos, CHUNK), c);
+                    if (n <= 0) break;   // il file si è accorciato nel frattempo
+                    pos += n;
+                }
+                transfers.incrementAndGet();
+                bytes.addAndGet(pos);
+            }
+        } catch (IOException e) {
+            if (progressAt.get() >= 0) System.err.println("bulk transfer failed: " + e.getMessage());
+        } finally {
+            check.cancel(false);
+        }
+    }
+
+    // Lato client: scarica il contenuto dell'handle in local, anche qui senza copie
+    // nell'heap (transferFrom dal socket al file)
+    public static long fetch(TransferHandle h, Path local) throws IOException {
+        try (SocketChannel ch = SocketChannel.open(new InetSocketAddress(h.getHost(), h.getPort()));
+             FileChannel out = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer token = ByteBuffer.allocate(8).putLong(0, h.getToken());
+            while (token.hasRemaining()) ch.write(token);
+
+            long pos = 0;
+            while (pos < h.getLength()) {
+                long n = out.transferFrom(ch, pos, h.getLength() - pos);
+                if (n <= 0) break;
+                pos += n;
+            }
+            if (pos != h.getLength()) {
+                throw new IOException("trasferimento incompleto: " + pos + " di " + h.getLength() + " byte");
+            }
+            return pos;
+        }
+    }
+
+    public long getTransfers() { return transfers.get(); }
+    public long getBytes() { return bytes.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getTimeouts() { return timeouts.get(); }
+}
@@ -0,0 +1,341 @@
+package peer;
+
+import shared.BatchOp;
+import shared.DirSummary;
+import shared.FileSystemInterface;
+import shared.RequestContext;
+import shared.TransferHandle;
+import shared.WalkPage;
+import shared.fs.ParsedPath;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache lato client davanti allo stub di un peer.
+ *
+ * Tiene attributi, listing delle directory, esiti di locate e il contenuto dei file
+ * piccoli. Ogni voce vale per un lease breve (leaseMs); scaduto il lease, il
+ * contenuto di un file non viene riletto ma rivalidato con una getattr: se la
+ * versione è quella della copia in cache il lease si rinnova, così
+ * i file letti spesso e cambiati di rado (es. configurazioni) costano una RPC
+ * piccola per lease invece di una lettura. Le scritture fatte da questo client
+ * invalidano subito le voci coinvolte; quelle di altri client sono visibili al più
+ * dopo un lease.
+ *
+ * Le chiamate non coperte dalla cache passano direttamente allo stub.
+ */
+public class CachingFileSystem implements FileSystemInterface {
+    private static final class Entry {
+        final Object value;
+        final long version;   // versione del contenuto, -1 se non rivalidabile
+        long expiresAt;
+
+        Entry(Object value, long version, long expiresAt) {
+            this.value = value;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Prefissi delle chiavi per tipo di voce
+    private static final String ATTR = "a:", LIST = "l:", DATA = "d:", LOCATE = "o:";
+
+    private final FileSystemInterface fs;
+    private final long leaseMs;
+    private final int maxFileBytes;
+    private final Map<String, Entry> entries;
+
+    private long hits, misses, revalidated, invalidations;
+
+    public CachingFileSystem(FileSystemInterface fs, long leaseMs, int maxFileBytes, int maxEntries) {
+        this.fs = fs;
+        this.leaseMs = leaseMs;
+        this.maxFileBytes = maxFileBytes;
+        // LRU in ordine di accesso
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // ===== Lettura dalla cache =====
+
+    private synchronized Entry valid(String key) {
+        Entry e = entries.get(key);
+        if (e == null || System.currentTimeMillis() >= e.expiresAt) return null;
+        hits++;
+        return e;
+    }
+
+    private synchronized void put(String key, Object value, long version) {
+        entries.put(key, new Entry(value, version, System.currentTimeMillis() + leaseMs));
+    }
+
+    private synchronized void invalidate(String... paths) {
+        for (String p : paths) {
+            if (p == null) continue;
+            for (String kind : new String[] {ATTR, LIST, DATA, LOCATE}) {
+                if (entries.remove(kind + p) != null) invalidations++;
+            }
+            String parent = parentOf(p);
+            if (parent != null && entries.remove(LIST + parent) != null) invalidations++;
+        }
+    }
+
+    // Contenuto in cache di path, rivalidato se il lease è scaduto; null se va riletto
+    private byte[] cachedData(String path) throws RemoteException {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(DATA + path);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            if (System.currentTimeMillis() < e.expiresAt) {
+                hits++;
+                return (byte[]) e.value;
+            }
+        }
+        Map<String, Object> attr = fs.getattr(path);
+        synchronized (this) {
+            if (attr != null && Long.valueOf(e.version).equals(attr.get("version"))) {
+                revalidated++;
+                e.expiresAt = System.currentTimeMillis() + leaseMs;
+                put(ATTR + path, attr, -1);
+                return (byte[]) e.value;
+            }
+            misses++;
+            entries.remove(DATA + path);
+        }
+        return null;
+    }
+
+    // ===== Letture =====
+
+    @Override
+    public byte[] read(String path) throws RemoteException {
+        byte[] data = cachedData(path);
+        if (data != null) return data;
+
+        // la versione si legge prima del contenuto: se il file cambia nel mezzo la copia
+        // risulta più vecchia di quella vera e alla prossima rivalidazione si rilegge
+        Map<String, Object> attr = fs.getattr(path);
+        data = fs.read(path);
+        if (data != null && attr != null && data.length <= maxFileBytes
+                && Long.valueOf(data.length).equals(attr.get("size"))) {
+            put(DATA + path, data, (Long) attr.get("version"));
+        }
+        return data;
+    }
+
+    @Override
+    public byte[] read(String path, long offset, int length) throws RemoteException {
+        Entry e = valid(DATA + path);
+        if (e != null) {
+            byte[] data = (byte[]) e.value;
+            int from = (int) Math.min(Math.max(offset, 0), data.length);
+            int to = (int) Math.min((long) from + Math.max(length, 0), data.length);
+            return Arrays.copyOfRange(data, from, to);
+        }
+        return fs.read(path, offset, length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getattr(String path) throws RemoteException {
+        Entry e = valid(ATTR + path);
+        if (e != null) return (Map<String, Object>) e.value;
+        synchronized (this) { misses++; }
+        Map<String, Object> attr = fs.getattr(path);
+        if (attr != null) put(ATTR + path, attr, -1);
+        return attr;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> readdir(String path) throws RemoteException {
+        Entry e = valid(LIST + path);
+        if (e != null) return new ArrayList<>((List<String>) e.value);
+        synchronized (this) { misses++; }
+        List<String> list = fs.readdir(path);
+        if (list != null) put(LIST + path, new ArrayList<>(list), -1);
+        return list;
+    }
+
+    @Override
+    public String locate(String file) throws RemoteException {
+        Entry e = valid(LOCATE + file);
+        if (e != null) return (String) e.value;
+        synchronized (this) { misses++; }
+        String owner = fs.locate(file);
+        if (owner != null && !"not found".equals(owner)) put(LOCATE + file, owner, -1);
+        return owner;
+    }
+
+    // ===== Modifiche: passano al peer e invalidano le voci coinvolte =====
+
+    @Override
+    public boolean mkdir(String path) throws RemoteException {
+        try { return fs.mkdir(path); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean mknod(String path) throws RemoteException {
+        try { return fs.mknod(path); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean symlink(String target, String linkPath) throws RemoteException {
+        try { return fs.symlink(target, linkPath); } finally { invalidate(linkPath); }
+    }
+
+    @Override
+    public boolean write(String path, byte[] content) throws RemoteException {
+        try { return fs.write(path, content); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean write(String path, long offset, byte[] data) throws RemoteException {
+        try { return fs.write(path, offset, data); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean append(String path, byte[] data) throws RemoteException {
+        try { return fs.append(path, data); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean truncate(String path, long size) throws RemoteException {
+        try { return fs.truncate(path, size); } finally { invalidate(path); }
+    }
+
+    @Override
+    public long writeIfVersion(String path, long expected, byte[] content) throws RemoteException {
+        try { return fs.writeIfVersion(path, expected, content); } finally { invalidate(path); }
+    }
+
+    @Override
+    public boolean rename(String oldPath, String newPath) throws RemoteException {
+        try { return fs.rename(oldPath, newPath); } finally { invalidateTree(oldPath); invalidate(newPath); }
+    }
+
+    @Override
+    public List<Object> batch(List<BatchOp> ops) throws RemoteException {
+        try {
+            return fs.batch(ops);
+        } finally {
+            for (BatchOp op : ops) {
+                switch (op.getType()) {
+                    case READ: case READ_AT: case GETATTR: case READDIR:
+                        break;
+                    case RENAME:
+                        invalidateTree(op.getPath());
+                        invalidate(op.getNewPath());
+                        break;
+                    default:
+                        invalidate(op.getPath());
+                }
+            }
+        }
+    }
+
+    // Il rename di una directory rende obsolete anche le voci dei discendenti
+    private synchronized void invalidateTree(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        int before = entries.size();
+        entries.keySet().removeIf(k -> k.substring(2).startsWith(prefix));
+        invalidations += before - entries.size();
+        invalidate(path);
+    }
+
+    // ===== Non in cache =====
+
+    @Override
+    public TransferHandle openTransfer(String path) throws RemoteException { return fs.openTransfer(path); }
+    @Override
+    public boolean adopt(String path, byte[] data, long modifiedAt, long version) throws RemoteException { return fs.adopt(path, data, modifiedAt, version); }
+    @Override
+    public boolean replicate(BatchOp op, long modifiedAt, long version) throws RemoteException { return fs.replicate(op, modifiedAt, version); }
+    @Override
+    public Map<String, Long> replicaVersions(List<String> paths) throws RemoteException { return fs.replicaVersions(paths); }
+
+    @Override
+    public boolean writeWithVisited(String path, byte[] content, RequestContext ctx) throws RemoteException { return fs.writeWithVisited(path, content, ctx); }
+    @Override
+    public byte[] readWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.readWithVisited(path, ctx); }
+    @Override
+    public boolean renameWithVisited(String oldPath, String newPath, RequestContext ctx) throws RemoteException { return fs.renameWithVisited(oldPath, newPath, ctx); }
+    @Override
+    public List<String> readdirWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.readdirWithVisited(path, ctx); }
+    @Override
+    public Map<String, Object> getattrWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.getattrWithVisited(path, ctx); }
+    @Override
+    public String locateWithVisited(String file, RequestContext ctx) throws RemoteException { return fs.locateWithVisited(file, ctx); }
+    @Override
+    public boolean mkdirWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.mkdirWithVisited(path, ctx); }
+    @Override
+    public boolean mknodWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.mknodWithVisited(path, ctx); }
+    @Override
+    public byte[] readWithVisited(String path, long offset, int length, RequestContext ctx) throws RemoteException { return fs.readWithVisited(path, offset, length, ctx); }
+    @Override
+    public boolean writeWithVisited(String path, long offset, byte[] data, RequestContext ctx) throws RemoteException { return fs.writeWithVisited(path, offset, data, ctx); }
+    @Override
+    public boolean appendWithVisited(String path, byte[] data, RequestContext ctx) throws RemoteException { return fs.appendWithVisited(path, data, ctx); }
+    @Override
+    public boolean truncateWithVisited(String path, long size, RequestContext ctx) throws RemoteException { return fs.truncateWithVisited(path, size, ctx); }
+    @Override
+    public long writeIfVersionWithVisited(String path, long expected, byte[] content, RequestContext ctx) throws RemoteException { return fs.writeIfVersionWithVisited(path, expected, content, ctx); }
+    @Override
+    public List<Object> batchWithVisited(List<BatchOp> ops, RequestContext ctx) throws RemoteException { return fs.batchWithVisited(ops, ctx); }
+    @Override
+    public TransferHandle openTransferWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.openTransferWithVisited(path, ctx); }
+
+    @Override
+    public void addNeighbor(String name, String host, int port) throws RemoteException { fs.addNeighbor(name, host, port); }
+    @Override
+    public void removeNeighbor(String name) throws RemoteException { fs.removeNeighbor(name); }
+    @Override
+    public List<String> getNeighbors() throws RemoteException { return fs.getNeighbors(); }
+    @Override
+    public List<String> gossip(List<String> updates) throws RemoteException { return fs.gossip(updates); }
+    @Override
+    public boolean probe(String target, List<String> updates) throws RemoteException { return fs.probe(target, updates); }
+    @Override
+    public List<String> listAllPaths() throws RemoteException { return fs.listAllPaths(); }
+    @Override
+    public WalkPage walk(String prefix, String cursor, int limit) throws RemoteException { return fs.walk(prefix, cursor, limit); }
+    @Override
+    public List<DirSummary> treeSummaries(List<String> dirs) throws RemoteException { return fs.treeSummaries(dirs); }
+    @Override
+    public boolean pathExistsWithVisited(String path, RequestContext ctx) throws RemoteException { return fs.pathExistsWithVisited(path, ctx); }
+
+    // Statistiche del peer seguite da quelle della cache
+    @Override
+    public Map<String, Object> stats() throws RemoteException {
+        Map<String, Object> out = new LinkedHashMap<>(fs.stats());
+        synchronized (this) {
+            out.put("clientCache.entries", entries.size());
+            out.put("clientCache.hits", hits);
+            out.put("clientCache.misses", misses);
+            out.put("clientCache.revalidated", revalidated);
+            out.put("clientCache.invalidations", invalidations);
+        }
+        return out;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static String parentOf(String path) {
+        if (path.isEmpty()) return null;
+        return ParsedPath.of(path).parentPath();
+    }
+}
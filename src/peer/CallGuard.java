@@ -0,0 +1,231 @@
+package peer;
+
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scadenze e circuit breaker per le chiamate verso i vicini.
+ *
+ * Ogni chiamata gira su un thread del pool e il chiamante ne attende il risultato
+ * al più fino alla scadenza: un vicino lento o bloccato non trattiene oltre la
+ * richiesta (né il flood che passa da lì) fino ai timeout di socket di RMI. Il
+ * thread di una chiamata scaduta resta occupato finché il socket non si sblocca,
+ * quindi le chiamate in corso sono al più maxThreads: oltre, la chiamata non parte,
+ * come a breaker aperto (DistributedNode limita anche l'attesa di RMI, vedi
+ * RMI_RESPONSE_TIMEOUT).
+ *
+ * Per ogni vicino un breaker conta i guasti consecutivi (errori di trasporto e
+ * scadenze); alla soglia si apre e per openMs le chiamate falliscono subito senza
+ * toccare la rete. Poi passa a semiaperto: lascia passare una sola chiamata di
+ * prova, che lo richiude se riesce o lo riapre se fallisce. I guasti delle chiamate
+ * partite prima dell'apertura non ne allungano la durata.
+ */
+public class CallGuard {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // Scadenza superata: il vicino non ha risposto in tempo (lo stub resta valido)
+    public static class DeadlineExceededException extends RemoteException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+
+    // Breaker aperto: la chiamata non è nemmeno partita
+    public static class BreakerOpenException extends ConnectException {
+        private static final long serialVersionUID = 1L;
+
+        BreakerOpenException(String message) {
+            super(message);
+        }
+    }
+
+    // Troppe chiamate in corso: come a breaker aperto la chiamata non è partita
+    public static class SaturatedException extends BreakerOpenException {
+        private static final long serialVersionUID = 1L;
+
+        SaturatedException(String message) {
+            super(message);
+        }
+    }
+
+    // Esito dell'ammissione di una chiamata
+    private enum Admission { REJECTED, ADMITTED, TRIAL }
+
+    private static final class Breaker {
+        State state = State.CLOSED;
+        int failures;
+        long openedAt;
+        boolean probing;   // semiaperto: la chiamata di prova è in corso
+    }
+
+    private final int threshold;
+    private final long openMs;
+    private final ExecutorService pool;
+    private final Semaphore slots;   // chiamate in corso, comprese quelle scadute ma ancora appese
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private final AtomicLong deadlines = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+
+    public CallGuard(String owner, int threshold, long openMs, int maxThreads) {
+        this.threshold = threshold;
+        this.openMs = openMs;
+        this.slots = new Semaphore(Math.max(1, maxThreads));
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "rpc-" + owner + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Esegue call verso peer entro timeoutMs. Il breaker aperto la rifiuta subito; gli
+    // errori del peer che ha risposto (ServerException) non contano come guasti.
+    public <T> T call(String peer, long timeoutMs, Callable<T> call) throws Exception {
+        Admission a = allow(peer);
+        if (a == Admission.REJECTED) {
+            rejected.incrementAndGet();
+            throw new BreakerOpenException("Vicino " + peer + " escluso: circuit breaker aperto");
+        }
+        return run(peer, timeoutMs, call, a == Admission.TRIAL);
+    }
+
+    // Come call ma passa anche a breaker aperto: la usano le sonde della membership,
+    // che devono poter accorgersi che il vicino è tornato (e il successo lo richiude).
+    public <T> T probe(String peer, long timeoutMs, Callable<T> call) throws Exception {
+        breakers.computeIfAbsent(peer, p -> new Breaker());
+        return run(peer, timeoutMs, call, false);
+    }
+
+    // trial: la chiamata occupa il posto della prova a breaker semiaperto
+    private <T> T run(String peer, long timeoutMs, Callable<T> call, boolean trial) throws Exception {
+        if (timeoutMs <= 0) {
+            release(peer, false, trial);
+            deadlines.incrementAndGet();
+            throw new DeadlineExceededException("Scadenza della richiesta già superata prima di " + peer);
+        }
+
+        if (!slots.tryAcquire()) {
+            release(peer, null, trial);
+            saturated.incrementAndGet();
+            throw new SaturatedException("Troppe chiamate in corso: quella a " + peer + " non parte");
+        }
+        // il pool non accoda: il task parte subito e il posto si libera quando la
+        // chiamata finisce davvero, non alla scadenza
+        Future<T> f = pool.submit(() -> {
+            try {
+                return call.call();
+            } finally {
+                slots.release();
+            }
+        });
+        try {
+            T res = f.get(timeoutMs, TimeUnit.MILLISECONDS);
+            release(peer, true, trial);
+            return res;
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            deadlines.incrementAndGet();
+            release(peer, false, trial);
+            throw new DeadlineExceededException("Nessuna risposta da " + peer + " entro " + timeoutMs + " ms");
+        } catch (InterruptedException e) {
+            // annullata da chi l'ha chiesta (es. fan-out): non è un guasto del vicino
+            f.cancel(true);
+            release(peer, null, trial);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Chiamata a " + peer + " interrotta");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            release(peer, cause instanceof ServerException || !(cause instanceof RemoteException), trial);
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private Admission allow(String peer) {
+        Breaker b = breakers.computeIfAbsent(peer, p -> new Breaker());
+        synchronized (b) {
+            switch (b.state) {
+                case OPEN:
+                    if (System.currentTimeMillis() - b.openedAt < openMs) return Admission.REJECTED;
+                    b.state = State.HALF_OPEN;
+                    b.probing = true;
+                    return Admission.TRIAL;
+                case HALF_OPEN:
+                    if (b.probing) return Admission.REJECTED;   // una sola prova alla volta
+                    b.probing = true;
+                    return Admission.TRIAL;
+                default:
+                    return Admission.ADMITTED;
+            }
+        }
+    }
+
+    // ok == null: chiamata annullata (o mai partita), nessun esito. Solo la chiamata di
+    // prova libera il suo posto e, se fallisce, riapre il breaker; i guasti di chiamate
+    // partite prima dell'apertura non ne spostano la scadenza.
+    private void release(String peer, Boolean ok, boolean trial) {
+        Breaker b = breakers.get(peer);
+        if (b == null) return;
+        synchronized (b) {
+            if (trial && b.state == State.HALF_OPEN) b.probing = false;
+            if (ok == null) return;
+            if (ok) {
+                b.state = State.CLOSED;
+                b.failures = 0;
+                b.probing = false;
+            } else if (b.state == State.OPEN || (b.state == State.HALF_OPEN && !trial)) {
+                return;   // partita prima dell'apertura: l'esito che conta è quello della prova
+            } else if (b.state == State.HALF_OPEN || ++b.failures >= threshold) {
+                opened.incrementAndGet();
+                b.state = State.OPEN;
+                b.openedAt = System.currentTimeMillis();
+                b.probing = false;
+            }
+        }
+    }
+
+    public boolean isOpen(String peer) {
+        Breaker b = breakers.get(peer);
+        if (b == null) return false;
+        synchronized (b) {
+            return b.state == State.OPEN && System.currentTimeMillis() - b.openedAt < openMs;
+        }
+    }
+
+    public int countOpen() {
+        int n = 0;
+        for (String peer : breakers.keySet()) if (isOpen(peer)) n++;
+        return n;
+    }
+
+    public void forget(String peer) {
+        breakers.remove(peer);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public long getDeadlines() { return deadlines.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getOpened() { return opened.get(); }
+    public long getSaturated() { return saturated.get(); }
+}
@@ -1,13 +1,35 @@
 package peer;
 
+import shared.BatchOp;
 import shared.FileSystemInterface;
+import shared.TransferHandle;
+import shared.WalkPage;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class DistributedFSClient {
+    private static final int CHUNK_SIZE = 1 << 20;   // 1 MiB per RPC
+    private static final int FIND_PAGE = 1000;       // voci per pagina di find
+
+    // Cache locale di attributi, listing e file piccoli (-Dptpvfs.client.cache=false per disattivarla)
+    private static final boolean CACHE =
+        Boolean.parseBoolean(System.getProperty("ptpvfs.client.cache", "true"));
+    private static final long CACHE_LEASE_MS = Long.getLong("ptpvfs.client.cache.leaseMs", 1000);
+    private static final int CACHE_MAX_FILE_BYTES = Integer.getInteger("ptpvfs.client.cache.maxFileBytes", 64 << 10);
+    private static final int CACHE_ENTRIES = Integer.getInteger("ptpvfs.client.cache.entries", 4096);
+
     public static void main(String[] args) {
         if (args.length < 3) {
             System.out.println("Usage: DistributedFSClient <peerName> <host> <port>");
@@ -21,6 +43,7 @@ public class DistributedFSClient {
         try {
             Registry registry = LocateRegistry.getRegistry(host, port);
             FileSystemInterface fs = (FileSystemInterface) registry.lookup(peerName);
+            if (CACHE) fs = new CachingFileSystem(fs, CACHE_LEASE_MS, CACHE_MAX_FILE_BYTES, CACHE_ENTRIES);
 
             Scanner scanner = new Scanner(System.in);
             System.out.println("Connected to " + peerName + "@" + host + ":" + port);
@@ -73,6 +96,31 @@ public class DistributedFSClient {
                         }
                         break;
 
+                    case "writeif":
+                        if (tokens.length < 4) {
+                            System.out.println("Usage: writeif /file version content");
+                        } else {
+                            String content = input.split(" ", 4)[3].trim();
+                            long version = fs.writeIfVersion(tokens[1], Long.parseLong(tokens[2]), content.getBytes());
+                            System.out.println(version > 0 ? "Written (version " + version + ")" : "Version mismatch or file not found");
+                        }
+                        break;
+
+                    case "stat":
+                        if (tokens.length != 2) {
+                            System.out.println("Usage: stat /path");
+                        } else {
+                            Map<String, Object> attr = fs.getattr(tokens[1]);
+                            if (attr == null) {
+                                System.out.println("Not found");
+                            } else {
+                                for (Map.Entry<String, Object> e : attr.entrySet()) {
+                                    System.out.println(" " + e.getKey() + " = " + e.getValue());
+                                }
+                            }
+                        }
+                        break;
+
                     case "read":
                         if (tokens.length != 2) {
                             System.out.println("Usage: read /file");
@@ -82,6 +130,45 @@ public class DistributedFSClient {
                         }
                         break;
 
+                    case "append":
+                        if (tokens.length < 3) {
+                            System.out.println("Usage: append /file content");
+                        } else {
+                            String path = tokens[1];
+                            String content = input.substring(input.indexOf(path) + path.length()).trim();
+                            boolean ok = fs.append(path, content.getBytes());
+                            System.out.println(ok ? "Appended" : "Append failed");
+                        }
+                        break;
+
+                    case "truncate":
+                        if (tokens.length != 3) {
+                            System.out.println("Usage: truncate /file size");
+                        } else {
+                            boolean ok = fs.truncate(tokens[1], Long.parseLong(tokens[2]));
+                            System.out.println(ok ? "Truncated" : "Truncate failed");
+                        }
+                        break;
+
+                    case "get":
+                        if (tokens.length != 3) {
+                            System.out.println("Usage: get /file localFile");
+                        } else {
+                            long n = transfer(fs, tokens[1], Paths.get(tokens[2]));
+                            if (n < 0) n = download(fs, tokens[1], Paths.get(tokens[2]));
+                            System.out.println(n >= 0 ? "Downloaded " + n + " bytes" : "File not found");
+                        }
+                        break;
+
+                    case "put":
+                        if (tokens.length != 3) {
+                            System.out.println("Usage: put localFile /file");
+                        } else {
+                            long n = upload(fs, Paths.get(tokens[1]), tokens[2]);
+                            System.out.println(n >= 0 ? "Uploaded " + n + " bytes" : "Upload failed");
+                        }
+                        break;
+
                     case "ls":
                         if (tokens.length != 2) {
                             System.out.println("Usage: ls /dir");
@@ -92,6 +179,15 @@ public class DistributedFSClient {
                         }
                         break;
 
+                    case "find":
+                        if (tokens.length > 2) {
+                            System.out.println("Usage: find [prefix]");
+                        } else {
+                            long n = find(fs, tokens.length == 2 ? tokens[1] : "/");
+                            System.out.println(n + " entries");
+                        }
+                        break;
+
                     case "locate":
                         if (tokens.length != 2) {
                             System.out.println("Usage: locate /file");
@@ -117,8 +213,18 @@ public class DistributedFSClient {
                         }
                         break;
 
+                    case "batch":
+                        runBatch(fs, scanner);
+                        break;
+
+                    case "stats":
+                        for (Map.Entry<String, Object> e : fs.stats().entrySet()) {
+                            System.out.println(" " + e.getKey() + " = " + e.getValue());
+                        }
+                        break;
+
                     default:
-                        System.out.println("Unknown command. Try: mkdir, mknod, symlink, write, read, ls, locate, neighbors, exit");
+                        System.out.println("Unknown command. Try: mkdir, mknod, symlink, write, writeif, stat, read, append, truncate, get, put, ls, locate, neighbors, batch, stats, exit");
                         break;
                 }
             }
@@ -128,4 +234,116 @@ public class DistributedFSClient {
             e.printStackTrace();
         }
     }
+
+    // Legge comandi fino a "end" e li invia con un'unica RPC batch
+    private static void runBatch(FileSystemInterface fs, Scanner scanner) throws IOException {
+        System.out.println("Batch: mkdir, mknod, write, append, truncate, read, rename, getattr, ls; 'end' per eseguire");
+        List<BatchOp> ops = new ArrayList<>();
+        while (true) {
+            System.out.print("... ");
+            String line = scanner.nextLine().trim();
+            if (line.equals("end")) break;
+            if (line.isEmpty()) continue;
+            BatchOp op;
+            try {
+                op = parseBatchOp(line);
+            } catch (NumberFormatException e) {
+                op = null;
+            }
+            if (op == null) {
+                System.out.println("Ignored: " + line);
+            } else {
+                ops.add(op);
+            }
+        }
+        if (ops.isEmpty()) return;
+
+        List<Object> results = fs.batch(ops);
+        for (int i = 0; i < ops.size(); i++) {
+            System.out.println(" " + ops.get(i) + " -> " + formatResult(results.get(i)));
+        }
+    }
+
+    private static BatchOp parseBatchOp(String line) {
+        String[] tokens = line.split(" ");
+        String content = tokens.length > 2
+            ? line.substring(line.indexOf(tokens[1]) + tokens[1].length()).trim() : "";
+        switch (tokens[0]) {
+            case "mkdir":    return tokens.length == 2 ? BatchOp.mkdir(tokens[1]) : null;
+            case "mknod":    return tokens.length == 2 ? BatchOp.mknod(tokens[1]) : null;
+            case "write":    return tokens.length >= 3 ? BatchOp.write(tokens[1], content.getBytes()) : null;
+            case "append":   return tokens.length >= 3 ? BatchOp.append(tokens[1], content.getBytes()) : null;
+            case "truncate": return tokens.length == 3 ? BatchOp.truncate(tokens[1], Long.parseLong(tokens[2])) : null;
+            case "read":     return tokens.length == 2 ? BatchOp.read(tokens[1]) : null;
+            case "rename":   return tokens.length == 3 ? BatchOp.rename(tokens[1], tokens[2]) : null;
+            case "getattr":  return tokens.length == 2 ? BatchOp.getattr(tokens[1]) : null;
+            case "ls":       return tokens.length == 2 ? BatchOp.readdir(tokens[1]) : null;
+            default:         return null;
+        }
+    }
+
+    private static String formatResult(Object res) {
+        if (res == null) return "not found";
+        if (res instanceof byte[]) return new String((byte[]) res);
+        return res.toString();
+    }
+
+    // Scarica il file dal canale bulk del peer proprietario; -1 se non disponibile
+    private static long transfer(FileSystemInterface fs, String path, Path local) throws IOException {
+        TransferHandle h = fs.openTransfer(path);
+        if (h == null) return -1;
+        try {
+            return BulkServer.fetch(h, local);
+        } catch (IOException e) {
+            System.out.println("Bulk transfer from " + h + " failed (" + e.getMessage() + "), falling back to chunked reads");
+            return -1;
+        }
+    }
+
+    // Stampa i path del peer che iniziano con prefix, una pagina alla volta
+    private static long find(FileSystemInterface fs, String prefix) throws Exception {
+        long count = 0;
+        String cursor = null;
+        do {
+            WalkPage page = fs.walk(prefix, cursor, FIND_PAGE);
+            for (WalkPage.Entry e : page.getEntries()) {
+                String kind = e.isDirectory() ? "d " : "SymlinkNode".equals(e.getType()) ? "l " : "- ";
+                System.out.println(kind + e.getPath() + "  " + e.getSize());
+            }
+            count += page.getEntries().size();
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return count;
+    }
+
+    // Scarica il file a blocchi di CHUNK_SIZE senza tenerlo tutto in memoria
+    private static long download(FileSystemInterface fs, String path, Path local) throws IOException {
+        if (fs.getattr(path) == null) return -1;
+        long offset = 0;
+        try (OutputStream out = Files.newOutputStream(local)) {
+            while (true) {
+                byte[] chunk = fs.read(path, offset, CHUNK_SIZE);
+                if (chunk == null) return -1;
+                if (chunk.length == 0) break;
+                out.write(chunk);
+                offset += chunk.length;
+            }
+        }
+        return offset;
+    }
+
+    // Carica il file locale a blocchi; il file remoto deve esistere e viene sovrascritto
+    private static long upload(FileSystemInterface fs, Path local, String path) throws IOException {
+        if (!fs.truncate(path, 0)) return -1;
+        long offset = 0;
+        byte[] buf = new byte[CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(local)) {
+            int n;
+            while ((n = in.readNBytes(buf, 0, buf.length)) > 0) {
+                if (!fs.write(path, offset, Arrays.copyOf(buf, n))) return -1;
+                offset += n;
+            }
+        }
+        return offset;
+    }
 }
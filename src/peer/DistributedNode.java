@@ -1,50 +1,217 @@
 package peer;
 
+import shared.BatchOp;
+import shared.DirSummary;
 import shared.FileSystemInterface;
+import shared.RequestContext;
+import shared.TransferHandle;
+import shared.WalkPage;
 import shared.fs.FileSystem;
+import shared.fs.Journal;
+import shared.fs.ParsedPath;
 
+import java.lang.management.ManagementFactory;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.management.ObjectName;
 
 public class DistributedNode extends UnicastRemoteObject implements FileSystemInterface {
     private final String name;
     private final String host;
     private final int port;
     private final FileSystem localFs;
-    private final Map<String, Neighbor> neighbors = new HashMap<>();
+    private final Map<String, Neighbor> neighbors = new ConcurrentHashMap<>();
+    private final StubCache stubs;
+    private final LocationIndex index = new LocationIndex();
+
+    // Id delle richieste già elaborate, per scartare i duplicati del flooding
+    private static final long SEEN_TTL_MS = Long.getLong("ptpvfs.request.seenMs", 30_000);
+    private final SeenRequests seen = new SeenRequests(SEEN_TTL_MS);
+
+    // Fan-out parallelo per readdir/pathExists (-Dptpvfs.fanout.parallel=false per il vecchio ciclo sequenziale)
+    private static final boolean PARALLEL_FANOUT =
+        Boolean.parseBoolean(System.getProperty("ptpvfs.fanout.parallel", "true"));
+    private static final long FANOUT_DEADLINE_MS = Long.getLong("ptpvfs.fanout.deadlineMs", 5000);
+    private static final int FANOUT_THREADS = Integer.getInteger("ptpvfs.fanout.threads", 32);
+    private final FanOut fanOut;
+
+    // Trasporto tra peer: rmi, oppure wire (protocollo binario su porta RMI + offset).
+    // I client usano sempre RMI.
+    private static final boolean WIRE_TRANSPORT =
+        "wire".equalsIgnoreCase(System.getProperty("ptpvfs.transport", "rmi"));
+    private static final int WIRE_PORT_OFFSET = Integer.getInteger("ptpvfs.wire.portOffset", 1000);
+    private WireServer wireServer;
+
+    // Canale dati per openTransfer, sulla porta RMI + offset
+    private static final int BULK_PORT_OFFSET = Integer.getInteger("ptpvfs.bulk.portOffset", 2000);
+    private static final int BULK_MAX_TRANSFERS = Integer.getInteger("ptpvfs.bulk.maxTransfers", 16);
+    private static final long BULK_TIMEOUT_MS = Long.getLong("ptpvfs.bulk.timeoutMs", 10_000);
+    private BulkServer bulkServer;
+
+    // Metriche e tracce: le chiamate ricevute passano da MeteredFileSystem, pubblicato al
+    // posto del nodo. Endpoint HTTP locale sulla porta RMI + offset e MBean JMX.
+    private static final boolean METRICS_HTTP =
+        Boolean.parseBoolean(System.getProperty("ptpvfs.metrics.http", "true"));
+    private static final int METRICS_PORT_OFFSET = Integer.getInteger("ptpvfs.metrics.portOffset", 3000);
+    private static final boolean METRICS_JMX =
+        Boolean.parseBoolean(System.getProperty("ptpvfs.metrics.jmx", "true"));
+    private static final int TRACE_KEEP = Integer.getInteger("ptpvfs.trace.keep", 1024);
+    private final Metrics metrics;
+    private final MeteredFileSystem metered;
+    private MetricsServer metricsServer;
+    private ObjectName mbeanName;
+
+    // Piazzamento dei nuovi nodi: parent (sul peer che possiede il parent) oppure hash
+    // (anello con nodi virtuali; le directory diventano namespace distribuiti)
+    private static final boolean HASH_PLACEMENT =
+        "hash".equalsIgnoreCase(System.getProperty("ptpvfs.placement", "parent"));
+    private static final int PLACEMENT_VNODES = Integer.getInteger("ptpvfs.placement.vnodes", 64);
+    private static final long REBALANCE_DELAY_MS = Long.getLong("ptpvfs.placement.rebalanceDelayMs", 1000);
+    private final HashRing ring = new HashRing(PLACEMENT_VNODES);
+    private final Rebalancer rebalancer;
+
+    // Replicazione (solo con il placement hash): ogni file sta sui primi R peer dell'anello,
+    // il primo è il primario. Le letture vanno alla replica vicina più veloce.
+    private static final int REPLICATION_PROPERTY = Integer.getInteger("ptpvfs.replication", 1);
+    private static final int REPLICATION = HASH_PLACEMENT ? Math.max(1, REPLICATION_PROPERTY) : 1;
+    private static final long REPAIR_MS = Long.getLong("ptpvfs.replication.repairMs", 30_000);
+    private static final long TOMBSTONE_MS = Long.getLong("ptpvfs.replication.tombstoneMs", 86_400_000);
+    private final Tombstones tombstones = new Tombstones(TOMBSTONE_MS);
+    private final Object[] writeLocks = new Object[64];   // serializzano modifica locale e propagazione per path
+    private final PeerLatency latency = new PeerLatency();
+    private AntiEntropy antiEntropy;
+    private final AtomicLong replicaPushes = new AtomicLong();
+    private final AtomicLong replicaErrors = new AtomicLong();
+    private final AtomicLong replicaReads = new AtomicLong();
+
+    // Visita paginata (walk): voci massime per pagina, qualunque sia il limite richiesto
+    private static final int WALK_MAX_PAGE = Integer.getInteger("ptpvfs.walk.maxPage", 10_000);
+
+    // Membership a gossip (SWIM): sonde periodiche, sospetti e rimozione dei vicini caduti.
+    // Con false i vicini cambiano solo con addNeighbor/removeNeighbor, come prima.
+    private static final boolean GOSSIP = Boolean.parseBoolean(System.getProperty("ptpvfs.gossip", "true"));
+    private static final long GOSSIP_PERIOD_MS = Long.getLong("ptpvfs.gossip.periodMs", 1000);
+    private static final long GOSSIP_PING_TIMEOUT_MS = Long.getLong("ptpvfs.gossip.pingTimeoutMs", 500);
+    private static final int GOSSIP_INDIRECT = Integer.getInteger("ptpvfs.gossip.indirect", 3);
+    private static final long GOSSIP_SUSPECT_MS = Long.getLong("ptpvfs.gossip.suspectMs", 5000);
+    private Membership membership;
+
+    // Scadenze e circuit breaker per vicino: ogni RPC attende al più rpc.timeoutMs (o quanto
+    // resta della scadenza della richiesta); dopo breaker.failures guasti consecutivi il
+    // vicino è escluso per breaker.openMs, poi una chiamata di prova decide se riammetterlo
+    private static final long RPC_TIMEOUT_MS = Long.getLong("ptpvfs.rpc.timeoutMs", 5000);
+    private static final int BREAKER_FAILURES = Integer.getInteger("ptpvfs.breaker.failures", 5);
+    private static final long BREAKER_OPEN_MS = Long.getLong("ptpvfs.breaker.openMs", 5000);
+    private static final int RPC_MAX_THREADS = Integer.getInteger("ptpvfs.rpc.maxThreads", 256);
+    // Oltre la scadenza di CallGuard il risultato non serve più: RMI deve liberare il thread
+    // della chiamata poco dopo, invece di attendere il socket all'infinito (default di RMI)
+    private static final String RMI_RESPONSE_TIMEOUT = "sun.rmi.transport.tcp.responseTimeout";
+    static {
+        if (System.getProperty(RMI_RESPONSE_TIMEOUT) == null) {
+            System.setProperty(RMI_RESPONSE_TIMEOUT, String.valueOf(2 * RPC_TIMEOUT_MS));
+        }
+    }
+    private final CallGuard guard;
+
+    // Letture hedged dalle repliche: se la replica scelta non risponde entro il suo 95° percentile
+    // (almeno hedge.minDelayMs) si manda la stessa lettura alla successiva e vince la prima
+    private static final boolean HEDGE = Boolean.parseBoolean(System.getProperty("ptpvfs.hedge", "false"));
+    private static final long HEDGE_MIN_DELAY_MS = Long.getLong("ptpvfs.hedge.minDelayMs", 2);
+
+    // Controllo di integrità al join: directory per richiesta di riassunti e directory confrontate
+    private static final int SUMMARY_CHUNK = 256;
+    private final AtomicLong joinSummaryDirs = new AtomicLong();
+
+    // Mount lazy: all'avvio solo metadati, contenuto letto dal disco su richiesta
+    private static final boolean LAZY_MOUNT =
+        Boolean.parseBoolean(System.getProperty("ptpvfs.mount.lazy", "true"));
+    // Budget della cache del contenuto dei file (byte)
+    private static final long CACHE_BYTES = Long.getLong("ptpvfs.cache.bytes", 256L << 20);
+
+    // Write-behind su journal: off (write-through sincrono), always, interval, never (politica di fsync)
+    private static final String JOURNAL = System.getProperty("ptpvfs.journal", "off");
+    private static final long JOURNAL_INTERVAL_MS = Long.getLong("ptpvfs.journal.intervalMs", 100);
+    private static final long JOURNAL_QUEUE_BYTES = Long.getLong("ptpvfs.journal.maxQueueBytes", 64L << 20);
 
     public DistributedNode(String name, String host, int port, String dataDir) throws RemoteException {
         super();
         this.name = name;
         this.host = host;
         this.port = port;
-        this.localFs = FileSystem.mount(dataDir);
+        this.stubs = new StubCache(WIRE_TRANSPORT, WIRE_PORT_OFFSET);
+        this.metrics = new Metrics(name, TRACE_KEEP);
+        this.metered = new MeteredFileSystem(this, metrics);
+        this.localFs = FileSystem.mount(dataDir, LAZY_MOUNT);
+        System.out.println("Mount " + (localFs.isLazy() ? "lazy" : "completo") + " di " + dataDir + ": "
+                           + localFs.getNodeCount() + " nodi in " + localFs.getMountMillis() + " ms");
+        this.localFs.setCacheBudget(CACHE_BYTES);
+        metrics.register("fs.lockWait.tree", localFs.getTreeLockWaits());
+        metrics.register("fs.lockWait.path", localFs.getPathLockWaits());
+        if (localFs.getJournalReplayed() > 0) {
+            System.out.println("Journal: " + localFs.getJournalReplayed() + " record riapplicati al disco");
+        }
+        if (!"off".equalsIgnoreCase(JOURNAL)) {
+            try {
+                localFs.enableJournal(Journal.Sync.valueOf(JOURNAL.toUpperCase()), JOURNAL_INTERVAL_MS, JOURNAL_QUEUE_BYTES);
+                // allo spegnimento la coda viene applicata al disco
+                Runtime.getRuntime().addShutdownHook(new Thread(localFs::closeJournal, "journal-shutdown"));
+                System.out.println("Write-behind attivo (fsync " + JOURNAL.toLowerCase() + ")");
+            } catch (Exception e) {
+                metrics.error("journal", "Journal non attivato, resto in write-through: " + e.getMessage());
+            }
+        }
+        this.fanOut = new FanOut(name, FANOUT_THREADS);
+        this.guard = new CallGuard(name, BREAKER_FAILURES, BREAKER_OPEN_MS, RPC_MAX_THREADS);
+        this.ring.add(name);
+        this.rebalancer = new Rebalancer(name, localFs, ring, REPLICATION, this::adoptOn, REBALANCE_DELAY_MS);
+        for (int i = 0; i < writeLocks.length; i++) writeLocks[i] = new Object();
+        if (REPLICATION_PROPERTY > 1 && !HASH_PLACEMENT) {
+            metrics.error("config", "ptpvfs.replication richiede ptpvfs.placement=hash: replicazione disattivata");
+        }
     }
 
     @Override
     public List<String> listAllPaths() throws RemoteException {
         List<String> paths = new ArrayList<>();
-        collectPaths("/", localFs, paths);
+        localFs.walk("/", null, Integer.MAX_VALUE, (path, type, size, modifiedAt) -> paths.add(path));
         return paths;
     }
 
-    private void collectPaths(String prefix, shared.fs.FileSystem fs, List<String> paths) {
-        List<String> children = fs.readdir(prefix);
-        if (children == null) return;
-
-        for (String child : children) {
-            String fullPath = prefix.equals("/") ? "/" + child : prefix + "/" + child;
-            paths.add(fullPath);
+    @Override
+    public WalkPage walk(String prefix, String cursor, int limit) throws RemoteException {
+        List<WalkPage.Entry> entries = new ArrayList<>();
+        String next = localFs.walk(prefix, cursor, Math.min(limit, WALK_MAX_PAGE),
+                                   (path, type, size, modifiedAt) -> entries.add(new WalkPage.Entry(path, type, size, modifiedAt)));
+        return new WalkPage(entries, next);
+    }
 
-            // if directory → recurse
-            Map<String, Object> attr = fs.getattr(fullPath);
-            if (attr != null && "DirectoryNode".equals(attr.get("type"))) {
-                collectPaths(fullPath, fs, paths);
-            }
+    @Override
+    public List<DirSummary> treeSummaries(List<String> dirs) throws RemoteException {
+        List<DirSummary> out = new ArrayList<>();
+        for (String dir : dirs) {
+            String base = "/".equals(dir) ? "" : dir;
+            localFs.summarize(dir, (child, directory, hash, files) ->
+                out.add(new DirSummary(base + "/" + child, directory, hash, files)));
         }
+        return out;
+    }
+
+    // Tutti i path di un altro peer, letti a pagine invece che in un'unica risposta
+    private static List<String> remotePaths(FileSystemInterface stub) throws RemoteException {
+        List<String> paths = new ArrayList<>();
+        String cursor = null;
+        do {
+            WalkPage page = stub.walk("/", cursor, WALK_MAX_PAGE);
+            for (WalkPage.Entry e : page.getEntries()) paths.add(e.getPath());
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return paths;
     }
 
 
@@ -52,20 +219,21 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
 
     @Override
     public boolean mkdir(String path) throws RemoteException {
-        return mkdirWithVisited(path, new ArrayList<>());
+        return mkdirWithVisited(path, RequestContext.create());
         //        return localFs.mkdir(path);
     }
     @Override
-    public boolean mkdirWithVisited(String path , List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return false;
-        visited.add(this.name);
+    public boolean mkdirWithVisited(String path , RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
 
         // === 1. Controllo integrità globale: path non deve già esistere ===
-        if (pathExistsWithVisited(path, new ArrayList<>())) {
-            System.err.println("Integrity check failed: " + path + " già esiste in rete");
+        if (pathExistsWithVisited(path, ctx.restart())) {
+            metrics.error("integrity", "Integrity check failed: " + path + " già esiste in rete");
             return false;
         }
 
+        if (HASH_PLACEMENT) return place(path, true, ctx);
+
         // === 2. Trova il parent ===
         String parent = parentOf(path);
         if (parent == null) return false; // root non gestita
@@ -75,36 +243,28 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
             return localFs.mkdir(path);
         }
 
-        // Se il parent esiste in remoto → delego la creazione al peer che lo possiede
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                if (stub.pathExistsWithVisited(parent, new ArrayList<>(visited))) {
-                    return stub.mkdirWithVisited(path, new ArrayList<>(visited));
-                }
-            } catch (Exception ignored) {}
-        }
-
+        // Se il parent esiste in remoto → delego la creazione al peer che lo possiede.
+        // Il nuovo path ricade sotto il parent, quindi l'indice lo copre già.
         // === 3. Nessuno ha il parent → fallisce
-        return false;
+        return route(parent, ctx, (stub, next) -> stub.mkdirWithVisited(path, next), ok -> ok, false);
     }
 
 
     @Override
     public boolean mknod(String path) throws RemoteException {
-        return mknodWithVisited(path, new ArrayList<>());
+        return mknodWithVisited(path, RequestContext.create());
     }
-    public boolean mknodWithVisited(String path, List<String> visited) throws RemoteException{
-        if (visited.contains(this.name)) return false;
-        visited.add(this.name);
+    public boolean mknodWithVisited(String path, RequestContext ctx) throws RemoteException{
+        if (!firstVisit(ctx)) return false;
 
         // === 1. Controllo integrità globale: path non deve già esistere ===
-        if (pathExistsWithVisited(path, new ArrayList<>())) {
-            System.err.println("Integrity check failed: " + path + " già esiste in rete");
+        if (pathExistsWithVisited(path, ctx.restart())) {
+            metrics.error("integrity", "Integrity check failed: " + path + " già esiste in rete");
             return false;
         }
 
+        if (HASH_PLACEMENT) return place(path, false, ctx);
+
         // === 2. Trova il parent ===
         String parent = parentOf(path);
         if (parent == null) return false; // root non gestita
@@ -114,19 +274,10 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
             return localFs.mknod(path);
         }
 
-        // Se il parent esiste in remoto → delego la creazione al peer che lo possiede
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                if (stub.pathExistsWithVisited(parent, new ArrayList<>(visited))) {
-                    return stub.mknodWithVisited(path, new ArrayList<>(visited));
-                }
-            } catch (Exception ignored) {}
-        }
-
+        // Se il parent esiste in remoto → delego la creazione al peer che lo possiede.
+        // Il nuovo path ricade sotto il parent, quindi l'indice lo copre già.
         // === 3. Nessuno ha il parent → fallisce
-        return false;
+        return route(parent, ctx, (stub, next) -> stub.mknodWithVisited(path, next), ok -> ok, false);
     }
 
     @Override
@@ -137,97 +288,597 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
     // ===== WRITE =====
     @Override
     public boolean write(String path, byte[] content) throws RemoteException {
-        return writeWithVisited(path, content, new ArrayList<>());
+        return writeWithVisited(path, content, RequestContext.create());
     }
 
     @Override
-    public boolean writeWithVisited(String path, byte[] content, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return false;
-        visited.add(this.name);
+    public boolean writeWithVisited(String path, byte[] content, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
 
         if (localFs.lookup(path) != null) {
-            return localFs.write(path, content);
+            return writeLocal(path, ctx, (stub, next) -> stub.writeWithVisited(path, content, next),
+                              () -> localFs.write(path, content) ? BatchOp.write(path, content) : null);
         }
 
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                if (stub.writeWithVisited(path, content, new ArrayList<>(visited))) return true;
-            } catch (Exception ignored) {}
-        }
-        return false;
+        return route(path, ctx, (stub, next) -> stub.writeWithVisited(path, content, next), ok -> ok, false);
     }
 
     // ===== READ =====
     @Override
     public byte[] read(String path) throws RemoteException {
-        return readWithVisited(path, new ArrayList<>());
+        return readWithVisited(path, RequestContext.create());
     }
 
     @Override
-    public byte[] readWithVisited(String path, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return null;
-        visited.add(this.name);
+    public byte[] readWithVisited(String path, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return null;
 
         byte[] data = localFs.read(path);
         if (data != null) return data;
 
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                byte[] res = stub.readWithVisited(path, new ArrayList<>(visited));
-                if (res != null) return res;
-            } catch (Exception ignored) {}
+        return nearest(path, ctx, (stub, next) -> stub.readWithVisited(path, next), Objects::nonNull, null);
+    }
+
+    // ===== I/O a blocchi =====
+    @Override
+    public byte[] read(String path, long offset, int length) throws RemoteException {
+        return readWithVisited(path, offset, length, RequestContext.create());
+    }
+
+    @Override
+    public byte[] readWithVisited(String path, long offset, int length, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return null;
+
+        byte[] data = localFs.read(path, offset, length);
+        if (data != null) return data;
+
+        return nearest(path, ctx, (stub, next) -> stub.readWithVisited(path, offset, length, next), Objects::nonNull, null);
+    }
+
+    @Override
+    public boolean write(String path, long offset, byte[] data) throws RemoteException {
+        return writeWithVisited(path, offset, data, RequestContext.create());
+    }
+
+    @Override
+    public boolean writeWithVisited(String path, long offset, byte[] data, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
+
+        if (localFs.lookup(path) != null) {
+            return writeLocal(path, ctx, (stub, next) -> stub.writeWithVisited(path, offset, data, next),
+                              () -> localFs.write(path, offset, data) ? BatchOp.write(path, offset, data) : null);
         }
-        return null;
+
+        return route(path, ctx, (stub, next) -> stub.writeWithVisited(path, offset, data, next), ok -> ok, false);
+    }
+
+    @Override
+    public boolean append(String path, byte[] data) throws RemoteException {
+        return appendWithVisited(path, data, RequestContext.create());
+    }
+
+    @Override
+    public boolean appendWithVisited(String path, byte[] data, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
+
+        if (localFs.lookup(path) != null) {
+            if (REPLICATION <= 1) return localFs.append(path, data);
+            // alle repliche va una scrittura all'offset a cui è finito l'append,
+            // che applicata due volte non duplica i dati
+            return writeLocal(path, ctx, (stub, next) -> stub.appendWithVisited(path, data, next), () -> {
+                Map<String, Object> attr = localFs.getattr(path);
+                if (attr == null) return null;
+                long at = (Long) attr.get("size");
+                return localFs.write(path, at, data) ? BatchOp.write(path, at, data) : null;
+            });
+        }
+
+        return route(path, ctx, (stub, next) -> stub.appendWithVisited(path, data, next), ok -> ok, false);
+    }
+
+    @Override
+    public boolean truncate(String path, long size) throws RemoteException {
+        return truncateWithVisited(path, size, RequestContext.create());
+    }
+
+    @Override
+    public boolean truncateWithVisited(String path, long size, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
+
+        if (localFs.lookup(path) != null) {
+            return writeLocal(path, ctx, (stub, next) -> stub.truncateWithVisited(path, size, next),
+                              () -> localFs.truncate(path, size) ? BatchOp.truncate(path, size) : null);
+        }
+
+        return route(path, ctx, (stub, next) -> stub.truncateWithVisited(path, size, next), ok -> ok, false);
+    }
+
+    // ===== SCRITTURA CONDIZIONALE =====
+    @Override
+    public long writeIfVersion(String path, long expected, byte[] content) throws RemoteException {
+        return writeIfVersionWithVisited(path, expected, content, RequestContext.create());
+    }
+
+    // Con la replicazione il confronto lo fa il primario, di cui le repliche hanno la
+    // stessa versione: la versione letta da una replica vale anche per lui
+    @Override
+    public long writeIfVersionWithVisited(String path, long expected, byte[] content, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return -1;
+
+        if (localFs.lookup(path) != null) {
+            if (REPLICATION <= 1) return localFs.writeIfVersion(path, expected, content);
+            long[] version = {-1};
+            writeLocal(path, ctx, (stub, next) -> (version[0] = stub.writeIfVersionWithVisited(path, expected, content, next)) > 0, () -> {
+                version[0] = localFs.writeIfVersion(path, expected, content);
+                return version[0] > 0 ? BatchOp.write(path, content) : null;
+            });
+            return version[0];
+        }
+
+        return route(path, ctx, (stub, next) -> stub.writeIfVersionWithVisited(path, expected, content, next), v -> v > 0, -1L);
     }
 
     // ===== RENAME =====
     @Override
     public boolean rename(String oldPath, String newPath) throws RemoteException {
-        return renameWithVisited(oldPath, newPath, new ArrayList<>());
+        return renameWithVisited(oldPath, newPath, RequestContext.create());
     }
 
     @Override
-    public boolean renameWithVisited(String oldPath, String newPath, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return false;
-        visited.add(this.name);
+    public boolean renameWithVisited(String oldPath, String newPath, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
 
         if (localFs.lookup(oldPath) != null) {
-            return localFs.rename(oldPath, newPath);
+            boolean dir = isLocalDir(oldPath);
+            synchronized (writeLock(oldPath)) {
+                if (!localFs.rename(oldPath, newPath)) return false;
+                // le repliche di un file lo rinominano a loro volta. Il rename conta come
+                // modifica: il vecchio path riceve una lapide più recente delle copie rimaste
+                // sulle repliche che non lo vedono, e un nuovo rename sullo stesso path ne
+                // supera la lapide
+                if (!dir && REPLICATION > 1) {
+                    Map<String, Object> attr = localFs.getattr(newPath);
+                    if (attr != null) {
+                        long renamedAt = Math.max(System.currentTimeMillis(), (Long) attr.get("modifiedAt") + 1);
+                        localFs.setModifiedAt(newPath, renamedAt, 0);
+                        tombstones.put(oldPath, renamedAt);
+                    }
+                    pushReplicas(oldPath, BatchOp.rename(oldPath, newPath));
+                }
+            }
+            index.remove(oldPath);
+            if (HASH_PLACEMENT) {
+                // le altre copie del namespace seguono; i file finiti sotto un nuovo
+                // path cambiano proprietario e li sposta il rebalancer
+                if (dir) renameCopies(oldPath, newPath, ctx);
+                rebalancer.schedule();
+            }
+            return true;
         }
 
-        for (Neighbor n : neighbors.values()) {
+        boolean ok = route(oldPath, ctx, (stub, next) -> stub.renameWithVisited(oldPath, newPath, next), r -> r, false);
+        if (ok) index.rename(oldPath, newPath, index.lookup(oldPath));
+        return ok;
+    }
+
+    // Inoltra il rename di una directory a tutti i peer che ne hanno una copia
+    private void renameCopies(String oldPath, String newPath, RequestContext ctx) {
+        if (!ctx.canForward()) return;
+        List<Neighbor> targets = targets(ctx);
+        RequestContext next = next(ctx, targets);
+        fanOut.all(targets, n -> invoke(n, next, (stub, c) -> stub.renameWithVisited(oldPath, newPath, c)),
+                   FANOUT_DEADLINE_MS, ok -> {});
+    }
+
+    // ===== PLACEMENT =====
+    // Crea path sul peer a cui lo assegna l'anello. Il proprietario crea anche le
+    // directory antenate mancanti: ogni peer ha la propria copia dei namespace in cui
+    // ha dei file e readdir le unisce. Se il proprietario non è raggiungibile il nodo
+    // si crea qui e il rebalancer lo sposterà.
+    private boolean place(String path, boolean dir, RequestContext ctx) throws RemoteException {
+        String parent = parentOf(path);
+        if (parent == null) return false; // root non gestita
+
+        String owner = ring.ownerOf(path);
+        Neighbor n = owner != null && !owner.equals(this.name) ? neighbors.get(owner) : null;
+        if (n != null && ctx.canForward()) {
             try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                if (stub.renameWithVisited(oldPath, newPath, new ArrayList<>(visited))) return true;
-            } catch (Exception ignored) {}
+                RequestContext next = ctx.next(this.name, Collections.singletonList(owner));
+                return invoke(n, next, (stub, c) -> dir ? stub.mkdirWithVisited(path, c) : stub.mknodWithVisited(path, c));
+            } catch (Exception e) {
+                metrics.dropped("place", owner, e);
+            }
+        }
+
+        if (localFs.lookup(parent) == null && !pathExistsWithVisited(parent, ctx.restart())) return false;
+        if (!ensureDirs(parent)) return false;
+        synchronized (writeLock(path)) {
+            if (!(dir ? localFs.mkdir(path) : localFs.mknod(path))) return false;
+            if (REPLICATION > 1) pushReplicas(path, dir ? BatchOp.mkdir(path) : BatchOp.mknod(path));
+        }
+        return true;
+    }
+
+    // Riceve un file (o una directory, data == null) spostato o riparato da un altro peer:
+    // crea gli antenati mancanti e sostituisce la copia locale se è più vecchia
+    @Override
+    public boolean adopt(String path, byte[] data, long modifiedAt, long version) throws RemoteException {
+        if (data == null) return ensureDirs(path);
+
+        String parent = parentOf(path);
+        if (parent == null || !ensureDirs(parent)) return false;
+        Map<String, Object> attr = localFs.getattr(path);
+        if (attr == null) {
+            if (!localFs.mknod(path)) return false;
+        } else if (!"FileNode".equals(attr.get("type"))) {
+            return false;
+        } else if ((Long) attr.get("modifiedAt") > modifiedAt) {
+            return true;   // la copia locale è più recente: vince l'ultima scrittura
+        }
+        if (attr == null && tombstones.get(path) > modifiedAt) {
+            return true;   // copia rimasta sotto un nome che il file ha poi lasciato: non la si ricrea
+        }
+        return localFs.write(path, data) && localFs.setModifiedAt(path, modifiedAt, version);
+    }
+
+    private boolean adoptOn(String owner, String path, byte[] data, long modifiedAt, long version) throws Exception {
+        Neighbor n = neighbors.get(owner);
+        if (n == null) return false;
+        return invoke(n, null, (stub, c) -> stub.adopt(path, data, modifiedAt, version));
+    }
+
+    // Crea localmente dir e gli antenati mancanti
+    private boolean ensureDirs(String dir) {
+        ParsedPath pp = ParsedPath.of(dir);
+        String curr = "";
+        for (int i = 0; i < pp.depth(); i++) {
+            curr = curr + "/" + pp.part(i);
+            if (localFs.lookup(curr) == null && !localFs.mkdir(curr) && !isLocalDir(curr)) return false;
         }
+        return true;
+    }
+
+    private boolean isLocalDir(String path) {
+        Map<String, Object> attr = localFs.getattr(path);
+        return attr != null && "DirectoryNode".equals(attr.get("type"));
+    }
+
+    // Peer a cui chiedere path: con il placement hash quello indicato dall'anello,
+    // altrimenti (o se l'anello indica questo peer) l'indice
+    private String ownerHint(String path) {
+        if (HASH_PLACEMENT) {
+            String owner = ring.ownerOf(path);
+            if (owner != null && !owner.equals(this.name)) return owner;
+        }
+        return index.lookup(path);
+    }
+
+    // ===== REPLICAZIONE =====
+    // Modifica locale di un file già presente qui; restituisce l'operazione da propagare
+    // alle repliche, null se fallita
+    @FunctionalInterface
+    private interface LocalWrite {
+        BatchOp apply();
+    }
+
+    // Le modifiche di un file replicato partono dal primario, che le propaga alle altre
+    // repliche nello stesso ordine in cui le applica. Una replica secondaria inoltra
+    // quindi la richiesta al primario e ne restituisce la risposta così com'è, anche
+    // negativa (es. versione attesa superata): riscriverla qui su una copia forse
+    // vecchia e propagarla sovrascriverebbe il contenuto più recente del primario.
+    // Solo se il primario è irraggiungibile la applica lei stessa al suo posto.
+    private boolean writeLocal(String path, RequestContext ctx, RemoteCall<Boolean> call, LocalWrite write) {
+        if (REPLICATION <= 1) return write.apply() != null;
+
+        List<String> owners = replicas(path);
+        String primary = owners.isEmpty() ? null : owners.get(0);
+        if (primary != null && !primary.equals(this.name) && owners.contains(this.name)
+                && ctx.canForward() && !ctx.covers(primary)) {
+            Neighbor n = neighbors.get(primary);
+            if (n != null) {
+                try {
+                    return invoke(n, ctx.next(this.name, Collections.singletonList(primary)), call);
+                } catch (Exception e) {
+                    metrics.dropped("primary", primary, e);
+                }
+            }
+        }
+
+        synchronized (writeLock(path)) {
+            BatchOp op = write.apply();
+            if (op == null) return false;
+            pushReplicas(path, op);
+            return true;
+        }
+    }
+
+    // Propaga op alle altre repliche di path con data di modifica e versione della copia
+    // locale. Le repliche irraggiungibili le riallinea la riparazione in background.
+    private void pushReplicas(String path, BatchOp op) {
+        String target = op.getType() == BatchOp.Type.RENAME ? op.getNewPath() : path;
+        Map<String, Object> attr = localFs.getattr(target);
+        long modifiedAt = attr != null ? (Long) attr.get("modifiedAt") : System.currentTimeMillis();
+        long version = attr != null ? (Long) attr.get("version") : 0;
+
+        List<Neighbor> peers = new ArrayList<>();
+        for (String owner : replicas(path)) {
+            if (owner.equals(this.name)) continue;
+            Neighbor n = neighbors.get(owner);
+            if (n != null) peers.add(n);
+            else replicaErrors.incrementAndGet();
+        }
+        fanOut.all(peers, n -> pushTo(n, op, target, modifiedAt, version), FANOUT_DEADLINE_MS, ok -> {});
+    }
+
+    private boolean pushTo(Neighbor n, BatchOp op, String target, long modifiedAt, long version) {
+        try {
+            if (invoke(n, null, (stub, c) -> stub.replicate(op, modifiedAt, version))) {
+                replicaPushes.incrementAndGet();
+                return true;
+            }
+            // la replica non ha la versione su cui applicare op: le si manda il file intero
+            byte[] data = isLocalDir(target) ? null : localFs.read(target);
+            if (data != null && invoke(n, null, (stub, c) -> stub.adopt(target, data, modifiedAt, version))) {
+                replicaPushes.incrementAndGet();
+                return true;
+            }
+        } catch (Exception e) {
+            metrics.error("replication", "Replica di " + target + " su " + n.getName() + " fallita: " + e.getMessage());
+        }
+        replicaErrors.incrementAndGet();
         return false;
     }
 
+    // Applica una modifica ricevuta dal primario. false se manca la copia su cui
+    // applicarla: il primario ripiega sull'invio del file intero.
+    @Override
+    public boolean replicate(BatchOp op, long modifiedAt, long version) throws RemoteException {
+        String path = op.getPath();
+        boolean ok;
+        switch (op.getType()) {
+            case MKDIR:
+                return ensureDirs(path);
+            case MKNOD:
+                String parent = parentOf(path);
+                if (parent == null || !ensureDirs(parent)) return false;
+                ok = localFs.lookup(path) != null || localFs.mknod(path);
+                break;
+            case WRITE:
+                ok = localFs.lookup(path) != null && localFs.write(path, op.getData());
+                break;
+            case WRITE_AT:
+                ok = localFs.lookup(path) != null && localFs.write(path, op.getOffset(), op.getData());
+                break;
+            case TRUNCATE:
+                ok = localFs.lookup(path) != null && localFs.truncate(path, op.getOffset());
+                break;
+            case RENAME:
+                if (localFs.lookup(path) == null || !localFs.rename(path, op.getNewPath())) return false;
+                tombstones.put(path, modifiedAt);
+                index.remove(path);
+                rebalancer.schedule();   // il nuovo path può avere altre repliche
+                path = op.getNewPath();
+                ok = true;
+                break;
+            default:
+                return false;
+        }
+        return ok && localFs.setModifiedAt(path, modifiedAt, version);
+    }
+
+    // Solo dati locali: la chiede una replica per confrontare le copie. Un file assente
+    // perché rinominato riporta la data della lapide, con il segno meno.
+    @Override
+    public Map<String, Long> replicaVersions(List<String> paths) throws RemoteException {
+        Map<String, Long> out = new HashMap<>();
+        for (String path : paths) {
+            Map<String, Object> attr = localFs.getattr(path);
+            if (attr != null && "FileNode".equals(attr.get("type"))) {
+                out.put(path, (Long) attr.get("modifiedAt"));
+            } else {
+                long renamedAt = attr == null ? tombstones.get(path) : -1;
+                out.put(path, renamedAt > 0 ? -renamedAt : -1L);
+            }
+        }
+        return out;
+    }
+
+    // Lettura di un path non locale: con la replicazione la serve la replica vicina con
+    // il costo stimato più basso (latenza media × richieste in corso). La replica
+    // risponde solo con la propria copia; se non ce l'ha si prova la successiva e
+    // infine il percorso normale. Con hedge le repliche successive partono anche
+    // quando la prima tarda oltre il suo 95° percentile.
+    private <T> T nearest(String path, RequestContext ctx, RemoteCall<T> call, Predicate<T> found, T miss) {
+        if (REPLICATION > 1 && ctx.canForward()) {
+            List<String> candidates = new ArrayList<>();
+            for (String owner : replicas(path)) {
+                if (!owner.equals(this.name) && !ctx.covers(owner) && neighbors.containsKey(owner)
+                    && !guard.isOpen(owner)) candidates.add(owner);
+            }
+            List<String> ranked = latency.rank(candidates);
+            if (HEDGE && ranked.size() > 1) {
+                List<Neighbor> targets = new ArrayList<>();
+                for (String owner : ranked) {
+                    Neighbor n = neighbors.get(owner);
+                    if (n != null) targets.add(n);
+                }
+                long delay = Math.max(HEDGE_MIN_DELAY_MS, (long) (latency.p95Micros(ranked.get(0)) / 1000));
+                T res = fanOut.hedged(targets, n -> invoke(n, ctx.direct(this.name, n.getName()), call), found,
+                                      delay, Math.min(FANOUT_DEADLINE_MS, ctx.remainingMs()));
+                if (res != null) {
+                    replicaReads.incrementAndGet();
+                    return res;
+                }
+                ranked = new ArrayList<>();   // già provate tutte
+            }
+            for (String owner : ranked) {
+                Neighbor n = neighbors.get(owner);
+                if (n == null) continue;
+                try {
+                    T res = invoke(n, ctx.direct(this.name, owner), call);
+                    if (found.test(res)) {
+                        replicaReads.incrementAndGet();
+                        return res;
+                    }
+                } catch (Exception e) {
+                    metrics.dropped("replicaRead", owner, e);
+                }
+            }
+        }
+        return route(path, ctx, call, found, miss);
+    }
+
+    private List<String> replicas(String path) {
+        return ring.ownersOf(path, REPLICATION);
+    }
+
+    private Object writeLock(String path) {
+        return writeLocks[(path.hashCode() & 0x7fffffff) % writeLocks.length];
+    }
+
+    // ===== BATCH =====
+    @Override
+    public List<Object> batch(List<BatchOp> ops) throws RemoteException {
+        return batchWithVisited(ops, RequestContext.create());
+    }
+
+    // Le operazioni sono eseguite in ordine. Quelle consecutive che l'indice assegna allo
+    // stesso vicino gli vengono inoltrate con un'unica RPC; le locali e quelle senza
+    // proprietario noto seguono lo stesso percorso della chiamata singola.
+    @Override
+    public List<Object> batchWithVisited(List<BatchOp> ops, RequestContext ctx) throws RemoteException {
+        List<Object> results = new ArrayList<>(ops.size());
+        if (!firstVisit(ctx)) {
+            for (BatchOp op : ops) results.add(op.failure());
+            return results;
+        }
+
+        int i = 0;
+        while (i < ops.size()) {
+            Neighbor owner = remoteOwner(ops.get(i), ctx);
+            if (owner == null) {
+                // ogni operazione singola è una sotto-richiesta con un proprio id
+                results.add(execute(ops.get(i), ctx.fork()));
+                i++;
+                continue;
+            }
+            // il proprietario delle operazioni successive si valuta prima di eseguire
+            // quelle precedenti: un errore di previsione chiude solo il gruppo
+            int j = i + 1;
+            while (j < ops.size() && owner.equals(remoteOwner(ops.get(j), ctx))) j++;
+            results.addAll(forward(owner, new ArrayList<>(ops.subList(i, j)), ctx));
+            i = j;
+        }
+        return results;
+    }
+
+    // Vicino a cui inoltrare op, null se va eseguita qui (o il proprietario non è noto)
+    private Neighbor remoteOwner(BatchOp op, RequestContext ctx) {
+        // con il placement hash una creazione va al proprietario del path stesso
+        String key = op.isCreate() && !HASH_PLACEMENT ? parentOf(op.getPath()) : op.getPath();
+        if (key == null || localFs.lookup(key) != null) return null;
+        String owner = ownerHint(key);
+        if (owner == null || ctx.covers(owner)) return null;
+        return neighbors.get(owner);
+    }
+
+    private List<Object> forward(Neighbor owner, List<BatchOp> group, RequestContext ctx) throws RemoteException {
+        try {
+            // più gruppi dello stesso batch possono andare allo stesso vicino: ognuno ha il suo id
+            RequestContext next = ctx.fork().next(this.name, Collections.singletonList(owner.getName()));
+            List<Object> res = invoke(owner, next, (stub, c) -> stub.batchWithVisited(group, c));
+            if (res != null && res.size() == group.size()) {
+                for (int k = 0; k < group.size(); k++) {
+                    BatchOp op = group.get(k);
+                    if (op.getType() == BatchOp.Type.RENAME && Boolean.TRUE.equals(res.get(k))) {
+                        index.rename(op.getPath(), op.getNewPath(), owner.getName());
+                    }
+                }
+                return res;
+            }
+        } catch (Exception e) {
+            metrics.dropped("batch", owner.getName(), e);
+        }
+
+        // il proprietario non risponde: si ripiega sulle chiamate singole
+        List<Object> res = new ArrayList<>(group.size());
+        for (BatchOp op : group) res.add(execute(op, ctx.fork()));
+        return res;
+    }
+
+    private Object execute(BatchOp op, RequestContext ctx) throws RemoteException {
+        switch (op.getType()) {
+            case MKDIR:    return mkdirWithVisited(op.getPath(), ctx);
+            case MKNOD:    return mknodWithVisited(op.getPath(), ctx);
+            case WRITE:    return writeWithVisited(op.getPath(), op.getData(), ctx);
+            case WRITE_AT: return writeWithVisited(op.getPath(), op.getOffset(), op.getData(), ctx);
+            case APPEND:   return appendWithVisited(op.getPath(), op.getData(), ctx);
+            case TRUNCATE: return truncateWithVisited(op.getPath(), op.getOffset(), ctx);
+            case READ:     return readWithVisited(op.getPath(), ctx);
+            case READ_AT:  return readWithVisited(op.getPath(), op.getOffset(), op.getLength(), ctx);
+            case RENAME:   return renameWithVisited(op.getPath(), op.getNewPath(), ctx);
+            case GETATTR:  return getattrWithVisited(op.getPath(), ctx);
+            case READDIR:  return readdirWithVisited(op.getPath(), ctx);
+            default:       return op.failure();
+        }
+    }
+
+    // ===== TRASFERIMENTO BULK =====
+    @Override
+    public TransferHandle openTransfer(String path) throws RemoteException {
+        return openTransferWithVisited(path, RequestContext.create());
+    }
+
+    // Solo il proprietario prepara il trasferimento: agli altri peer passa il solo
+    // handle, il contenuto va dal suo disco al client senza hop intermedi
+    @Override
+    public TransferHandle openTransferWithVisited(String path, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return null;
+
+        if (localFs.lookup(path) != null) {
+            java.nio.file.Path file = bulkServer != null ? localFs.diskCopy(path) : null;
+            if (file == null) return null;   // nessuna copia su disco: il client ripiega sulla read a blocchi
+            try {
+                return bulkServer.register(file);
+            } catch (java.io.IOException e) {
+                metrics.error("transfer", "openTransfer failed for " + path + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        return route(path, ctx, (stub, next) -> stub.openTransferWithVisited(path, next), Objects::nonNull, null);
+    }
+
     // ========= Tournament-like Join/Leave =========
     public void joinNetwork(String bootstrapName, String bootstrapHost, int bootstrapPort) {
         try {
             Registry reg = LocateRegistry.getRegistry(bootstrapHost, bootstrapPort);
             FileSystemInterface stub = (FileSystemInterface) reg.lookup(bootstrapName);
 
-            // integrity check
-            List<String> bootstrapPaths = stub.listAllPaths();
-            List<String> myPaths = this.listAllPaths();
-
-            for (String p : myPaths) {
-                if (bootstrapPaths.contains(p)) {
-                    System.err.println("Vincolo di intergità violato: conflitto sul path " + p);
+            // integrity check: con tutti i peer della rete, non solo con il bootstrap
+            Map<String, FileSystemInterface> members = new LinkedHashMap<>();
+            members.put(bootstrapName, stub);
+            for (String entry : stub.getNeighbors()) {
+                String[] tk = entry.split(":");
+                if (tk[0].equals(this.name)) continue;
+                try {
+                    members.put(tk[0], (FileSystemInterface) LocateRegistry.getRegistry(tk[1], Integer.parseInt(tk[2])).lookup(tk[0]));
+                } catch (Exception e) {
+                    metrics.error("join", "Controllo di integrità: " + tk[0] + " non raggiungibile: " + e.getMessage());
+                }
+            }
+            for (Map.Entry<String, FileSystemInterface> m : members.entrySet()) {
+                String conflict = findConflict(m.getValue());
+                if (conflict != null) {
+                    metrics.error("join", "Vincolo di intergità violato: conflitto sul path " + conflict + " con " + m.getKey());
                     return;
                 }
             }
 
-            // aggiungi bootstrap
+            // aggiungi bootstrap. Con il placement hash il proprietario di un path lo dice
+            // l'anello; altrimenti l'indice parte con i path di ogni vicino, letti a pagine
             this.addNeighbor(bootstrapName, bootstrapHost, bootstrapPort);
+            if (!HASH_PLACEMENT) index.putAll(remotePaths(stub), bootstrapName);
 
             // scarica tutti i vicini del bootstrap
             for (String entry : stub.getNeighbors()) {
@@ -241,11 +892,12 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
                 this.addNeighbor(neighName, neighHost, neighPort);
 
                 try {
-                    Registry neighReg = LocateRegistry.getRegistry(neighHost, neighPort);
-                    FileSystemInterface neighStub = (FileSystemInterface) neighReg.lookup(neighName);
-                    neighStub.addNeighbor(this.name, this.host, this.port);
+                    FileSystemInterface neighStub = stubs.get(neighbors.get(neighName));
+                    // con il gossip basta annunciarsi al bootstrap: gli altri lo sapranno da lui
+                    if (!GOSSIP) neighStub.addNeighbor(this.name, this.host, this.port);
+                    if (!HASH_PLACEMENT) index.putAll(remotePaths(neighStub), neighName);
                 } catch (Exception e) {
-                    System.err.println("Errore contattando " + neighName + ": " + e.getMessage());
+                    metrics.error("join", "Errore contattando " + neighName + ": " + e.getMessage());
                 }
             }
 
@@ -255,47 +907,118 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
             System.out.println("Join completato con " + bootstrapName + "@" + bootstrapHost + ":" + bootstrapPort);
 
         } catch (Exception e) {
-            System.err.println("Join fallito: " + e.getMessage());
+            metrics.error("join", "Join fallito: " + e.getMessage());
         }
     }
 
+    // Primo path in conflitto con il peer remoto (null se nessuno), confrontando i
+    // riassunti Merkle un livello di directory alla volta. Un path che è directory da
+    // una parte e file dall'altra è sempre un conflitto. Con il placement parent lo è
+    // qualunque path comune; con il placement hash le directory sono namespace
+    // condivisi e confliggono solo i file, a meno che non ci sia la replicazione: lì un
+    // file comune è una copia dello stesso file, che l'anti-entropy riallinea. Si scende
+    // solo nelle directory presenti da entrambe le parti, con riassunti diversi e file
+    // da almeno una; con riassunti uguali path e tipi coincidono.
+    private String findConflict(FileSystemInterface remote) throws RemoteException {
+        List<String> level = Collections.singletonList("/");
+        while (!level.isEmpty()) {
+            Map<String, DirSummary> theirs = new HashMap<>();
+            for (int i = 0; i < level.size(); i += SUMMARY_CHUNK) {
+                for (DirSummary s : remote.treeSummaries(new ArrayList<>(level.subList(i, Math.min(level.size(), i + SUMMARY_CHUNK))))) {
+                    theirs.put(s.getPath(), s);
+                }
+            }
+            List<String> next = new ArrayList<>();
+            for (DirSummary mine : treeSummaries(level)) {
+                DirSummary other = theirs.get(mine.getPath());
+                if (other == null) continue;   // solo da una parte: sotto non ci sono path comuni
+                if (mine.isDirectory() != other.isDirectory() || !HASH_PLACEMENT) return mine.getPath();
+                if (!mine.isDirectory()) {
+                    if (REPLICATION > 1) continue;
+                    return mine.getPath();
+                }
+                if (mine.getHash() == other.getHash()) {
+                    // stessi path e tipi: conflitto solo se ci sono file e non sono repliche
+                    if (REPLICATION > 1 || mine.getFiles() == 0) continue;
+                    return mine.getPath();
+                }
+                // solo directory da entrambe le parti: nessun file che possa scontrarsi
+                if (mine.getFiles() == 0 && other.getFiles() == 0) continue;
+                next.add(mine.getPath());
+            }
+            joinSummaryDirs.addAndGet(level.size());
+            level = next;
+        }
+        return null;
+    }
+
     public void leaveNetwork() {
+        if (antiEntropy != null) antiEntropy.shutdown();
+        if (membership != null) membership.shutdown();
+        if (metricsServer != null) metricsServer.close();
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (Exception e) {
+                metrics.error("metrics", "MBean delle metriche non rimosso: " + e.getMessage());
+            }
+        }
+        if (HASH_PLACEMENT) {
+            // prima di uscire si consegnano i file ai peer che li ereditano sull'anello
+            ring.remove(this.name);
+            int moved = rebalancer.rebalance(true);
+            System.out.println("Consegnati " + moved + " file prima dell'uscita");
+        }
         for (Neighbor n : new ArrayList<>(neighbors.values())) {
             try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
+                FileSystemInterface stub = stubs.get(n);
                 stub.removeNeighbor(this.name);
             } catch (Exception e) {
-                System.err.println("Errore durante leave con " + n.getName() + ": " + e.getMessage());
+                metrics.error("leave", "Errore durante leave con " + n.getName() + ": " + e.getMessage());
             }
         }
         neighbors.clear();
+        stubs.clear();
+        index.clear();
         System.out.println("Node " + this.name + " ha lasciato la rete.");
     }
 
     // ===== READDIR =====
     @Override
     public List<String> readdir(String path) throws RemoteException {
-        return readdirWithVisited(path, new ArrayList<>());
+        return readdirWithVisited(path, RequestContext.create());
     }
 
     @Override
-    public List<String> readdirWithVisited(String path, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return new ArrayList<>();
-        visited.add(this.name);
+    public List<String> readdirWithVisited(String path, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return new ArrayList<>();
 
         Set<String> entries = new HashSet<>();
         try {
             List<String> local = localFs.readdir(path);
             if (local != null) entries.addAll(local);
-        } catch (Exception ignored) {}
+        } catch (Exception e) {
+            metrics.dropped("readdir", this.name, e);
+        }
 
-        for (Neighbor n : neighbors.values()) {
+        if (!ctx.canForward()) return new ArrayList<>(entries);
+        List<Neighbor> targets = targets(ctx);
+        RequestContext next = next(ctx, targets);
+        RemoteCall<List<String>> call = (stub, c) -> stub.readdirWithVisited(path, c);
+        if (PARALLEL_FANOUT) {
+            // le risposte arrivano da più thread del pool
+            Set<String> merged = ConcurrentHashMap.newKeySet();
+            merged.addAll(entries);
+            fanOut.all(targets, n -> invoke(n, next, call), FANOUT_DEADLINE_MS, merged::addAll);
+            return new ArrayList<>(merged);
+        }
+
+        for (Neighbor n : targets) {
             try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                entries.addAll(stub.readdirWithVisited(path, new ArrayList<>(visited)));
-            } catch (Exception ignored) {}
+                entries.addAll(invoke(n, next, call));
+            } catch (Exception e) {
+                metrics.dropped("readdir", n.getName(), e);
+            }
         }
         return new ArrayList<>(entries);
     }
@@ -303,66 +1026,208 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
     // ===== GETATTR =====
     @Override
     public Map<String, Object> getattr(String path) throws RemoteException {
-        return getattrWithVisited(path, new ArrayList<>());
+        return getattrWithVisited(path, RequestContext.create());
     }
 
     @Override
-    public Map<String, Object> getattrWithVisited(String path, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return null;
-        visited.add(this.name);
+    public Map<String, Object> getattrWithVisited(String path, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return null;
 
         Map<String, Object> attr = localFs.getattr(path);
         if (attr != null) return attr;
 
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                attr = stub.getattrWithVisited(path, new ArrayList<>(visited));
-                if (attr != null) return attr;
-            } catch (Exception ignored) {}
-        }
-        return null;
+        return nearest(path, ctx, (stub, next) -> stub.getattrWithVisited(path, next), Objects::nonNull, null);
     }
 
     // ===== LOCATE =====
     @Override
     public String locate(String file) throws RemoteException {
-        return locateWithVisited(file, new ArrayList<>());
+        return locateWithVisited(file, RequestContext.create());
     }
 
     @Override
-    public String locateWithVisited(String file, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return "not found";
-        visited.add(this.name);
+    public String locateWithVisited(String file, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return "not found";
 
         if (localFs.lookup(file) != null) return this.name;
 
+        // l'indice risponde senza RPC; la voce viene verificata solo se il peer è ancora vicino
+        String owner = ownerHint(file);
+        Neighbor n = owner != null ? neighbors.get(owner) : null;
+        if (n != null && ctx.canForward()) {
+            try {
+                RequestContext next = ctx.next(this.name, Collections.singletonList(owner));
+                String res = invoke(n, next, (stub, c) -> stub.locateWithVisited(file, c));
+                if (!"not found".equals(res)) index.put(file, res);
+                return res;
+            } catch (Exception e) {
+                metrics.dropped("locate", owner, e);
+            }
+        }
+
+        String res = locateRemote(file, ctx);
+        return res != null ? res : "not found";
+    }
+
+    // Locate per flooding sui vicini; aggiorna l'indice con il proprietario trovato
+    private String locateRemote(String file, RequestContext ctx) {
+        String res = flood(ctx, (stub, next) -> stub.locateWithVisited(file, next), r -> !"not found".equals(r), null);
+        if (res != null) index.put(file, res);
+        return res;
+    }
+
+    // ===== Routing =====
+    // next è il contesto da inoltrare, calcolato una volta per tutti i destinatari
+    @FunctionalInterface
+    private interface RemoteCall<T> {
+        T call(FileSystemInterface stub, RequestContext next) throws RemoteException;
+    }
+
+    // Ogni richiesta viene elaborata una sola volta per peer, anche se arriva da più vicini,
+    // salvo una copia con più hop a disposizione, che può arrivare più lontano
+    private boolean firstVisit(RequestContext ctx) {
+        return seen.firstVisit(ctx.getId(), ctx.getTtl());
+    }
+
+    // Vicini non ancora coperti da chi ha inoltrato la richiesta
+    private List<Neighbor> targets(RequestContext ctx) {
+        List<Neighbor> out = new ArrayList<>(neighbors.size());
         for (Neighbor n : neighbors.values()) {
+            if (!ctx.covers(n.getName())) out.add(n);
+        }
+        return out;
+    }
+
+    private RequestContext next(RequestContext ctx, List<Neighbor> targets) {
+        List<String> names = new ArrayList<>(targets.size());
+        for (Neighbor n : targets) names.add(n.getName());
+        return ctx.next(this.name, names);
+    }
+
+    // Invia la richiesta direttamente al peer che possiede path. Se l'indice non lo
+    // conosce lo si individua con una locate; se il proprietario non è un vicino
+    // o non risponde si ripiega sul flooding.
+    // Una risposta negativa del proprietario è definitiva: in caso di voce obsoleta
+    // è lui stesso a inoltrare la richiesta al resto della rete.
+    // La locate è una sotto-richiesta con un proprio id: il proprietario che la
+    // riceve deve poter accettare poi la richiesta vera e propria.
+    private <T> T route(String path, RequestContext ctx, RemoteCall<T> call, Predicate<T> found, T miss) {
+        if (!ctx.canForward()) return miss;
+        String owner = ownerHint(path);
+        if (owner == null) {
+            owner = locateRemote(path, ctx.fork());
+            if (owner == null) return miss;   // nessun peer ha il path
+        }
+
+        Neighbor n = neighbors.get(owner);
+        if (n != null) {
             try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                String res = stub.locateWithVisited(file, new ArrayList<>(visited));
-                if (!"not found".equals(res)) return res;
-            } catch (Exception ignored) {}
+                return invoke(n, ctx.next(this.name, Collections.singletonList(owner)), call);
+            } catch (Exception e) {
+                metrics.dropped("route", owner, e);
+            }
+        }
+        return flood(ctx, call, found, miss);
+    }
+
+    private <T> T flood(RequestContext ctx, RemoteCall<T> call, Predicate<T> found, T miss) {
+        if (!ctx.canForward()) return miss;
+        List<Neighbor> targets = targets(ctx);
+        RequestContext next = next(ctx, targets);
+        for (Neighbor n : targets) {
+            try {
+                T res = invoke(n, next, call);
+                if (found.test(res)) return res;
+            } catch (Exception e) {
+                metrics.dropped("flood", n.getName(), e);
+            }
+        }
+        return miss;
+    }
+
+    // Singola RPC verso un vicino: lo stub viene dalla cache e invalidato sui guasti di trasporto.
+    // La durata alimenta la stima di latenza usata per scegliere la replica da cui leggere.
+    // Una chiamata interrotta perché il fan-out l'ha cancellata non è un guasto del vicino.
+    // L'attesa è limitata da rpc.timeoutMs e dalla scadenza residua di next; a breaker aperto
+    // la chiamata fallisce subito. Una scadenza superata non invalida lo stub.
+    private <T> T invoke(Neighbor n, RequestContext next, RemoteCall<T> call) throws Exception {
+        return invoke(n, next, call, false);
+    }
+
+    // probe: chiamate della membership, che passano anche a breaker aperto
+    private <T> T invoke(Neighbor n, RequestContext next, RemoteCall<T> call, boolean probe) throws Exception {
+        long timeout = next != null ? Math.min(RPC_TIMEOUT_MS, next.remainingMs()) : RPC_TIMEOUT_MS;
+        long t0 = System.nanoTime();
+        Exception failure = null;
+        latency.begin(n.getName());
+        try {
+            return probe ? guard.probe(n.getName(), timeout, () -> call.call(stubs.get(n), next))
+                         : guard.call(n.getName(), timeout, () -> call.call(stubs.get(n), next));
+        } catch (CallGuard.BreakerOpenException e) {
+            failure = e;
+            throw e;
+        } catch (RemoteException e) {
+            failure = e;
+            if (!Thread.currentThread().isInterrupted()) {
+                if (!(e instanceof CallGuard.DeadlineExceededException)) stubs.invalidate(n, e);
+                if (membership != null) membership.hint(n.getName());
+            }
+            throw e;
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - t0;
+            if (failure != null && Thread.currentThread().isInterrupted()) {
+                latency.cancel(n.getName());   // annullata dal fan-out: nessun campione
+            } else {
+                latency.end(n.getName(), nanos, failure == null);
+                metrics.rpc(n.getName(), next, nanos, failure);
+            }
         }
-        return "not found";
     }
 
     // ===== Membership =====
     @Override
     public void addNeighbor(String name, String host, int port) throws RemoteException {
         if (this.name.equals(name)) return;
-        neighbors.put(name, new Neighbor(name, host, port));
-        System.out.println("Neighbor added: " + name + "@" + host + ":" + port);
+        link(name, host, port);
+        if (membership != null) membership.announced(name, host, port);
     }
 
     @Override
     public void removeNeighbor(String name) throws RemoteException {
-        neighbors.remove(name);
+        if (membership != null) membership.left(name);
+        unlink(name);
+    }
+
+    private void link(String name, String host, int port) {
+        Neighbor old = neighbors.put(name, new Neighbor(name, host, port));
+        if (old != null) stubs.evict(old);
+        if (HASH_PLACEMENT && ring.add(name)) rebalancer.schedule();
+        System.out.println("Neighbor added: " + name + "@" + host + ":" + port);
+    }
+
+    private void unlink(String name) {
+        Neighbor old = neighbors.remove(name);
+        if (old != null) stubs.evict(old);
+        index.removeOwner(name);
+        latency.forget(name);
+        guard.forget(name);
+        if (HASH_PLACEMENT && ring.remove(name)) rebalancer.schedule();
         System.out.println("Neighbor removed: " + name);
     }
 
+    @Override
+    public List<String> gossip(List<String> updates) throws RemoteException {
+        return membership != null ? membership.onPing(updates) : new ArrayList<>();
+    }
+
+    @Override
+    public boolean probe(String target, List<String> updates) throws RemoteException {
+        return membership != null && membership.probe(target, updates);
+    }
+
     @Override
     public List<String> getNeighbors() throws RemoteException {
         List<String> out = new ArrayList<>();
@@ -380,41 +1245,212 @@ public class DistributedNode extends UnicastRemoteObject implements FileSystemIn
         } catch (Exception e) {
             reg = LocateRegistry.getRegistry(port);
         }
-        reg.rebind(name, this);
-        System.out.println("Node " + name + " ready @ " + host + ":" + port);
+        reg.rebind(name, UnicastRemoteObject.exportObject(metered, 0));
+        if (WIRE_TRANSPORT) {
+            wireServer = new WireServer(metered, port + WIRE_PORT_OFFSET);
+            wireServer.start();
+        }
+        if (METRICS_HTTP) {
+            try {
+                MetricsServer server = new MetricsServer(port + METRICS_PORT_OFFSET, metrics, this::statsSnapshot);
+                server.start();
+                metricsServer = server;
+            } catch (java.io.IOException e) {
+                metrics.error("metrics", "Endpoint delle metriche non disponibile sulla porta "
+                              + (port + METRICS_PORT_OFFSET) + ": " + e.getMessage());
+            }
+        }
+        if (METRICS_JMX) {
+            try {
+                ObjectName on = new ObjectName("ptpvfs:type=Peer,name=" + ObjectName.quote(name));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(metrics, () -> {
+                    Map<String, Object> all = statsSnapshot();
+                    all.putAll(metrics.flat());
+                    return all;
+                }), on);
+                mbeanName = on;
+            } catch (Exception e) {
+                metrics.error("metrics", "MBean delle metriche non registrato: " + e.getMessage());
+            }
+        }
+        try {
+            BulkServer bulk = new BulkServer(name, host, port + BULK_PORT_OFFSET, BULK_MAX_TRANSFERS, BULK_TIMEOUT_MS);
+            bulk.start();
+            bulkServer = bulk;
+        } catch (java.io.IOException e) {
+            metrics.error("bulk", "Canale bulk non disponibile sulla porta " + (port + BULK_PORT_OFFSET) + ": " + e.getMessage());
+        }
+        if (REPLICATION > 1) {
+            antiEntropy = new AntiEntropy(name, localFs, ring, REPLICATION, new AntiEntropy.Peers() {
+                @Override
+                public Map<String, Long> versions(String peer, List<String> paths) throws Exception {
+                    Neighbor n = neighbors.get(peer);
+                    if (n == null) throw new RemoteException(peer + " non è un vicino");
+                    return invoke(n, null, (stub, c) -> stub.replicaVersions(paths));
+                }
+
+                @Override
+                public boolean adopt(String peer, String path, byte[] data, long modifiedAt, long version) throws Exception {
+                    return adoptOn(peer, path, data, modifiedAt, version);
+                }
+            }, REPAIR_MS);
+            antiEntropy.start();
+        }
+        if (GOSSIP) {
+            membership = new Membership(name, host, port, new Membership.Peers() {
+                @Override
+                public List<String> ping(String peer, List<String> updates) throws Exception {
+                    Neighbor n = neighbors.get(peer);
+                    if (n == null) throw new RemoteException(peer + " non è un vicino");
+                    return invoke(n, null, (stub, c) -> stub.gossip(updates), true);
+                }
+
+                @Override
+                public boolean probe(String via, String target, List<String> updates) throws Exception {
+                    Neighbor n = neighbors.get(via);
+                    if (n == null) throw new RemoteException(via + " non è un vicino");
+                    return invoke(n, null, (stub, c) -> stub.probe(target, updates), true);
+                }
+            }, new Membership.Listener() {
+                @Override
+                public void joined(String peer, String peerHost, int peerPort) {
+                    link(peer, peerHost, peerPort);
+                }
+
+                @Override
+                public void evicted(String peer) {
+                    metrics.error("gossip", "Vicino " + peer + " non risponde: rimosso");
+                    unlink(peer);
+                }
+            }, GOSSIP_PERIOD_MS, GOSSIP_PING_TIMEOUT_MS, GOSSIP_INDIRECT, GOSSIP_SUSPECT_MS);
+            for (Neighbor n : neighbors.values()) membership.announced(n.getName(), n.getAddress(), n.getPort());
+            membership.start();
+        }
+        System.out.println("Node " + name + " ready @ " + host + ":" + port
+                           + (WIRE_TRANSPORT ? " (wire :" + (port + WIRE_PORT_OFFSET) + ")" : "")
+                           + (metricsServer != null ? " (metriche http://localhost:" + metricsServer.getPort() + "/metrics)" : ""));
     }
 
     // === Utils
     @Override
-    public boolean pathExistsWithVisited(String path, List<String> visited) throws RemoteException {
-        if (visited.contains(this.name)) return false;
-        visited.add(this.name);
+    public boolean pathExistsWithVisited(String path, RequestContext ctx) throws RemoteException {
+        if (!firstVisit(ctx)) return false;
 
 
         if (localFs.lookup(path) != null) return true;
 
+        if (!ctx.canForward()) return false;
+        RemoteCall<Boolean> call = (stub, next) -> stub.pathExistsWithVisited(path, next);
+        if (PARALLEL_FANOUT) {
+            // basta il primo true, le altre chiamate vengono cancellate
+            List<Neighbor> targets = targets(ctx);
+            RequestContext next = next(ctx, targets);
+            return fanOut.any(targets, n -> invoke(n, next, call), ok -> ok, FANOUT_DEADLINE_MS) != null;
+        }
+        return flood(ctx, call, ok -> ok, false);
+    }
 
-        for (Neighbor n : neighbors.values()) {
-            try {
-                Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
-                FileSystemInterface stub = (FileSystemInterface) reg.lookup(n.getName());
-                if (stub.pathExistsWithVisited(path, new ArrayList<>(visited))) {
-                    return true;
-                }
-            } catch (Exception ignored) {}
+    @Override
+    public Map<String, Object> stats() throws RemoteException {
+        return statsSnapshot();
+    }
+
+    private Map<String, Object> statsSnapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("transport", stubs.isWire() ? "wire" : "rmi");
+        out.put("stubCache.hits", stubs.getHits());
+        out.put("stubCache.misses", stubs.getMisses());
+        out.put("stubCache.reconnects", stubs.getReconnects());
+        out.put("locationIndex.size", index.size());
+        out.put("placement", HASH_PLACEMENT ? "hash" : "parent");
+        if (HASH_PLACEMENT) {
+            out.put("ring.peers", ring.size());
+            out.put("rebalance.passes", rebalancer.getPasses());
+            out.put("rebalance.moved", rebalancer.getMoved());
+            out.put("rebalance.errors", rebalancer.getErrors());
+            out.put("replication.factor", REPLICATION);
         }
-        return false;
+        if (REPLICATION > 1) {
+            out.put("replication.pushes", replicaPushes.get());
+            out.put("replication.errors", replicaErrors.get());
+            out.put("reads.replica", replicaReads.get());
+            if (antiEntropy != null) {
+                out.put("repair.rounds", antiEntropy.getRounds());
+                out.put("repair.pushed", antiEntropy.getPushed());
+                out.put("repair.removed", antiEntropy.getRemoved());
+                out.put("repair.tombstones", tombstones.size());
+                out.put("repair.errors", antiEntropy.getErrors());
+            }
+        }
+        out.put("requests.received", seen.getReceived());
+        out.put("requests.duplicates", seen.getDuplicates());
+        out.put("requests.revisits", seen.getRevisits());
+        out.put("requests.seen", seen.size());
+        out.put("mount.lazy", localFs.isLazy());
+        out.put("mount.nodes", localFs.getNodeCount());
+        out.put("mount.millis", localFs.getMountMillis());
+        out.put("tree.hash", Long.toHexString(localFs.treeHash()));
+        out.put("tree.files", localFs.treeFiles());
+        out.put("join.comparedDirs", joinSummaryDirs.get());
+        if (membership != null) {
+            out.put("gossip.alive", membership.count(Membership.State.ALIVE));
+            out.put("gossip.suspect", membership.count(Membership.State.SUSPECT));
+            out.put("gossip.dead", membership.count(Membership.State.DEAD));
+            out.put("gossip.pings", membership.getPings());
+            out.put("gossip.indirectProbes", membership.getIndirectProbes());
+            out.put("gossip.suspicions", membership.getSuspicions());
+            out.put("gossip.evictions", membership.getEvictions());
+            out.put("gossip.refutations", membership.getRefutations());
+        }
+        out.put("errors.total", metrics.getErrors());
+        if (metricsServer != null) out.put("metrics.port", metricsServer.getPort());
+        out.put("rpc.deadlines", guard.getDeadlines());
+        out.put("breaker.open", guard.countOpen());
+        out.put("breaker.opened", guard.getOpened());
+        out.put("breaker.rejected", guard.getRejected());
+        out.put("rpc.saturated", guard.getSaturated());
+        if (HEDGE) {
+            out.put("hedge.sent", fanOut.getHedges());
+            out.put("hedge.won", fanOut.getHedgeWins());
+        }
+        out.put("cache.budgetBytes", localFs.getCacheBudget());
+        out.put("cache.residentBytes", localFs.getCacheResidentBytes());
+        out.put("cache.hitRatio", String.format("%.3f", localFs.getCacheHitRatio()));
+        out.put("cache.hits", localFs.getCacheHits());
+        out.put("cache.misses", localFs.getCacheMisses());
+        out.put("cache.evictions", localFs.getCacheEvictions());
+        out.put("dentry.hits", localFs.getDentryHits());
+        out.put("dentry.misses", localFs.getDentryMisses());
+        out.put("fs.symlinkLoops", localFs.getSymlinkLoops());
+        if (bulkServer != null) {
+            out.put("bulk.transfers", bulkServer.getTransfers());
+            out.put("bulk.bytes", bulkServer.getBytes());
+            out.put("bulk.rejected", bulkServer.getRejected());
+            out.put("bulk.timeouts", bulkServer.getTimeouts());
+        }
+        Journal journal = localFs.getJournal();
+        if (journal != null) {
+            out.put("journal.sync", journal.getSync());
+            out.put("journal.queueDepth", journal.getQueueDepth());
+            out.put("journal.queuedBytes", journal.getQueuedBytes());
+            out.put("journal.flushes", journal.getFlushes());
+            out.put("journal.avgBatch", String.format("%.1f", journal.getAvgBatch()));
+            out.put("journal.flushAvgMicros", String.format("%.1f", journal.getFlushAvgMicros()));
+            out.put("journal.flushMaxMicros", journal.getFlushMaxMicros());
+            out.put("journal.fsyncs", journal.getFsyncs());
+            out.put("journal.applyErrors", journal.getApplyErrors());
+        }
+        return out;
     }
 
     private String parentOf(String path) {
-        if (path == null || path.isEmpty() || "/".equals(path)) return null; // la root non ha padre
-        int i = path.lastIndexOf('/');
-        if (i <= 0) return "/";                 // "/name" → "/"
-        return path.substring(0, i);             // "/a/b" → "/a"
+        if (path == null || path.isEmpty()) return null;
+        return ParsedPath.of(path).parentPath();   // "/a/b" → "/a", "/name" → "/", root → null
     }
 
     // === Getter utili ===
     public String getName() { return name; }
     public String getHost() { return host; }
     public int getPort() { return port; }
+    public StubCache getStubCache() { return stubs; }
 }
@@ -0,0 +1,144 @@
+package peer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Interroga più vicini in parallelo su un pool limitato.
+ *
+ * Le risposte vengono consumate nell'ordine di arrivo; allo scadere della deadline
+ * le chiamate ancora in corso sono cancellate e si restituisce quanto raccolto.
+ * A pool saturo la chiamata viene eseguita dal thread chiamante, così le richieste
+ * annidate tra peer non possono bloccarsi a vicenda.
+ */
+public class FanOut {
+    @FunctionalInterface
+    public interface NeighborCall<T> {
+        T call(Neighbor n) throws Exception;
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public FanOut(String owner, int maxThreads) {
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "fanout-" + owner + "-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // Passa a sink ogni risposta arrivata entro la deadline
+    public <T> void all(Collection<Neighbor> targets, NeighborCall<T> call, long deadlineMs, Consumer<T> sink) {
+        any(targets, call, r -> { sink.accept(r); return false; }, deadlineMs);
+    }
+
+    // Prima risposta che soddisfa found, null se nessuna entro la deadline
+    public <T> T any(Collection<Neighbor> targets, NeighborCall<T> call, Predicate<T> found, long deadlineMs) {
+        if (targets.isEmpty()) return null;
+
+        CompletionService<T> cs = new ExecutorCompletionService<>(pool);
+        List<Future<T>> pending = new ArrayList<>(targets.size());
+        for (Neighbor n : targets) {
+            pending.add(cs.submit(() -> call.call(n)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                Future<T> f = cs.poll(left, TimeUnit.NANOSECONDS);
+                if (f == null) break;   // deadline scaduta
+                try {
+                    T res = f.get();
+                    if (res != null && found.test(res)) return res;
+                } catch (ExecutionException ignored) {}
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<T> f : pending) f.cancel(true);
+        }
+        return null;
+    }
+
+    // Richiesta "hedged": parte verso il primo di ordered; se entro delayMs non ha risposto
+    // si manda una copia al successivo, e così via. Un errore fa passare subito al
+    // successivo. Vince la prima risposta che soddisfa found, le altre sono cancellate.
+    public <T> T hedged(List<Neighbor> ordered, NeighborCall<T> call, Predicate<T> found, long delayMs, long deadlineMs) {
+        if (ordered.isEmpty()) return null;
+
+        CompletionService<T> cs = new ExecutorCompletionService<>(pool);
+        List<Future<T>> pending = new ArrayList<>(ordered.size());
+        Set<Future<T>> backups = new HashSet<>();
+        int next = 0;
+        int running = 0;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        long delay = TimeUnit.MILLISECONDS.toNanos(delayMs);
+        try {
+            while (running > 0 || next < ordered.size()) {
+                if (running == 0) {
+                    Neighbor n = ordered.get(next++);
+                    pending.add(cs.submit(() -> call.call(n)));
+                    running++;
+                    continue;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                boolean canHedge = next < ordered.size() && delay < left;
+                Future<T> f = cs.poll(canHedge ? delay : left, TimeUnit.NANOSECONDS);
+                if (f == null) {
+                    if (!canHedge) break;   // deadline scaduta
+                    Neighbor n = ordered.get(next++);
+                    Future<T> backup = cs.submit(() -> call.call(n));
+                    pending.add(backup);
+                    backups.add(backup);
+                    hedges.incrementAndGet();
+                    running++;
+                    continue;
+                }
+                running--;
+                try {
+                    T res = f.get();
+                    if (res != null && found.test(res)) {
+                        if (backups.contains(f)) hedgeWins.incrementAndGet();
+                        return res;
+                    }
+                } catch (ExecutionException ignored) {}
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<T> f : pending) f.cancel(true);
+        }
+        return null;
+    }
+
+    public long getHedges() { return hedges.get(); }
+    public long getHedgeWins() { return hedgeWins.get(); }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
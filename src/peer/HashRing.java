@@ -0,0 +1,99 @@
+package peer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Anello di consistent hashing per il piazzamento dei path sui peer.
+ *
+ * Ogni peer occupa vnodes punti dell'anello (nodi virtuali), così il carico si
+ * distribuisce in modo uniforme anche con pochi peer; il proprietario di un path
+ * è il primo punto che segue l'hash del path. Quando un peer entra o esce si
+ * spostano solo i path dei suoi intervalli.
+ *
+ * Le modifiche sono rare (join/leave): la mappa viene ricostruita e pubblicata
+ * intera, le letture non prendono lock.
+ */
+public class HashRing {
+    private final int vnodes;
+    private volatile NavigableMap<Long, String> points = new TreeMap<>();
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    public HashRing(int vnodes) {
+        this.vnodes = Math.max(1, vnodes);
+    }
+
+    // true se l'anello è cambiato
+    public synchronized boolean add(String peer) {
+        if (points.containsValue(peer)) return false;
+        NavigableMap<Long, String> next = new TreeMap<>(points);
+        for (int i = 0; i < vnodes; i++) next.put(hash(peer + "#" + i), peer);
+        points = next;
+        return true;
+    }
+
+    public synchronized boolean remove(String peer) {
+        if (!points.containsValue(peer)) return false;
+        NavigableMap<Long, String> next = new TreeMap<>(points);
+        next.values().removeIf(peer::equals);
+        points = next;
+        return true;
+    }
+
+    // Peer proprietario di path, null se l'anello è vuoto
+    public String ownerOf(String path) {
+        NavigableMap<Long, String> p = points;
+        if (p.isEmpty()) return null;
+        Map.Entry<Long, String> e = p.ceilingEntry(hash(path));
+        return e != null ? e.getValue() : p.firstEntry().getValue();
+    }
+
+    // I primi r peer distinti a partire dall'hash di path: il primo è il proprietario,
+    // gli altri ne tengono le repliche. Meno di r se l'anello ha meno peer.
+    public List<String> ownersOf(String path, int r) {
+        NavigableMap<Long, String> p = points;
+        List<String> out = new ArrayList<>(r);
+        if (p.isEmpty()) return out;
+        long h = hash(path);
+        for (String peer : p.tailMap(h, true).values()) {
+            if (out.size() == r) return out;
+            if (!out.contains(peer)) out.add(peer);
+        }
+        for (String peer : p.headMap(h, false).values()) {
+            if (out.size() == r) return out;
+            if (!out.contains(peer)) out.add(peer);
+        }
+        return out;
+    }
+
+    public Set<String> peers() {
+        return Collections.unmodifiableSet(new TreeSet<>(points.values()));
+    }
+
+    public int size() {
+        return peers().size();
+    }
+
+    static long hash(String key) {
+        byte[] d = MD5.get().digest(key.getBytes(StandardCharsets.UTF_8));
+        long h = 0;
+        for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+        return h;
+    }
+}
@@ -0,0 +1,76 @@
+package peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indice path → peer proprietario.
+ *
+ * Un path è posseduto dal peer che possiede il suo antenato più vicino presente
+ * nell'indice: basta quindi memorizzare le radici dei sottoalberi di ogni peer
+ * (es. "/test" → A copre anche "/test/hey.txt"). La root "/" non è mai indicizzata
+ * perché esiste su tutti i peer.
+ *
+ * L'indice è solo un suggerimento: chi lo usa deve tollerare voci obsolete.
+ */
+public class LocationIndex {
+    private final Map<String, String> owners = new ConcurrentHashMap<>();
+
+    // Proprietario del path o del suo antenato indicizzato più vicino, null se ignoto
+    public String lookup(String path) {
+        String p = path;
+        while (p != null && !"/".equals(p)) {
+            String owner = owners.get(p);
+            if (owner != null) return owner;
+            p = parentOf(p);
+        }
+        return null;
+    }
+
+    public void put(String path, String owner) {
+        if (path == null || "/".equals(path)) return;
+        String parent = parentOf(path);
+        // già coperto dall'antenato
+        if (parent != null && owner.equals(lookup(parent))) return;
+        owners.put(path, owner);
+    }
+
+    // Popola l'indice con tutti i path di un peer (es. da listAllPaths)
+    public void putAll(List<String> paths, String owner) {
+        List<String> sorted = new ArrayList<>(paths);
+        Collections.sort(sorted);   // i padri precedono i figli
+        for (String p : sorted) put(p, owner);
+    }
+
+    public void remove(String path) {
+        String prefix = path + "/";
+        owners.keySet().removeIf(p -> p.equals(path) || p.startsWith(prefix));
+    }
+
+    public void rename(String oldPath, String newPath, String owner) {
+        remove(oldPath);
+        if (owner != null) put(newPath, owner);
+    }
+
+    public void removeOwner(String owner) {
+        owners.values().removeIf(owner::equals);
+    }
+
+    public void clear() {
+        owners.clear();
+    }
+
+    public int size() {
+        return owners.size();
+    }
+
+    private static String parentOf(String path) {
+        if (path == null || path.isEmpty() || "/".equals(path)) return null;
+        int i = path.lastIndexOf('/');
+        if (i <= 0) return "/";
+        return path.substring(0, i);
+    }
+}
@@ -0,0 +1,418 @@
+package peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Membership a gossip e rilevamento dei peer caduti, sul modello di SWIM.
+ *
+ * A ogni periodo si sonda un solo membro, a turno su un ordine rimescolato: se non
+ * risponde entro pingTimeoutMs lo si fa sondare a indirect altri membri (probe) e,
+ * se nessuno ci riesce, diventa sospetto. Un sospetto che non smentisce entro
+ * suspectMs è dichiarato morto e rimosso dai vicini. Gli aggiornamenti (vivo,
+ * sospetto, morto) viaggiano in coda ai ping e alle risposte, ciascuno per un numero
+ * limitato di invii proporzionale a log(n): il traffico per periodo resta costante
+ * al crescere della rete. Ogni peer ha un'incarnazione, inizializzata dall'orologio
+ * all'avvio, che aumenta quando smentisce un sospetto su di sé: un aggiornamento
+ * vale solo se non è più vecchio di quello noto.
+ *
+ * Gli aggiornamenti sono stringhe "nome:host:porta:STATO:incarnazione".
+ */
+public class Membership {
+    enum State { ALIVE, SUSPECT, DEAD }
+
+    private static final int MAX_PIGGYBACK = 8;      // aggiornamenti per messaggio
+    private static final int RETRANSMIT_MULT = 3;    // invii di ogni aggiornamento: mult * log2(n + 1)
+
+    // Chiamate verso gli altri peer, fornite dal nodo
+    public interface Peers {
+        List<String> ping(String peer, List<String> updates) throws Exception;
+        boolean probe(String via, String target, List<String> updates) throws Exception;
+    }
+
+    // Cambi della vista, applicati dal nodo ai propri vicini
+    public interface Listener {
+        void joined(String name, String host, int port);
+        void evicted(String name);
+    }
+
+    private static final class Member {
+        final String name;
+        String host;
+        int port;
+        State state;
+        long incarnation;
+        long suspectedAt;
+
+        Member(String name, String host, int port, State state, long incarnation) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.state = state;
+            this.incarnation = incarnation;
+        }
+
+        String record() {
+            return name + ":" + host + ":" + port + ":" + state + ":" + incarnation;
+        }
+    }
+
+    private final String self;
+    private final String host;
+    private final int port;
+    private final Peers peers;
+    private final Listener listener;
+    private final long periodMs;
+    private final long pingTimeoutMs;
+    private final int indirect;
+    private final long suspectMs;
+
+    private long incarnation = System.currentTimeMillis();
+    private final Map<String, Member> members = new LinkedHashMap<>();     // morti compresi, come lapidi
+    private final Map<String, Integer> pending = new LinkedHashMap<>();    // record → invii rimasti
+    private final List<String> order = new ArrayList<>();                  // prossimi da sondare
+    private final Set<String> hints = new LinkedHashSet<>();               // da sondare subito
+
+    private final ScheduledExecutorService exec;
+    private final ExecutorService calls;
+
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong indirectProbes = new AtomicLong();
+    private final AtomicLong suspicions = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong refutations = new AtomicLong();
+
+    public Membership(String self, String host, int port, Peers peers, Listener listener,
+                      long periodMs, long pingTimeoutMs, int indirect, long suspectMs) {
+        this.self = self;
+        this.host = host;
+        this.port = port;
+        this.peers = peers;
+        this.listener = listener;
+        this.periodMs = periodMs;
+        this.pingTimeoutMs = pingTimeoutMs;
+        this.indirect = indirect;
+        this.suspectMs = suspectMs;
+        this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gossip-" + self);
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger seq = new AtomicInteger();
+        this.calls = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "gossip-" + self + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        exec.scheduleWithFixedDelay(() -> {
+            try {
+                round();
+            } catch (Exception e) {
+                System.err.println("Giro di gossip fallito: " + e.getMessage());
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        exec.shutdownNow();
+        calls.shutdownNow();
+    }
+
+    // ===== Protocollo =====
+
+    // Un periodo: scadenza dei sospetti e sonda di un membro, diretta e poi indiretta
+    void round() throws InterruptedException {
+        List<String> dead = expireSuspects();
+        for (String name : dead) listener.evicted(name);
+
+        Member target = nextTarget();
+        if (target == null) return;
+        String name = target.name;
+        pings.incrementAndGet();
+        if (ping(name)) return;
+
+        List<String> helpers = helpers(name);
+        if (!helpers.isEmpty() && probeIndirectly(helpers, name)) return;
+        suspect(name);
+    }
+
+    private boolean ping(String name) {
+        Future<List<String>> f = calls.submit(() -> peers.ping(name, outgoing(name)));
+        try {
+            List<String> reply = f.get(pingTimeoutMs, TimeUnit.MILLISECONDS);
+            receive(reply);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            f.cancel(true);
+            return false;
+        }
+    }
+
+    // I probe partono in parallelo; basta una conferma entro due timeout di ping
+    private boolean probeIndirectly(List<String> helpers, String target) throws InterruptedException {
+        CompletionService<Boolean> cs = new ExecutorCompletionService<>(calls);
+        List<Future<Boolean>> running = new ArrayList<>();
+        for (String via : helpers) {
+            indirectProbes.incrementAndGet();
+            running.add(cs.submit(() -> peers.probe(via, target, outgoing(via))));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * pingTimeoutMs);
+        try {
+            for (int i = 0; i < running.size(); i++) {
+                long left = deadline - System.nanoTime();
+                Future<Boolean> done = left > 0 ? cs.poll(left, TimeUnit.NANOSECONDS) : null;
+                if (done == null) return false;
+                try {
+                    if (Boolean.TRUE.equals(done.get())) return true;
+                } catch (Exception e) {
+                    // l'intermediario non risponde: si aspettano gli altri
+                }
+            }
+            return false;
+        } finally {
+            for (Future<Boolean> f : running) f.cancel(true);
+        }
+    }
+
+    // Probe richiesto da un altro membro: sonda target per suo conto
+    public boolean probe(String target, List<String> updates) {
+        receive(updates);
+        synchronized (this) {
+            Member m = members.get(target);
+            if (m == null || m.state == State.DEAD) return false;
+        }
+        return ping(target);
+    }
+
+    // Ping ricevuto: applica gli aggiornamenti e risponde con il proprio stato e i propri
+    public List<String> onPing(List<String> updates) {
+        receive(updates);
+        String from = updates != null && !updates.isEmpty() ? updates.get(0).split(":")[0] : null;
+        return outgoing(from);
+    }
+
+    // Un vicino non ha risposto a una richiesta normale: lo si sonda al prossimo periodo
+    public synchronized void hint(String name) {
+        Member m = members.get(name);
+        if (m != null && m.state != State.DEAD) hints.add(name);
+    }
+
+    // ===== Vista =====
+
+    // Vicino aggiunto esplicitamente (addNeighbor): vivo, con un'incarnazione che supera
+    // eventuali lapidi; la sua incarnazione reale arriva con la prima risposta
+    public void announced(String name, String host, int port) {
+        if (self.equals(name)) return;
+        synchronized (this) {
+            Member m = members.get(name);
+            long inc = m == null ? 0 : m.incarnation + 1;
+            if (m != null && m.state != State.DEAD) return;
+            m = new Member(name, host, port, State.ALIVE, inc);
+            members.put(name, m);
+            enqueue(m.record());
+        }
+    }
+
+    // Vicino uscito esplicitamente (removeNeighbor): resta come lapide
+    public synchronized void left(String name) {
+        Member m = members.get(name);
+        if (m == null || m.state == State.DEAD) return;
+        m.state = State.DEAD;
+        enqueue(m.record());
+    }
+
+    void receive(List<String> updates) {
+        if (updates == null) return;
+        List<Member> joined = new ArrayList<>();
+        List<String> dead = new ArrayList<>();
+        synchronized (this) {
+            for (String u : updates) apply(u, joined, dead);
+        }
+        for (Member m : joined) listener.joined(m.name, m.host, m.port);
+        for (String name : dead) listener.evicted(name);
+    }
+
+    // Regole di precedenza di SWIM; chiamato con il lock
+    private void apply(String update, List<Member> joined, List<String> dead) {
+        String[] tk = update.split(":");
+        if (tk.length != 5) return;
+        String name = tk[0];
+        State state;
+        long inc;
+        int p;
+        try {
+            state = State.valueOf(tk[3]);
+            inc = Long.parseLong(tk[4]);
+            p = Integer.parseInt(tk[2]);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        if (self.equals(name)) {
+            // smentita: chi ci crede sospetti o morti riceve un'incarnazione più alta
+            if (state != State.ALIVE && inc >= incarnation) {
+                incarnation = inc + 1;
+                refutations.incrementAndGet();
+                enqueue(selfRecord());
+            }
+            return;
+        }
+
+        Member m = members.get(name);
+        if (m == null) {
+            m = new Member(name, tk[1], p, state, inc);
+            members.put(name, m);
+            if (state == State.SUSPECT) m.suspectedAt = System.currentTimeMillis();
+            if (state != State.DEAD) joined.add(m);
+            enqueue(update);
+            return;
+        }
+
+        boolean accept;
+        switch (state) {
+            case ALIVE:   accept = inc > m.incarnation; break;
+            case SUSPECT: accept = m.state == State.ALIVE ? inc >= m.incarnation
+                                 : m.state == State.SUSPECT && inc > m.incarnation; break;
+            default:      accept = m.state != State.DEAD && inc >= m.incarnation
+                                 || m.state == State.DEAD && inc > m.incarnation; break;
+        }
+        if (!accept) return;
+
+        State before = m.state;
+        m.state = state;
+        m.incarnation = inc;
+        m.host = tk[1];
+        m.port = p;
+        if (state == State.SUSPECT && before != State.SUSPECT) m.suspectedAt = System.currentTimeMillis();
+        if (before == State.DEAD && state != State.DEAD) joined.add(m);
+        if (before != State.DEAD && state == State.DEAD) {
+            dead.add(name);
+            evictions.incrementAndGet();
+        }
+        enqueue(update);
+    }
+
+    private synchronized void suspect(String name) {
+        Member m = members.get(name);
+        if (m == null || m.state != State.ALIVE) return;
+        m.state = State.SUSPECT;
+        m.suspectedAt = System.currentTimeMillis();
+        suspicions.incrementAndGet();
+        enqueue(m.record());
+    }
+
+    private synchronized List<String> expireSuspects() {
+        List<String> dead = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Member m : members.values()) {
+            if (m.state == State.SUSPECT && now - m.suspectedAt >= suspectMs) {
+                m.state = State.DEAD;
+                evictions.incrementAndGet();
+                enqueue(m.record());
+                dead.add(m.name);
+            }
+        }
+        return dead;
+    }
+
+    // Prima i membri segnalati, poi a turno su un ordine rimescolato a ogni giro completo
+    private synchronized Member nextTarget() {
+        while (!hints.isEmpty()) {
+            String name = hints.iterator().next();
+            hints.remove(name);
+            Member m = members.get(name);
+            if (m != null && m.state != State.DEAD) return m;
+        }
+        while (true) {
+            if (order.isEmpty()) {
+                for (Member m : members.values()) if (m.state != State.DEAD) order.add(m.name);
+                if (order.isEmpty()) return null;
+                Collections.shuffle(order);
+            }
+            Member m = members.get(order.remove(order.size() - 1));
+            if (m != null && m.state != State.DEAD) return m;
+        }
+    }
+
+    private synchronized List<String> helpers(String target) {
+        List<String> live = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.state == State.ALIVE && !m.name.equals(target)) live.add(m.name);
+        }
+        Collections.shuffle(live, ThreadLocalRandom.current());
+        return live.subList(0, Math.min(indirect, live.size()));
+    }
+
+    // ===== Disseminazione =====
+
+    private void enqueue(String record) {
+        // un record più recente sullo stesso membro sostituisce quelli vecchi
+        String prefix = record.substring(0, record.indexOf(':') + 1);
+        pending.keySet().removeIf(r -> r.startsWith(prefix));
+        int alive = 1;
+        for (Member m : members.values()) if (m.state != State.DEAD) alive++;
+        int sends = RETRANSMIT_MULT * (32 - Integer.numberOfLeadingZeros(alive));
+        pending.put(record, sends);
+    }
+
+    // Messaggio in uscita: il proprio stato, quello che si crede del destinatario se lo si
+    // ritiene sospetto o morto (così può smentirlo subito) e gli aggiornamenti con più
+    // invii rimasti
+    private synchronized List<String> outgoing(String to) {
+        List<String> out = new ArrayList<>();
+        out.add(selfRecord());
+        if (to != null) {
+            Member m = members.get(to);
+            if (m != null && m.state != State.ALIVE) out.add(m.record());
+        }
+        List<Map.Entry<String, Integer>> byCount = new ArrayList<>(pending.entrySet());
+        byCount.sort((a, b) -> b.getValue() - a.getValue());
+        for (Map.Entry<String, Integer> e : byCount) {
+            if (out.size() > MAX_PIGGYBACK) break;
+            if (out.contains(e.getKey())) continue;
+            out.add(e.getKey());
+            if (e.getValue() <= 1) pending.remove(e.getKey());
+            else pending.put(e.getKey(), e.getValue() - 1);
+        }
+        return out;
+    }
+
+    private String selfRecord() {
+        return self + ":" + host + ":" + port + ":" + State.ALIVE + ":" + incarnation;
+    }
+
+    // ===== Statistiche =====
+
+    public synchronized int count(State state) {
+        int n = 0;
+        for (Member m : members.values()) if (m.state == state) n++;
+        return n;
+    }
+
+    public long getPings() { return pings.get(); }
+    public long getIndirectProbes() { return indirectProbes.get(); }
+    public long getSuspicions() { return suspicions.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getRefutations() { return refutations.get(); }
+}
@@ -0,0 +1,152 @@
+package peer;
+
+import shared.BatchOp;
+import shared.DirSummary;
+import shared.FileSystemInterface;
+import shared.RequestContext;
+import shared.TransferHandle;
+import shared.WalkPage;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Misura le chiamate che un peer riceve, davanti al nodo che le serve.
+ *
+ * È l'oggetto pubblicato nel registry RMI e servito dal canale wire, quindi vede
+ * tutte le richieste di client e peer ma non le chiamate interne del nodo a se
+ * stesso. Le operazioni dei client senza contesto partono qui con un contesto
+ * nuovo, così anche la prima tappa ha un traceId che i peer successivi ritrovano.
+ */
+public class MeteredFileSystem implements FileSystemInterface {
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface ContextCall<T> {
+        T call(RequestContext ctx) throws RemoteException;
+    }
+
+    private final FileSystemInterface fs;
+    private final Metrics metrics;
+
+    public MeteredFileSystem(FileSystemInterface fs, Metrics metrics) {
+        this.fs = fs;
+        this.metrics = metrics;
+    }
+
+    private <T> T timed(String op, RequestContext ctx, Call<T> call) throws RemoteException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            T res = call.call();
+            ok = true;
+            return res;
+        } finally {
+            metrics.served(op, ctx, t0, ok);
+        }
+    }
+
+    // Operazione di un client: nasce qui la richiesta e con lei il traceId
+    private <T> T origin(String op, ContextCall<T> call) throws RemoteException {
+        RequestContext ctx = RequestContext.create();
+        return timed(op, ctx, () -> call.call(ctx));
+    }
+
+    // ===== Client =====
+    @Override
+    public boolean mkdir(String path) throws RemoteException { return origin("mkdir", c -> fs.mkdirWithVisited(path, c)); }
+    @Override
+    public boolean mknod(String path) throws RemoteException { return origin("mknod", c -> fs.mknodWithVisited(path, c)); }
+    @Override
+    public boolean symlink(String target, String linkPath) throws RemoteException { return timed("symlink", null, () -> fs.symlink(target, linkPath)); }
+    @Override
+    public boolean write(String path, byte[] content) throws RemoteException { return origin("write", c -> fs.writeWithVisited(path, content, c)); }
+    @Override
+    public byte[] read(String path) throws RemoteException { return origin("read", c -> fs.readWithVisited(path, c)); }
+    @Override
+    public boolean rename(String oldPath, String newPath) throws RemoteException { return origin("rename", c -> fs.renameWithVisited(oldPath, newPath, c)); }
+    @Override
+    public List<String> readdir(String path) throws RemoteException { return origin("readdir", c -> fs.readdirWithVisited(path, c)); }
+    @Override
+    public Map<String, Object> getattr(String path) throws RemoteException { return origin("getattr", c -> fs.getattrWithVisited(path, c)); }
+    @Override
+    public String locate(String file) throws RemoteException { return origin("locate", c -> fs.locateWithVisited(file, c)); }
+    @Override
+    public byte[] read(String path, long offset, int length) throws RemoteException { return origin("readAt", c -> fs.readWithVisited(path, offset, length, c)); }
+    @Override
+    public boolean write(String path, long offset, byte[] data) throws RemoteException { return origin("writeAt", c -> fs.writeWithVisited(path, offset, data, c)); }
+    @Override
+    public boolean append(String path, byte[] data) throws RemoteException { return origin("append", c -> fs.appendWithVisited(path, data, c)); }
+    @Override
+    public boolean truncate(String path, long size) throws RemoteException { return origin("truncate", c -> fs.truncateWithVisited(path, size, c)); }
+    @Override
+    public long writeIfVersion(String path, long expected, byte[] content) throws RemoteException { return origin("writeIfVersion", c -> fs.writeIfVersionWithVisited(path, expected, content, c)); }
+    @Override
+    public List<Object> batch(List<BatchOp> ops) throws RemoteException { return origin("batch", c -> fs.batchWithVisited(ops, c)); }
+    @Override
+    public TransferHandle openTransfer(String path) throws RemoteException { return origin("openTransfer", c -> fs.openTransferWithVisited(path, c)); }
+
+    // ===== Tra peer =====
+    @Override
+    public boolean adopt(String path, byte[] data, long modifiedAt, long version) throws RemoteException { return timed("adopt", null, () -> fs.adopt(path, data, modifiedAt, version)); }
+    @Override
+    public boolean replicate(BatchOp op, long modifiedAt, long version) throws RemoteException { return timed("replicate", null, () -> fs.replicate(op, modifiedAt, version)); }
+    @Override
+    public Map<String, Long> replicaVersions(List<String> paths) throws RemoteException { return timed("replicaVersions", null, () -> fs.replicaVersions(paths)); }
+    @Override
+    public boolean writeWithVisited(String path, byte[] content, RequestContext ctx) throws RemoteException { return timed("write", ctx, () -> fs.writeWithVisited(path, content, ctx)); }
+    @Override
+    public byte[] readWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("read", ctx, () -> fs.readWithVisited(path, ctx)); }
+    @Override
+    public boolean renameWithVisited(String oldPath, String newPath, RequestContext ctx) throws RemoteException { return timed("rename", ctx, () -> fs.renameWithVisited(oldPath, newPath, ctx)); }
+    @Override
+    public List<String> readdirWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("readdir", ctx, () -> fs.readdirWithVisited(path, ctx)); }
+    @Override
+    public Map<String, Object> getattrWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("getattr", ctx, () -> fs.getattrWithVisited(path, ctx)); }
+    @Override
+    public String locateWithVisited(String file, RequestContext ctx) throws RemoteException { return timed("locate", ctx, () -> fs.locateWithVisited(file, ctx)); }
+    @Override
+    public boolean mkdirWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("mkdir", ctx, () -> fs.mkdirWithVisited(path, ctx)); }
+    @Override
+    public boolean mknodWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("mknod", ctx, () -> fs.mknodWithVisited(path, ctx)); }
+    @Override
+    public byte[] readWithVisited(String path, long offset, int length, RequestContext ctx) throws RemoteException { return timed("readAt", ctx, () -> fs.readWithVisited(path, offset, length, ctx)); }
+    @Override
+    public boolean writeWithVisited(String path, long offset, byte[] data, RequestContext ctx) throws RemoteException { return timed("writeAt", ctx, () -> fs.writeWithVisited(path, offset, data, ctx)); }
+    @Override
+    public boolean appendWithVisited(String path, byte[] data, RequestContext ctx) throws RemoteException { return timed("append", ctx, () -> fs.appendWithVisited(path, data, ctx)); }
+    @Override
+    public boolean truncateWithVisited(String path, long size, RequestContext ctx) throws RemoteException { return timed("truncate", ctx, () -> fs.truncateWithVisited(path, size, ctx)); }
+    @Override
+    public long writeIfVersionWithVisited(String path, long expected, byte[] content, RequestContext ctx) throws RemoteException { return timed("writeIfVersion", ctx, () -> fs.writeIfVersionWithVisited(path, expected, content, ctx)); }
+    @Override
+    public List<Object> batchWithVisited(List<BatchOp> ops, RequestContext ctx) throws RemoteException { return timed("batch", ctx, () -> fs.batchWithVisited(ops, ctx)); }
+    @Override
+    public TransferHandle openTransferWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("openTransfer", ctx, () -> fs.openTransferWithVisited(path, ctx)); }
+    @Override
+    public boolean pathExistsWithVisited(String path, RequestContext ctx) throws RemoteException { return timed("pathExists", ctx, () -> fs.pathExistsWithVisited(path, ctx)); }
+
+    // ===== Membership e servizio =====
+    @Override
+    public void addNeighbor(String name, String host, int port) throws RemoteException { timed("addNeighbor", null, () -> { fs.addNeighbor(name, host, port); return null; }); }
+    @Override
+    public void removeNeighbor(String name) throws RemoteException { timed("removeNeighbor", null, () -> { fs.removeNeighbor(name); return null; }); }
+    @Override
+    public List<String> getNeighbors() throws RemoteException { return timed("getNeighbors", null, fs::getNeighbors); }
+    @Override
+    public List<String> gossip(List<String> updates) throws RemoteException { return timed("gossip", null, () -> fs.gossip(updates)); }
+    @Override
+    public boolean probe(String target, List<String> updates) throws RemoteException { return timed("probe", null, () -> fs.probe(target, updates)); }
+    @Override
+    public List<String> listAllPaths() throws RemoteException { return timed("listAllPaths", null, fs::listAllPaths); }
+    @Override
+    public WalkPage walk(String prefix, String cursor, int limit) throws RemoteException { return timed("walk", null, () -> fs.walk(prefix, cursor, limit)); }
+    @Override
+    public List<DirSummary> treeSummaries(List<String> dirs) throws RemoteException { return timed("treeSummaries", null, () -> fs.treeSummaries(dirs)); }
+    @Override
+    public Map<String, Object> stats() throws RemoteException { return timed("stats", null, fs::stats); }
+}
@@ -0,0 +1,265 @@
+package peer;
+
+import shared.LatencyStats;
+import shared.RequestContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche e tracce di un peer.
+ *
+ * - operazioni: per ogni metodo di FileSystemInterface conteggio, errori e durata,
+ *   separando le richieste locali (arrivate da un client, hop 0) da quelle inoltrate
+ *   da un altro peer, più la distribuzione degli hop percorsi (i metodi senza
+ *   contesto, come gossip o adopt, contano come locali);
+ * - vicini: durata ed esito delle RPC verso ciascun vicino, con gli errori per tipo;
+ * - errori: conteggio per origine e ultimi messaggi, anche di quelli che prima
+ *   finivano solo su System.err o venivano ignorati;
+ * - tracce: le ultime operazioni servite e RPC inviate, con il traceId della
+ *   richiesta che è lo stesso su tutti i peer attraversati.
+ *
+ * Tutto è registrato senza lock; le viste (text, flat, traces) sono istantanee
+ * approssimate, lette mentre i contatori continuano a crescere.
+ */
+public class Metrics {
+    private static final int MAX_HOPS = 8;   // l'ultimo bucket conta da 8 hop in su
+    private static final int RECENT_ERRORS = 64;
+
+    private static final class OpStats {
+        final LatencyStats local = new LatencyStats();
+        final LatencyStats forwarded = new LatencyStats();
+        final LongAdder errors = new LongAdder();
+        final AtomicLongArray hops = new AtomicLongArray(MAX_HOPS + 1);
+    }
+
+    private static final class PeerStats {
+        final LatencyStats rpc = new LatencyStats();
+        final LongAdder errors = new LongAdder();     // errori di trasporto o del peer
+        final LongAdder timeouts = new LongAdder();   // scadenze superate
+        final LongAdder rejected = new LongAdder();   // breaker aperto, chiamata non partita
+    }
+
+    // Voce di traccia: operazione servita (peer null) o RPC inviata a peer
+    private static final class Span {
+        final long at;
+        final long traceId;
+        final String op;
+        final String peer;
+        final int hops;
+        final long nanos;
+        final String outcome;
+
+        Span(long traceId, String op, String peer, int hops, long nanos, String outcome) {
+            this.at = System.currentTimeMillis();
+            this.traceId = traceId;
+            this.op = op;
+            this.peer = peer;
+            this.hops = hops;
+            this.nanos = nanos;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tT.%<tL %016x %-16s %s hop=%d %.1fus %s", at, traceId, op,
+                                 peer != null ? "-> " + peer : "served", hops, nanos / 1000.0, outcome);
+        }
+    }
+
+    private final String owner;
+    private final Map<String, OpStats> ops = new ConcurrentSkipListMap<>();
+    private final Map<String, PeerStats> peers = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyStats> external = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<String> recentErrors = new AtomicReferenceArray<>(RECENT_ERRORS);
+    private final AtomicLong errorSeq = new AtomicLong();
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong spanSeq = new AtomicLong();
+
+    public Metrics(String owner, int traceKeep) {
+        this.owner = owner;
+        this.spans = new AtomicReferenceArray<>(Math.max(1, traceKeep));
+    }
+
+    // Istogramma tenuto da altri (es. le attese sui lock del file system) da mostrare con il resto
+    public void register(String name, LatencyStats stats) {
+        external.put(name, stats);
+    }
+
+    // ===== Registrazione =====
+
+    // Operazione servita da questo peer; ctx null per i metodi senza contesto
+    public void served(String op, RequestContext ctx, long t0, boolean ok) {
+        long nanos = System.nanoTime() - t0;
+        OpStats s = ops.computeIfAbsent(op, k -> new OpStats());
+        int hops = ctx != null ? ctx.getHops() : 0;
+        (hops == 0 ? s.local : s.forwarded).record(nanos);
+        s.hops.incrementAndGet(Math.min(hops, MAX_HOPS));
+        if (!ok) s.errors.increment();
+        if (ctx != null) trace(new Span(ctx.getTraceId(), op, null, hops, nanos, ok ? "ok" : "error"));
+    }
+
+    // RPC verso un vicino; failure null se è andata a buon fine
+    public void rpc(String peer, RequestContext next, long nanos, Exception failure) {
+        PeerStats s = peers.computeIfAbsent(peer, k -> new PeerStats());
+        String outcome = "ok";
+        if (failure instanceof CallGuard.BreakerOpenException) {
+            s.rejected.increment();
+            outcome = "rejected";
+        } else {
+            s.rpc.record(nanos);
+            if (failure instanceof CallGuard.DeadlineExceededException) {
+                s.timeouts.increment();
+                outcome = "timeout";
+            } else if (failure != null) {
+                s.errors.increment();
+                outcome = failure.getClass().getSimpleName();
+            }
+        }
+        if (next != null) trace(new Span(next.getTraceId(), "rpc", peer, next.getHops(), nanos, outcome));
+    }
+
+    // Errore da segnalare anche su System.err
+    public void error(String where, String message) {
+        System.err.println(message);
+        recordError(where, message);
+    }
+
+    // Guasto gestito (es. si ripiega sul flooding): solo contato e tenuto tra gli ultimi errori
+    public void dropped(String where, String peer, Exception e) {
+        recordError(where, where + ": " + peer + ": " + e);
+    }
+
+    private void recordError(String where, String message) {
+        errors.computeIfAbsent(where, k -> new LongAdder()).increment();
+        long seq = errorSeq.getAndIncrement();
+        recentErrors.set((int) (seq % RECENT_ERRORS), String.format("%tT.%<tL %s", System.currentTimeMillis(), message));
+    }
+
+    private void trace(Span span) {
+        long seq = spanSeq.getAndIncrement();
+        spans.set((int) (seq % spans.length()), span);
+    }
+
+    // ===== Viste =====
+
+    // Valori piatti (nome → numero), per JMX
+    public Map<String, Object> flat() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (Map.Entry<String, OpStats> e : ops.entrySet()) {
+            String p = "op." + e.getKey();
+            OpStats s = e.getValue();
+            put(out, p + ".local", s.local);
+            put(out, p + ".forwarded", s.forwarded);
+            out.put(p + ".errors", s.errors.sum());
+            for (int h = 0; h <= MAX_HOPS; h++) {
+                long n = s.hops.get(h);
+                if (n > 0) out.put(p + ".hops." + h + (h == MAX_HOPS ? "+" : ""), n);
+            }
+        }
+        for (Map.Entry<String, PeerStats> e : peers.entrySet()) {
+            String p = "peer." + e.getKey();
+            PeerStats s = e.getValue();
+            put(out, p + ".rpc", s.rpc);
+            out.put(p + ".errors", s.errors.sum());
+            out.put(p + ".timeouts", s.timeouts.sum());
+            out.put(p + ".rejected", s.rejected.sum());
+            out.put(p + ".errorRate", String.format("%.4f", errorRate(s)));
+        }
+        for (Map.Entry<String, LatencyStats> e : external.entrySet()) put(out, e.getKey(), e.getValue());
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(errors).entrySet()) {
+            out.put("errors." + e.getKey(), e.getValue().sum());
+        }
+        return out;
+    }
+
+    private static void put(Map<String, Object> out, String prefix, LatencyStats s) {
+        out.put(prefix + ".count", s.getCount());
+        out.put(prefix + ".avgMicros", (long) (s.getMeanNanos() / 1000));
+        out.put(prefix + ".p50Micros", s.percentile(0.50) / 1000);
+        out.put(prefix + ".p99Micros", s.percentile(0.99) / 1000);
+        out.put(prefix + ".maxMicros", s.getMaxNanos() / 1000);
+    }
+
+    private static double errorRate(PeerStats s) {
+        long failed = s.errors.sum() + s.timeouts.sum() + s.rejected.sum();
+        long total = s.rpc.getCount() + s.rejected.sum();
+        return total == 0 ? 0 : (double) failed / total;
+    }
+
+    // Riepilogo leggibile, una riga per istogramma
+    public String text() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# peer ").append(owner).append('\n');
+        sb.append("# operazioni servite (local = da client, forwarded = da altri peer)\n");
+        for (Map.Entry<String, OpStats> e : ops.entrySet()) {
+            OpStats s = e.getValue();
+            if (s.local.getCount() > 0) line(sb, "op." + e.getKey() + ".local", s.local.summary());
+            if (s.forwarded.getCount() > 0) line(sb, "op." + e.getKey() + ".forwarded", s.forwarded.summary());
+            StringBuilder h = new StringBuilder("errors=" + s.errors.sum() + " hops");
+            for (int i = 0; i <= MAX_HOPS; i++) {
+                long n = s.hops.get(i);
+                if (n > 0) h.append(' ').append(i).append(i == MAX_HOPS ? "+" : "").append('=').append(n);
+            }
+            line(sb, "op." + e.getKey(), h.toString());
+        }
+        sb.append("# RPC verso i vicini\n");
+        for (Map.Entry<String, PeerStats> e : peers.entrySet()) {
+            PeerStats s = e.getValue();
+            line(sb, "peer." + e.getKey(), s.rpc.summary() + " errors=" + s.errors.sum() + " timeouts="
+                 + s.timeouts.sum() + " rejected=" + s.rejected.sum()
+                 + String.format(" errorRate=%.4f", errorRate(s)));
+        }
+        if (!external.isEmpty()) sb.append("# altri tempi\n");
+        for (Map.Entry<String, LatencyStats> e : external.entrySet()) line(sb, e.getKey(), e.getValue().summary());
+        sb.append("# errori\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(errors).entrySet()) {
+            line(sb, "errors." + e.getKey(), String.valueOf(e.getValue().sum()));
+        }
+        for (String msg : recentErrors()) sb.append("  ").append(msg).append('\n');
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, String value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    public long getErrors() {
+        return errorSeq.get();
+    }
+
+    // Ultimi errori, dal più vecchio
+    public List<String> recentErrors() {
+        List<String> out = new ArrayList<>();
+        long last = errorSeq.get();
+        for (long seq = Math.max(0, last - RECENT_ERRORS); seq < last; seq++) {
+            String msg = recentErrors.get((int) (seq % RECENT_ERRORS));
+            if (msg != null) out.add(msg);
+        }
+        return out;
+    }
+
+    // Ultime voci di traccia, dalla più vecchia; traceId null per tutte
+    public String traces(Long traceId) {
+        StringBuilder sb = new StringBuilder();
+        long last = spanSeq.get();
+        int keep = spans.length();
+        for (long seq = Math.max(0, last - keep); seq < last; seq++) {
+            Span s = spans.get((int) (seq % keep));
+            if (s == null || (traceId != null && s.traceId != traceId)) continue;
+            sb.append(owner).append(' ').append(s).append('\n');
+        }
+        return sb.toString();
+    }
+}
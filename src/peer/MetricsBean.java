@@ -0,0 +1,92 @@
+package peer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * MBean dinamico di un peer (ptpvfs:type=Peer,name=...): ogni voce di stats() e
+ * delle metriche è un attributo di sola lettura. L'elenco degli attributi segue
+ * quello delle voci, che cresce con le operazioni e i vicini visti.
+ * Le operazioni text e traces restituiscono le stesse viste dell'endpoint HTTP.
+ */
+public class MetricsBean implements DynamicMBean {
+    private final Metrics metrics;
+    private final Supplier<Map<String, Object>> values;
+
+    public MetricsBean(Metrics metrics, Supplier<Map<String, Object>> values) {
+        this.metrics = metrics;
+        this.values = values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Map<String, Object> all = values.get();
+        if (!all.containsKey(attribute)) throw new AttributeNotFoundException(attribute);
+        return all.get(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("attributi di sola lettura: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> all = values.get();
+        AttributeList out = new AttributeList();
+        for (String name : attributes) {
+            if (all.containsKey(name)) out.add(new Attribute(name, all.get(name)));
+        }
+        return out;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        switch (actionName) {
+            case "text":
+                return metrics.text();
+            case "traces":
+                String id = params != null && params.length > 0 ? (String) params[0] : null;
+                return metrics.traces(id == null || id.isEmpty() ? null : Long.parseUnsignedLong(id, 16));
+            default:
+                throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = new ArrayList<>();
+        for (Map.Entry<String, Object> e : values.get().entrySet()) {
+            Object v = e.getValue();
+            String type = v != null ? v.getClass().getName() : String.class.getName();
+            attrs.add(new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false));
+        }
+        MBeanOperationInfo[] ops = {
+            new MBeanOperationInfo("text", "Riepilogo delle metriche", new MBeanParameterInfo[0],
+                                   String.class.getName(), MBeanOperationInfo.INFO),
+            new MBeanOperationInfo("traces", "Ultime voci di traccia (traceId esadecimale o vuoto)",
+                                   new MBeanParameterInfo[] {
+                                       new MBeanParameterInfo("traceId", String.class.getName(), "traceId")
+                                   },
+                                   String.class.getName(), MBeanOperationInfo.INFO)
+        };
+        return new MBeanInfo(getClass().getName(), "Metriche del peer",
+                             attrs.toArray(new MBeanAttributeInfo[0]), null, ops, null);
+    }
+}
@@ -0,0 +1,90 @@
+package peer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Endpoint HTTP locale (solo loopback) con metriche e tracce del peer, in testo.
+ *
+ * - /metrics: operazioni, RPC verso i vicini, attese sui lock, errori recenti
+ * - /stats: le stesse voci di FileSystemInterface.stats()
+ * - /traces: ultime voci di traccia; /traces?id=<hex> solo quelle di un traceId,
+ *   da confrontare con quelle degli altri peer per ricostruire il percorso
+ */
+public class MetricsServer {
+    private final int port;
+    private final Metrics metrics;
+    private final Supplier<Map<String, Object>> stats;
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    public MetricsServer(int port, Metrics metrics, Supplier<Map<String, Object>> stats) {
+        this.port = port;
+        this.metrics = metrics;
+        this.stats = stats;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", ex -> reply(ex, metrics.text()));
+        server.createContext("/stats", ex -> {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Object> e : stats.get().entrySet()) {
+                sb.append(e.getKey()).append(" = ").append(e.getValue()).append('\n');
+            }
+            reply(ex, sb.toString());
+        });
+        server.createContext("/traces", ex -> {
+            String query = ex.getRequestURI().getQuery();
+            Long id = null;
+            if (query != null && query.startsWith("id=")) {
+                try {
+                    id = Long.parseUnsignedLong(query.substring(3), 16);
+                } catch (NumberFormatException e) {
+                    reply(ex, 400, "traceId non valido: " + query.substring(3) + "\n");
+                    return;
+                }
+            }
+            reply(ex, metrics.traces(id));
+        });
+        handlers = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-" + port);
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    public void close() {
+        if (server != null) server.stop(0);
+        if (handlers != null) handlers.shutdownNow();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private static void reply(HttpExchange ex, String body) throws IOException {
+        reply(ex, 200, body);
+    }
+
+    private static void reply(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
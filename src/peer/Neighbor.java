@@ -1,5 +1,7 @@
 package peer;
 
+import java.util.Objects;
+
 public class Neighbor{
     private final String name;
     private final String address;
@@ -15,4 +17,17 @@ public class Neighbor{
     public String getAddress() { return address; }
     public int getPort() { return port; }
 
+    @Override
+    public boolean equals(Object o) {
+	if (this == o) return true;
+	if (!(o instanceof Neighbor)) return false;
+	Neighbor other = (Neighbor) o;
+	return port == other.port && name.equals(other.name) && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+	return Objects.hash(name, address, port);
+    }
+
 }
@@ -0,0 +1,99 @@
+package peer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latenza media mobile (EWMA) e richieste in corso verso ogni vicino.
+ *
+ * Serve a scegliere da quale replica leggere: il costo stimato di un vicino è la
+ * sua latenza media moltiplicata per le richieste che ha già in corso, così un
+ * peer lento o carico riceve meno letture. Un errore raddoppia la stima, che poi
+ * torna a scendere con le risposte buone.
+ *
+ * Gli ultimi campioni di ogni vicino danno anche il 95° percentile, usato come
+ * attesa prima di mandare una lettura di riserva a un'altra replica.
+ */
+public class PeerLatency {
+    private static final double ALPHA = 0.2;
+    private static final double UNKNOWN_MICROS = 1000;   // stima iniziale, 1 ms
+
+    private static final int WINDOW = 64;       // campioni tenuti per il percentile
+    private static final int RECOMPUTE = 16;    // ogni quanti campioni si ricalcola
+
+    private static final class Entry {
+        volatile double ewmaMicros = UNKNOWN_MICROS;
+        volatile double p95Micros = -1;         // -1: troppo pochi campioni
+        final AtomicInteger inFlight = new AtomicInteger();
+        final double[] window = new double[WINDOW];
+        long samples;
+    }
+
+    private final Map<String, Entry> peers = new ConcurrentHashMap<>();
+
+    private Entry entry(String peer) {
+        return peers.computeIfAbsent(peer, p -> new Entry());
+    }
+
+    public void begin(String peer) {
+        entry(peer).inFlight.incrementAndGet();
+    }
+
+    public void end(String peer, long nanos, boolean ok) {
+        Entry e = entry(peer);
+        e.inFlight.decrementAndGet();
+        double sample = nanos / 1000.0;
+        synchronized (e) {
+            e.ewmaMicros = ok ? e.ewmaMicros + ALPHA * (sample - e.ewmaMicros)
+                              : Math.max(e.ewmaMicros * 2, sample);
+            if (!ok) return;
+            e.window[(int) (e.samples++ % WINDOW)] = sample;
+            if (e.samples % RECOMPUTE == 0) {
+                double[] sorted = Arrays.copyOf(e.window, (int) Math.min(e.samples, WINDOW));
+                Arrays.sort(sorted);
+                e.p95Micros = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            }
+        }
+    }
+
+    // Chiamata annullata da chi l'ha fatta: nessun campione
+    public void cancel(String peer) {
+        entry(peer).inFlight.decrementAndGet();
+    }
+
+    public double cost(String peer) {
+        Entry e = peers.get(peer);
+        if (e == null) return UNKNOWN_MICROS;
+        return e.ewmaMicros * (1 + e.inFlight.get());
+    }
+
+    // peers ordinati dal meno al più costoso
+    public List<String> rank(Collection<String> candidates) {
+        List<String> out = new ArrayList<>(candidates);
+        out.sort(Comparator.comparingDouble(this::cost));
+        return out;
+    }
+
+    public void forget(String peer) {
+        peers.remove(peer);
+    }
+
+    // 95° percentile delle risposte buone; finché i campioni sono pochi il doppio della media
+    public double p95Micros(String peer) {
+        Entry e = peers.get(peer);
+        if (e == null) return UNKNOWN_MICROS * 2;
+        double p95 = e.p95Micros;
+        return p95 >= 0 ? p95 : e.ewmaMicros * 2;
+    }
+
+    public double getEwmaMicros(String peer) {
+        Entry e = peers.get(peer);
+        return e != null ? e.ewmaMicros : UNKNOWN_MICROS;
+    }
+}
@@ -0,0 +1,151 @@
+package peer;
+
+import shared.fs.FileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sposta i file locali sui peer che li possiedono secondo l'anello (placement hash).
+ *
+ * Una passata visita l'albero locale e, per ogni file di cui questo peer non è più
+ * tra le repliche, ne copia il contenuto su tutte le repliche (adopt) e lo rimuove
+ * qui solo se le copie sono riuscite e nel frattempo non è stato modificato;
+ * altrimenti ci riprova alla passata successiva. Le directory restano dove sono: sono namespace distribuiti
+ * e ogni peer ne ha una copia per i propri file.
+ *
+ * Le passate sono idempotenti; schedule() le raggruppa, così più cambi di
+ * membership ravvicinati producono una passata sola.
+ */
+public class Rebalancer {
+    @FunctionalInterface
+    public interface Mover {
+        // data == null → il path è una directory
+        boolean adopt(String owner, String path, byte[] data, long modifiedAt, long version) throws Exception;
+    }
+
+    private final String self;
+    private final FileSystem fs;
+    private final HashRing ring;
+    private final int replicas;
+    private final Mover mover;
+    private final long delayMs;
+    private final ScheduledExecutorService exec;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public Rebalancer(String self, FileSystem fs, HashRing ring, int replicas, Mover mover, long delayMs) {
+        this.self = self;
+        this.fs = fs;
+        this.ring = ring;
+        this.replicas = replicas;
+        this.mover = mover;
+        this.delayMs = delayMs;
+        this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rebalance-" + self);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Passata in background dopo delayMs (una sola se già in attesa)
+    public void schedule() {
+        if (!scheduled.compareAndSet(false, true)) return;
+        exec.schedule(() -> {
+            scheduled.set(false);   // un cambio durante la passata ne programma un'altra
+            try {
+                rebalance(false);
+            } catch (Exception e) {
+                System.err.println("Rebalance fallito: " + e.getMessage());
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Passata sincrona; con leaving si consegnano anche le directory vuote, che
+    // altrimenti sparirebbero con il peer. Restituisce i file spostati.
+    public synchronized int rebalance(boolean leaving) {
+        passes.incrementAndGet();
+        List<String> files = new ArrayList<>();
+        List<String> emptyDirs = new ArrayList<>();
+        walk(fs, "/", files, emptyDirs);
+
+        int count = 0;
+        for (String path : files) {
+            List<String> owners = ring.ownersOf(path, replicas);
+            if (owners.isEmpty() || owners.contains(self)) continue;
+            if (move(owners, path)) count++;
+        }
+        if (leaving) {
+            for (String dir : emptyDirs) {
+                List<String> owners = ring.ownersOf(dir, replicas);
+                if (owners.isEmpty() || owners.contains(self)) continue;
+                for (String owner : owners) {
+                    try {
+                        if (!mover.adopt(owner, dir, null, 0, 0)) errors.incrementAndGet();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        }
+        moved.addAndGet(count);
+        return count;
+    }
+
+    private boolean move(List<String> owners, String path) {
+        Map<String, Object> before = fs.getattr(path);
+        byte[] data = fs.read(path);
+        if (before == null || data == null) return false;
+        long modifiedAt = (Long) before.get("modifiedAt");
+        long version = (Long) before.get("version");
+        for (String owner : owners) {
+            try {
+                if (!mover.adopt(owner, path, data, modifiedAt, version)) {
+                    errors.incrementAndGet();
+                    return false;
+                }
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                System.err.println("Spostamento di " + path + " su " + owner + " fallito: " + e.getMessage());
+                return false;
+            }
+        }
+        // scritto dopo la copia: resta qui, la prossima passata lo ricopia
+        return fs.unlinkIfUnchanged(path, (Long) before.get("modifiedAt"), (Long) before.get("size"));
+    }
+
+    // File (e directory vuote, se emptyDirs != null) dell'albero locale sotto dir
+    static void walk(FileSystem fs, String dir, List<String> files, List<String> emptyDirs) {
+        List<String> children = fs.readdir(dir);
+        if (children == null) return;
+        if (emptyDirs != null && children.isEmpty() && !"/".equals(dir)) emptyDirs.add(dir);
+        for (String child : children) {
+            String path = "/".equals(dir) ? "/" + child : dir + "/" + child;
+            if (fs.readlink(path) != null) continue;   // i symlink restano dove sono stati creati
+            Map<String, Object> attr = fs.getattr(path);
+            if (attr == null) continue;
+            if ("DirectoryNode".equals(attr.get("type"))) {
+                walk(fs, path, files, emptyDirs);
+            } else if ("FileNode".equals(attr.get("type"))) {
+                files.add(path);
+            }
+        }
+    }
+
+    public void shutdown() {
+        exec.shutdownNow();
+    }
+
+    public long getPasses() { return passes.get(); }
+    public long getMoved() { return moved.get(); }
+    public long getErrors() { return errors.get(); }
+}
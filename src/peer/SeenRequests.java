@@ -0,0 +1,76 @@
+package peer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Id delle richieste già elaborate da questo peer (vedi RequestContext).
+ *
+ * Una richiesta che arriva di nuovo, da un altro percorso del flooding, viene
+ * scartata solo se il suo TTL residuo non supera quello della copia già elaborata:
+ * altrimenti una copia arrivata prima per un percorso lungo (e quindi con meno hop
+ * a disposizione) impedirebbe a quella arrivata per un percorso corto di proseguire
+ * oltre. La copia con TTL più alto viene elaborata di nuovo e il suo TTL diventa il
+ * riferimento per le successive. Così una richiesta raggiunge ogni peer distante al
+ * più ttl hop dall'origine, qualunque sia l'ordine di arrivo delle copie; ogni peer
+ * la elabora al più ttl + 1 volte (in pratica una o due).
+ *
+ * Le voci scadono dopo ttlMs: basta che sopravvivano alla durata di un inoltro.
+ * La pulizia avviene al più ogni ttlMs/2, durante gli inserimenti.
+ */
+public class SeenRequests {
+    // TTL residuo più alto con cui l'id è stato elaborato
+    private static final class Visit {
+        final long expiry;
+        final int ttl;
+
+        Visit(long expiry, int ttl) {
+            this.expiry = expiry;
+            this.ttl = ttl;
+        }
+    }
+
+    private final Map<Long, Visit> visits = new ConcurrentHashMap<>();
+    private final long ttlMs;
+    private volatile long nextPurge;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong revisits = new AtomicLong();
+
+    public SeenRequests(long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.nextPurge = System.currentTimeMillis() + ttlMs / 2;
+    }
+
+    // true se id non era ancora stato visto (o la sua voce era scaduta) oppure se arriva
+    // con un TTL residuo più alto di tutte le copie già elaborate
+    public boolean firstVisit(long id, int ttl) {
+        received.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now >= nextPurge) {
+            nextPurge = now + ttlMs / 2;
+            visits.values().removeIf(v -> v.expiry < now);
+        }
+
+        Visit[] before = new Visit[1];
+        Visit after = visits.compute(id, (k, prev) -> {
+            before[0] = prev;
+            if (prev != null && prev.expiry >= now && ttl <= prev.ttl) return prev;
+            return new Visit(now + ttlMs, ttl);
+        });
+        Visit prev = before[0];
+        if (after == prev) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        if (prev != null && prev.expiry >= now) revisits.incrementAndGet();
+        return true;
+    }
+
+    public int size() { return visits.size(); }
+    public long getReceived() { return received.get(); }
+    public long getDuplicates() { return duplicates.get(); }
+    public long getRevisits() { return revisits.get(); }
+}
@@ -0,0 +1,142 @@
+package peer;
+
+import shared.FileSystemInterface;
+
+import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache degli stub RMI dei vicini.
+ *
+ * Il lookup sul registry viene fatto solo al primo uso (o dopo un'invalidazione):
+ * gli hop successivi riusano lo stub già risolto. Se un vicino non risponde
+ * la riconnessione è pigra e con backoff esponenziale.
+ *
+ * Con il trasporto binario gli "stub" sono WireStub verso la porta RMI del
+ * vicino + wirePortOffset; le connessioni si chiudono quando lo stub esce dalla cache.
+ */
+public class StubCache {
+    private static final long BASE_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final Map<Neighbor, FileSystemInterface> stubs = new ConcurrentHashMap<>();
+    private final Map<Neighbor, Backoff> backoffs = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private final boolean wire;
+    private final int wirePortOffset;
+
+    public StubCache() {
+        this(false, 0);
+    }
+
+    public StubCache(boolean wire, int wirePortOffset) {
+        this.wire = wire;
+        this.wirePortOffset = wirePortOffset;
+    }
+
+    private static final class Backoff {
+        final int failures;
+        final long retryAt;
+        final boolean reconnect;   // c'era uno stub valido prima del guasto
+
+        Backoff(int failures, long retryAt, boolean reconnect) {
+            this.failures = failures;
+            this.retryAt = retryAt;
+            this.reconnect = reconnect;
+        }
+    }
+
+    public FileSystemInterface get(Neighbor n) throws RemoteException, NotBoundException {
+        FileSystemInterface stub = stubs.get(n);
+        if (stub != null) {
+            hits.incrementAndGet();
+            return stub;
+        }
+        misses.incrementAndGet();
+
+        Backoff b = backoffs.get(n);
+        if (b != null && System.currentTimeMillis() < b.retryAt) {
+            throw new ConnectException("Vicino " + n.getName() + " in backoff");
+        }
+
+        try {
+            stub = wire ? new WireStub(n.getAddress(), n.getPort() + wirePortOffset) : lookup(n);
+        } catch (RemoteException | NotBoundException e) {
+            fail(n, b != null && b.reconnect);
+            throw e;
+        }
+
+        if (b != null && b.reconnect) reconnects.incrementAndGet();
+        backoffs.remove(n);
+        FileSystemInterface raced = stubs.putIfAbsent(n, stub);
+        if (raced != null) {   // get concorrenti: si tiene il primo stub
+            close(stub);
+            return raced;
+        }
+        return stub;
+    }
+
+    private static FileSystemInterface lookup(Neighbor n) throws RemoteException, NotBoundException {
+        Registry reg = LocateRegistry.getRegistry(n.getAddress(), n.getPort());
+        return (FileSystemInterface) reg.lookup(n.getName());
+    }
+
+    private static void close(FileSystemInterface stub) {
+        if (stub instanceof WireStub) ((WireStub) stub).close();
+    }
+
+    // Chiamata quando una RPC verso il vicino fallisce con RemoteException.
+    // Le ServerException arrivano da un peer raggiungibile: lo stub resta valido.
+    public void invalidate(Neighbor n, RemoteException cause) {
+        if (cause instanceof ServerException) return;
+        // senza stub in cache il guasto è già stato contato da get()
+        FileSystemInterface stub = stubs.remove(n);
+        if (stub != null) {
+            close(stub);
+            fail(n, true);
+        }
+    }
+
+    // Chiamata quando il vicino esce dalla membership: si dimentica tutto
+    public void evict(Neighbor n) {
+        close(stubs.remove(n));
+        backoffs.remove(n);
+    }
+
+    public void clear() {
+        stubs.values().forEach(StubCache::close);
+        stubs.clear();
+        backoffs.clear();
+    }
+
+    public boolean isWire() { return wire; }
+
+    private void fail(Neighbor n, boolean reconnect) {
+        backoffs.compute(n, (k, old) -> {
+            int failures = old == null ? 1 : old.failures + 1;
+            long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(failures - 1, 16));
+            return new Backoff(failures, System.currentTimeMillis() + delay, reconnect);
+        });
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getReconnects() { return reconnects.get(); }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits.get() + " misses=" + misses.get() + " reconnects=" + reconnects.get()
+            + " cached=" + stubs.size();
+    }
+}
@@ -0,0 +1,53 @@
+package peer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Path di file replicati che non esistono più perché rinominati, con la data di
+ * modifica che il file ha preso al rename (vedi DistributedNode.renameWithVisited).
+ *
+ * Servono alla riparazione in background: una replica rimasta spenta durante il
+ * rename ha ancora la copia sotto il vecchio path, più vecchia della lapide, e
+ * deve cancellarla invece di rimandarla alle altre repliche. Le voci scadono dopo
+ * keepMs: una replica spenta più a lungo riporta il file sotto il vecchio nome.
+ * La pulizia avviene al più ogni keepMs/2, durante gli inserimenti.
+ */
+public class Tombstones {
+    private static final class Stone {
+        final long modifiedAt;
+        final long expiry;
+
+        Stone(long modifiedAt, long expiry) {
+            this.modifiedAt = modifiedAt;
+            this.expiry = expiry;
+        }
+    }
+
+    private final Map<String, Stone> stones = new ConcurrentHashMap<>();
+    private final long keepMs;
+    private volatile long nextPurge;
+
+    public Tombstones(long keepMs) {
+        this.keepMs = keepMs;
+        this.nextPurge = System.currentTimeMillis() + keepMs / 2;
+    }
+
+    public void put(String path, long modifiedAt) {
+        long now = System.currentTimeMillis();
+        if (now >= nextPurge) {
+            nextPurge = now + keepMs / 2;
+            stones.values().removeIf(s -> s.expiry < now);
+        }
+        stones.merge(path, new Stone(modifiedAt, now + keepMs),
+                     (old, s) -> old.modifiedAt > s.modifiedAt ? new Stone(old.modifiedAt, s.expiry) : s);
+    }
+
+    // Data di modifica della lapide di path, -1 se non c'è (o è scaduta)
+    public long get(String path) {
+        Stone s = stones.get(path);
+        return s == null || s.expiry < System.currentTimeMillis() ? -1 : s.modifiedAt;
+    }
+
+    public int size() { return stones.size(); }
+}
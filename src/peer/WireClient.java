@@ -0,0 +1,167 @@
+package peer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lato client del protocollo binario: un piccolo pool di connessioni verso un
+ * peer, ognuna condivisa da più richieste in volo distinte per id.
+ *
+ * Sul canale scrivono e leggono solo i due thread della connessione: chi chiama
+ * accoda la richiesta e ne attende la risposta. Un chiamante interrotto (es. il
+ * perdente di un fan-out annullato con cancel(true)) non tocca quindi il canale,
+ * che il JDK chiuderebbe con ClosedByInterruptException facendo fallire tutte le
+ * altre richieste in volo sulla stessa connessione.
+ *
+ * Gli errori sono riportati come RemoteException, così DistributedNode e
+ * StubCache li trattano come quelli di RMI: ServerException se il peer ha
+ * risposto con un errore, altrimenti guasto di trasporto (lo stub va invalidato).
+ */
+class WireClient {
+    private final String address;
+    private final Connection[] pool;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long timeoutMs;
+
+    WireClient(String host, int port, int connections, long timeoutMs) throws RemoteException {
+        this.address = host + ":" + port;
+        this.timeoutMs = timeoutMs;
+        this.pool = new Connection[Math.max(1, connections)];
+        try {
+            for (int i = 0; i < pool.length; i++) pool[i] = new Connection(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            close();
+            throw new ConnectException("Connessione wire a " + address + " fallita", e);
+        }
+    }
+
+    Object call(WireCodec.Op op, Object... args) throws RemoteException {
+        Connection c = pool[Math.floorMod(next.getAndIncrement(), pool.length)];
+        return c.call(op, args);
+    }
+
+    void close() {
+        for (Connection c : pool) {
+            if (c != null) c.close(new IOException("client chiuso"));
+        }
+    }
+
+    private final class Connection {
+        private static final int MAX_GATHER = 64;   // frame in coda scritti con una sola write
+
+        private final SocketChannel ch;
+        private final BlockingQueue<ByteBuffer> outbox = new LinkedBlockingQueue<>();
+        private final Thread writer;
+        private final Map<Long, CompletableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+        private final AtomicLong ids = new AtomicLong();
+        private volatile IOException failure;
+
+        Connection(InetSocketAddress addr) throws IOException {
+            ch = SocketChannel.open(addr);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            writer = new Thread(this::writeLoop, "wire-client-writer-" + address);
+            writer.setDaemon(true);
+            writer.start();
+            Thread reader = new Thread(this::readLoop, "wire-client-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        Object call(WireCodec.Op op, Object[] args) throws RemoteException {
+            if (failure != null) throw new RemoteException("Connessione wire a " + address + " chiusa", failure);
+
+            long id = ids.incrementAndGet();
+            ByteBuffer request = WireCodec.request(id, op, args);
+            // il server chiuderebbe la connessione, con tutte le richieste in volo: si rifiuta qui
+            if (WireServer.tooLarge(request)) {
+                String msg = "Richiesta " + op + " di " + (request.remaining() - 4) + " byte oltre ptpvfs.wire.maxFrameBytes";
+                throw new ServerException(address + ": " + msg, new RemoteException(msg));   // non è un guasto del peer
+            }
+            CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+            inFlight.put(id, reply);
+            ByteBuffer frame;
+            try {
+                // chiusa tra il primo controllo e l'inserimento: close potrebbe non averla vista
+                if (failure != null) throw new RemoteException("Connessione wire a " + address + " chiusa", failure);
+                outbox.add(request);
+                frame = reply.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new RemoteException("Connessione wire a " + address + " persa", e.getCause());
+            } catch (TimeoutException e) {
+                throw new RemoteException("Timeout della richiesta " + op + " verso " + address);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Richiesta " + op + " interrotta");
+            } finally {
+                inFlight.remove(id);
+            }
+
+            byte status = frame.get();
+            Object value = WireCodec.readValue(frame);
+            if (status != WireCodec.OK) {
+                throw new ServerException(address + ": " + value, new RemoteException(String.valueOf(value)));
+            }
+            return value;
+        }
+
+        // Unico thread che scrive sul canale; i frame accumulati nel frattempo partono insieme
+        private void writeLoop() {
+            List<ByteBuffer> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(outbox.take());
+                    outbox.drainTo(batch, MAX_GATHER - 1);
+                    ByteBuffer[] bufs = batch.toArray(new ByteBuffer[0]);
+                    long left = 0;
+                    for (ByteBuffer b : bufs) left += b.remaining();
+                    while (left > 0) left -= ch.write(bufs);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // connessione chiusa
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        private void readLoop() {
+            ByteBuffer len = ByteBuffer.allocate(4);
+            try {
+                while (true) {
+                    ByteBuffer frame = WireServer.readFrame(ch, len);
+                    CompletableFuture<ByteBuffer> reply = inFlight.get(frame.getLong());
+                    if (reply != null) reply.complete(frame);   // altrimenti la richiesta è già scaduta
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        void close(IOException cause) {
+            if (failure == null) failure = cause;
+            try {
+                ch.close();
+            } catch (IOException ignored) {}
+            if (Thread.currentThread() != writer) writer.interrupt();
+            for (CompletableFuture<ByteBuffer> f : inFlight.values()) f.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package peer;
+
+import shared.BatchOp;
+import shared.DirSummary;
+import shared.RequestContext;
+import shared.TransferHandle;
+import shared.WalkPage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codifica binaria del protocollo tra peer (alternativa a RMI).
+ *
+ * Ogni frame è [lunghezza int][id richiesta long][codice byte][valori...]: nelle
+ * richieste il codice è l'operazione (Op) seguita dal numero di argomenti, nelle
+ * risposte è lo stato (OK o ERROR) seguito dal risultato o dal messaggio d'errore.
+ * I valori sono preceduti da un tag di tipo; gli oggetti non previsti (es. enum
+ * nelle statistiche) viaggiano come stringa.
+ */
+final class WireCodec {
+    private WireCodec() {}
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // Una voce per ogni metodo di FileSystemInterface; l'ordinale è il codice sul filo
+    enum Op {
+        MKDIR, MKNOD, SYMLINK, WRITE, READ, RENAME, READDIR, GETATTR, LOCATE,
+        READ_AT, WRITE_AT, APPEND, TRUNCATE, BATCH,
+        WRITE_V, READ_V, RENAME_V, READDIR_V, GETATTR_V, LOCATE_V, MKDIR_V, MKNOD_V,
+        READ_AT_V, WRITE_AT_V, APPEND_V, TRUNCATE_V, BATCH_V,
+        ADD_NEIGHBOR, REMOVE_NEIGHBOR, GET_NEIGHBORS, LIST_ALL_PATHS, PATH_EXISTS_V, STATS,
+        OPEN_TRANSFER, OPEN_TRANSFER_V, ADOPT, REPLICATE, REPLICA_VERSIONS,
+        WRITE_IF_VERSION, WRITE_IF_VERSION_V, WALK, TREE_SUMMARIES, GOSSIP, PROBE;
+
+        private static final Op[] VALUES = values();
+
+        static Op of(byte code) {
+            return VALUES[code];
+        }
+    }
+
+    private static final byte T_NULL = 0, T_TRUE = 1, T_FALSE = 2, T_INT = 3, T_LONG = 4, T_STRING = 5,
+                              T_BYTES = 6, T_LIST = 7, T_MAP = 8, T_BATCHOP = 9, T_HANDLE = 10,
+                              T_CONTEXT = 11, T_WALKPAGE = 12, T_SUMMARY = 13;
+
+    // Buffer di scrittura che cresce al bisogno; i primi 4 byte sono riservati alla lunghezza
+    static final class Out {
+        private byte[] buf = new byte[256];
+        private int pos = 4;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        Out putByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+            return this;
+        }
+
+        Out putInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+            return this;
+        }
+
+        Out putLong(long v) {
+            putInt((int) (v >>> 32));
+            return putInt((int) v);
+        }
+
+        Out putBytes(byte[] b) {
+            putInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+            return this;
+        }
+
+        Out putString(String s) {
+            return putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Frame pronto per la write: scrive la lunghezza in testa
+        ByteBuffer frame() {
+            int len = pos - 4;
+            buf[0] = (byte) (len >>> 24);
+            buf[1] = (byte) (len >>> 16);
+            buf[2] = (byte) (len >>> 8);
+            buf[3] = (byte) len;
+            return ByteBuffer.wrap(buf, 0, pos);
+        }
+    }
+
+    static ByteBuffer request(long id, Op op, Object[] args) {
+        Out out = new Out().putLong(id).putByte(op.ordinal()).putByte(args.length);
+        for (Object a : args) writeValue(out, a);
+        return out.frame();
+    }
+
+    static ByteBuffer response(long id, byte status, Object value) {
+        Out out = new Out().putLong(id).putByte(status);
+        writeValue(out, value);
+        return out.frame();
+    }
+
+    static Object[] readArgs(ByteBuffer in) {
+        Object[] args = new Object[in.get()];
+        for (int i = 0; i < args.length; i++) args[i] = readValue(in);
+        return args;
+    }
+
+    static void writeValue(Out out, Object v) {
+        if (v == null) {
+            out.putByte(T_NULL);
+        } else if (v instanceof Boolean) {
+            out.putByte((Boolean) v ? T_TRUE : T_FALSE);
+        } else if (v instanceof Integer) {
+            out.putByte(T_INT).putInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.putByte(T_LONG).putLong((Long) v);
+        } else if (v instanceof String) {
+            out.putByte(T_STRING).putString((String) v);
+        } else if (v instanceof byte[]) {
+            out.putByte(T_BYTES).putBytes((byte[]) v);
+        } else if (v instanceof List) {
+            List<?> list = (List<?>) v;
+            out.putByte(T_LIST).putInt(list.size());
+            for (Object o : list) writeValue(out, o);
+        } else if (v instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) v;
+            out.putByte(T_MAP).putInt(map.size());
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                out.putString(e.getKey().toString());
+                writeValue(out, e.getValue());
+            }
+        } else if (v instanceof BatchOp) {
+            BatchOp op = (BatchOp) v;
+            out.putByte(T_BATCHOP).putByte(op.getType().ordinal()).putString(op.getPath());
+            writeValue(out, op.getNewPath());
+            writeValue(out, op.getData());
+            out.putLong(op.getOffset()).putInt(op.getLength());
+        } else if (v instanceof TransferHandle) {
+            TransferHandle h = (TransferHandle) v;
+            out.putByte(T_HANDLE).putString(h.getOwner()).putString(h.getHost()).putInt(h.getPort())
+               .putLong(h.getToken()).putLong(h.getLength());
+        } else if (v instanceof WalkPage) {
+            WalkPage page = (WalkPage) v;
+            out.putByte(T_WALKPAGE).putInt(page.getEntries().size());
+            for (WalkPage.Entry e : page.getEntries()) {
+                out.putString(e.getPath()).putString(e.getType()).putLong(e.getSize()).putLong(e.getModifiedAt());
+            }
+            writeValue(out, page.getCursor());
+        } else if (v instanceof DirSummary) {
+            DirSummary s = (DirSummary) v;
+            out.putByte(T_SUMMARY).putString(s.getPath()).putByte(s.isDirectory() ? 1 : 0)
+               .putLong(s.getHash()).putLong(s.getFiles());
+        } else if (v instanceof RequestContext) {
+            RequestContext ctx = (RequestContext) v;
+            out.putByte(T_CONTEXT).putLong(ctx.getId()).putLong(ctx.getTraceId()).putInt(ctx.getTtl()).putInt(ctx.getHops())
+               .putLong(ctx.remainingMs()).putInt(ctx.getCovered().size());
+            for (String peer : ctx.getCovered()) out.putString(peer);
+        } else {
+            out.putByte(T_STRING).putString(v.toString());
+        }
+    }
+
+    static Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case T_NULL:  return null;
+            case T_TRUE:  return Boolean.TRUE;
+            case T_FALSE: return Boolean.FALSE;
+            case T_INT:   return in.getInt();
+            case T_LONG:  return in.getLong();
+            case T_STRING: return readString(in);
+            case T_BYTES: return readBytes(in);
+            case T_LIST: {
+                int n = in.getInt();
+                List<Object> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) list.add(readValue(in));
+                return list;
+            }
+            case T_MAP: {
+                int n = in.getInt();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) map.put(readString(in), readValue(in));
+                return map;
+            }
+            case T_BATCHOP:
+                return readBatchOp(in);
+            case T_HANDLE:
+                return new TransferHandle(readString(in), readString(in), in.getInt(), in.getLong(), in.getLong());
+            case T_WALKPAGE: {
+                int n = in.getInt();
+                List<WalkPage.Entry> entries = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    entries.add(new WalkPage.Entry(readString(in), readString(in), in.getLong(), in.getLong()));
+                }
+                return new WalkPage(entries, (String) readValue(in));
+            }
+            case T_SUMMARY:
+                return new DirSummary(readString(in), in.get() != 0, in.getLong(), in.getLong());
+            case T_CONTEXT: {
+                long id = in.getLong();
+                long traceId = in.getLong();
+                int ttl = in.getInt();
+                int hops = in.getInt();
+                long budgetMs = in.getLong();
+                int n = in.getInt();
+                List<String> covered = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) covered.add(readString(in));
+                return new RequestContext(id, traceId, ttl, hops, covered, budgetMs);
+            }
+            default:
+                throw new IllegalArgumentException("tag sconosciuto: " + tag);
+        }
+    }
+
+    private static BatchOp readBatchOp(ByteBuffer in) {
+        BatchOp.Type type = BatchOp.Type.values()[in.get()];
+        String path = readString(in);
+        String newPath = (String) readValue(in);
+        byte[] data = (byte[]) readValue(in);
+        long offset = in.getLong();
+        int length = in.getInt();
+        switch (type) {
+            case MKDIR:    return BatchOp.mkdir(path);
+            case MKNOD:    return BatchOp.mknod(path);
+            case WRITE:    return BatchOp.write(path, data);
+            case WRITE_AT: return BatchOp.write(path, offset, data);
+            case APPEND:   return BatchOp.append(path, data);
+            case TRUNCATE: return BatchOp.truncate(path, offset);
+            case READ:     return BatchOp.read(path);
+            case READ_AT:  return BatchOp.read(path, offset, length);
+            case RENAME:   return BatchOp.rename(path, newPath);
+            case GETATTR:  return BatchOp.getattr(path);
+            case READDIR:  return BatchOp.readdir(path);
+            default:       throw new IllegalArgumentException("operazione batch sconosciuta: " + type);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return b;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+}
@@ -0,0 +1,207 @@
+package peer;
+
+import shared.BatchOp;
+import shared.FileSystemInterface;
+import shared.RequestContext;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lato server del protocollo binario tra peer.
+ *
+ * Un thread per connessione legge i frame; ogni richiesta viene eseguita su un
+ * pool a parte, così più richieste sulla stessa connessione procedono in
+ * parallelo e le risposte tornano nell'ordine in cui sono pronte (multiplexing).
+ * Le richieste annidate tra peer possono bloccare un thread a lungo: come per
+ * RMI il pool non ha limite.
+ *
+ * Un frame con lunghezza negativa o oltre MAX_FRAME_BYTES chiude la connessione
+ * prima di allocare il buffer (lo stesso limite vale per le risposte lette dal
+ * client): i file più grandi viaggiano sul canale bulk.
+ */
+public class WireServer {
+    static final int MAX_FRAME_BYTES = Integer.getInteger("ptpvfs.wire.maxFrameBytes", 256 << 20);
+
+    private final FileSystemInterface target;
+    private final int port;
+    private final ExecutorService handlers;
+    private ServerSocketChannel server;
+
+    public WireServer(FileSystemInterface target, int port) {
+        this.target = target;
+        this.port = port;
+        AtomicInteger seq = new AtomicInteger();
+        this.handlers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "wire-" + port + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::acceptLoop, "wire-accept-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void close() {
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        handlers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel ch = server.accept();
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Thread reader = new Thread(() -> serve(ch), "wire-conn-" + ch.getRemoteAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (server.isOpen()) System.err.println("wire accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        Object writeLock = new Object();
+        try (SocketChannel c = ch) {
+            ByteBuffer len = ByteBuffer.allocate(4);
+            while (true) {
+                ByteBuffer frame = readFrame(c, len);
+                handlers.execute(() -> handle(c, writeLock, frame));
+            }
+        } catch (EOFException ignored) {
+            // il client ha chiuso la connessione
+        } catch (Exception e) {
+            System.err.println("wire connection closed: " + e.getMessage());
+        }
+    }
+
+    static ByteBuffer readFrame(SocketChannel ch, ByteBuffer len) throws IOException {
+        len.clear();
+        readFully(ch, len);
+        int size = len.getInt(0);
+        if (size < 0 || size > MAX_FRAME_BYTES) {
+            throw new IOException("frame di " + size + " byte fuori dal limite di " + MAX_FRAME_BYTES);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        readFully(ch, frame);
+        frame.flip();
+        return frame;
+    }
+
+    private static void readFully(SocketChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) throw new EOFException();
+        }
+    }
+
+    // frame completo, con i 4 byte di lunghezza in testa
+    static boolean tooLarge(ByteBuffer frame) {
+        return frame.remaining() - 4 > MAX_FRAME_BYTES;
+    }
+
+    static void writeFrame(SocketChannel ch, Object writeLock, ByteBuffer frame) throws IOException {
+        synchronized (writeLock) {
+            while (frame.hasRemaining()) ch.write(frame);
+        }
+    }
+
+    private void handle(SocketChannel ch, Object writeLock, ByteBuffer frame) {
+        long id = frame.getLong();
+        ByteBuffer response;
+        try {
+            WireCodec.Op op = WireCodec.Op.of(frame.get());
+            Object result = dispatch(op, WireCodec.readArgs(frame));
+            response = WireCodec.response(id, WireCodec.OK, result);
+            // una risposta oltre il limite farebbe chiudere la connessione al client
+            if (tooLarge(response)) {
+                response = WireCodec.response(id, WireCodec.ERROR, "risposta di " + (response.remaining() - 4)
+                                              + " byte oltre ptpvfs.wire.maxFrameBytes");
+            }
+        } catch (Exception e) {
+            response = WireCodec.response(id, WireCodec.ERROR, e.toString());
+        }
+        try {
+            writeFrame(ch, writeLock, response);
+        } catch (IOException e) {
+            System.err.println("wire response failed: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object dispatch(WireCodec.Op op, Object[] a) throws Exception {
+        FileSystemInterface fs = target;
+        switch (op) {
+            case MKDIR:        return fs.mkdir((String) a[0]);
+            case MKNOD:        return fs.mknod((String) a[0]);
+            case SYMLINK:      return fs.symlink((String) a[0], (String) a[1]);
+            case WRITE:        return fs.write((String) a[0], (byte[]) a[1]);
+            case READ:         return fs.read((String) a[0]);
+            case RENAME:       return fs.rename((String) a[0], (String) a[1]);
+            case READDIR:      return fs.readdir((String) a[0]);
+            case GETATTR:      return fs.getattr((String) a[0]);
+            case LOCATE:       return fs.locate((String) a[0]);
+            case READ_AT:      return fs.read((String) a[0], (Long) a[1], (Integer) a[2]);
+            case WRITE_AT:     return fs.write((String) a[0], (Long) a[1], (byte[]) a[2]);
+            case APPEND:       return fs.append((String) a[0], (byte[]) a[1]);
+            case TRUNCATE:     return fs.truncate((String) a[0], (Long) a[1]);
+            case BATCH:        return fs.batch((List<BatchOp>) a[0]);
+            case WRITE_V:      return fs.writeWithVisited((String) a[0], (byte[]) a[1], ctx(a[2]));
+            case READ_V:       return fs.readWithVisited((String) a[0], ctx(a[1]));
+            case RENAME_V:     return fs.renameWithVisited((String) a[0], (String) a[1], ctx(a[2]));
+            case READDIR_V:    return fs.readdirWithVisited((String) a[0], ctx(a[1]));
+            case GETATTR_V:    return fs.getattrWithVisited((String) a[0], ctx(a[1]));
+            case LOCATE_V:     return fs.locateWithVisited((String) a[0], ctx(a[1]));
+            case MKDIR_V:      return fs.mkdirWithVisited((String) a[0], ctx(a[1]));
+            case MKNOD_V:      return fs.mknodWithVisited((String) a[0], ctx(a[1]));
+            case READ_AT_V:    return fs.readWithVisited((String) a[0], (Long) a[1], (Integer) a[2], ctx(a[3]));
+            case WRITE_AT_V:   return fs.writeWithVisited((String) a[0], (Long) a[1], (byte[]) a[2], ctx(a[3]));
+            case APPEND_V:     return fs.appendWithVisited((String) a[0], (byte[]) a[1], ctx(a[2]));
+            case TRUNCATE_V:   return fs.truncateWithVisited((String) a[0], (Long) a[1], ctx(a[2]));
+            case BATCH_V:      return fs.batchWithVisited((List<BatchOp>) a[0], ctx(a[1]));
+            case ADD_NEIGHBOR:
+                fs.addNeighbor((String) a[0], (String) a[1], (Integer) a[2]);
+                return null;
+            case REMOVE_NEIGHBOR:
+                fs.removeNeighbor((String) a[0]);
+                return null;
+            case GET_NEIGHBORS:  return fs.getNeighbors();
+            case LIST_ALL_PATHS: return fs.listAllPaths();
+            case PATH_EXISTS_V:  return fs.pathExistsWithVisited((String) a[0], ctx(a[1]));
+            case STATS:          return fs.stats();
+            case OPEN_TRANSFER:  return fs.openTransfer((String) a[0]);
+            case OPEN_TRANSFER_V: return fs.openTransferWithVisited((String) a[0], ctx(a[1]));
+            case ADOPT:          return fs.adopt((String) a[0], (byte[]) a[1], (Long) a[2], (Long) a[3]);
+            case REPLICATE:      return fs.replicate((BatchOp) a[0], (Long) a[1], (Long) a[2]);
+            case REPLICA_VERSIONS: return fs.replicaVersions((List<String>) a[0]);
+            case WRITE_IF_VERSION: return fs.writeIfVersion((String) a[0], (Long) a[1], (byte[]) a[2]);
+            case WRITE_IF_VERSION_V: return fs.writeIfVersionWithVisited((String) a[0], (Long) a[1], (byte[]) a[2], ctx(a[3]));
+            case WALK: return fs.walk((String) a[0], (String) a[1], (Integer) a[2]);
+            case TREE_SUMMARIES: return fs.treeSummaries((List<String>) a[0]);
+            case GOSSIP: return fs.gossip((List<String>) a[0]);
+            case PROBE: return fs.probe((String) a[0], (List<String>) a[1]);
+            default:
+                throw new IllegalArgumentException("operazione non supportata: " + op);
+        }
+    }
+
+    private static RequestContext ctx(Object o) {
+        return (RequestContext) o;
+    }
+}
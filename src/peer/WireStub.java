@@ -0,0 +1,106 @@
+package peer;
+
+import shared.BatchOp;
+import shared.DirSummary;
+import shared.FileSystemInterface;
+import shared.RequestContext;
+import shared.TransferHandle;
+import shared.WalkPage;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+import peer.WireCodec.Op;
+
+/**
+ * FileSystemInterface di un peer remoto raggiunto con il protocollo binario.
+ *
+ * Si usa al posto dello stub RMI per il traffico tra peer (vedi StubCache);
+ * i client continuano a parlare RMI. close() chiude le connessioni.
+ */
+public class WireStub implements FileSystemInterface {
+    private static final int CONNECTIONS = Integer.getInteger("ptpvfs.wire.connections", 2);
+    private static final long TIMEOUT_MS = Long.getLong("ptpvfs.wire.timeoutMs", 30_000);
+
+    private final WireClient client;
+
+    public WireStub(String host, int port) throws RemoteException {
+        this.client = new WireClient(host, port, CONNECTIONS, TIMEOUT_MS);
+    }
+
+    public void close() {
+        client.close();
+    }
+
+    private boolean bool(Op op, Object... args) throws RemoteException {
+        return (Boolean) client.call(op, args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T value(Op op, Object... args) throws RemoteException {
+        return (T) client.call(op, args);
+    }
+
+    // === FS di base
+    @Override public boolean mkdir(String path) throws RemoteException { return bool(Op.MKDIR, path); }
+    @Override public boolean mknod(String path) throws RemoteException { return bool(Op.MKNOD, path); }
+    @Override public boolean symlink(String target, String linkPath) throws RemoteException { return bool(Op.SYMLINK, target, linkPath); }
+    @Override public boolean write(String path, byte[] content) throws RemoteException { return bool(Op.WRITE, path, content); }
+    @Override public byte[] read(String path) throws RemoteException { return value(Op.READ, path); }
+    @Override public boolean rename(String oldPath, String newPath) throws RemoteException { return bool(Op.RENAME, oldPath, newPath); }
+    @Override public List<String> readdir(String path) throws RemoteException { return value(Op.READDIR, path); }
+    @Override public Map<String, Object> getattr(String path) throws RemoteException { return value(Op.GETATTR, path); }
+    @Override public String locate(String file) throws RemoteException { return value(Op.LOCATE, file); }
+
+    // === I/O a blocchi
+    @Override public byte[] read(String path, long offset, int length) throws RemoteException { return value(Op.READ_AT, path, offset, length); }
+    @Override public boolean write(String path, long offset, byte[] data) throws RemoteException { return bool(Op.WRITE_AT, path, offset, data); }
+    @Override public boolean append(String path, byte[] data) throws RemoteException { return bool(Op.APPEND, path, data); }
+    @Override public boolean truncate(String path, long size) throws RemoteException { return bool(Op.TRUNCATE, path, size); }
+    @Override public long writeIfVersion(String path, long expected, byte[] content) throws RemoteException { return this.<Long>value(Op.WRITE_IF_VERSION, path, expected, content); }
+
+    // === Operazioni composte
+    @Override public List<Object> batch(List<BatchOp> ops) throws RemoteException { return value(Op.BATCH, ops); }
+
+    // === Trasferimento bulk
+    @Override public TransferHandle openTransfer(String path) throws RemoteException { return value(Op.OPEN_TRANSFER, path); }
+
+    // === Placement
+    @Override public boolean adopt(String path, byte[] data, long modifiedAt, long version) throws RemoteException { return bool(Op.ADOPT, path, data, modifiedAt, version); }
+
+    // === Replicazione
+    @Override public boolean replicate(BatchOp op, long modifiedAt, long version) throws RemoteException { return bool(Op.REPLICATE, op, modifiedAt, version); }
+    @Override public Map<String, Long> replicaVersions(List<String> paths) throws RemoteException { return value(Op.REPLICA_VERSIONS, paths); }
+
+    // === Versioni inoltrate tra peer
+    @Override public boolean writeWithVisited(String path, byte[] content, RequestContext ctx) throws RemoteException { return bool(Op.WRITE_V, path, content, ctx); }
+    @Override public byte[] readWithVisited(String path, RequestContext ctx) throws RemoteException { return value(Op.READ_V, path, ctx); }
+    @Override public boolean renameWithVisited(String oldPath, String newPath, RequestContext ctx) throws RemoteException { return bool(Op.RENAME_V, oldPath, newPath, ctx); }
+    @Override public List<String> readdirWithVisited(String path, RequestContext ctx) throws RemoteException { return value(Op.READDIR_V, path, ctx); }
+    @Override public Map<String, Object> getattrWithVisited(String path, RequestContext ctx) throws RemoteException { return value(Op.GETATTR_V, path, ctx); }
+    @Override public String locateWithVisited(String file, RequestContext ctx) throws RemoteException { return value(Op.LOCATE_V, file, ctx); }
+    @Override public boolean mkdirWithVisited(String path, RequestContext ctx) throws RemoteException { return bool(Op.MKDIR_V, path, ctx); }
+    @Override public boolean mknodWithVisited(String path, RequestContext ctx) throws RemoteException { return bool(Op.MKNOD_V, path, ctx); }
+    @Override public byte[] readWithVisited(String path, long offset, int length, RequestContext ctx) throws RemoteException { return value(Op.READ_AT_V, path, offset, length, ctx); }
+    @Override public boolean writeWithVisited(String path, long offset, byte[] data, RequestContext ctx) throws RemoteException { return bool(Op.WRITE_AT_V, path, offset, data, ctx); }
+    @Override public boolean appendWithVisited(String path, byte[] data, RequestContext ctx) throws RemoteException { return bool(Op.APPEND_V, path, data, ctx); }
+    @Override public boolean truncateWithVisited(String path, long size, RequestContext ctx) throws RemoteException { return bool(Op.TRUNCATE_V, path, size, ctx); }
+    @Override public long writeIfVersionWithVisited(String path, long expected, byte[] content, RequestContext ctx) throws RemoteException { return this.<Long>value(Op.WRITE_IF_VERSION_V, path, expected, content, ctx); }
+    @Override public List<Object> batchWithVisited(List<BatchOp> ops, RequestContext ctx) throws RemoteException { return value(Op.BATCH_V, ops, ctx); }
+    @Override public TransferHandle openTransferWithVisited(String path, RequestContext ctx) throws RemoteException { return value(Op.OPEN_TRANSFER_V, path, ctx); }
+
+    // === Membership
+    @Override public void addNeighbor(String name, String host, int port) throws RemoteException { client.call(Op.ADD_NEIGHBOR, name, host, port); }
+    @Override public void removeNeighbor(String name) throws RemoteException { client.call(Op.REMOVE_NEIGHBOR, name); }
+    @Override public List<String> getNeighbors() throws RemoteException { return value(Op.GET_NEIGHBORS); }
+    @Override public List<String> gossip(List<String> updates) throws RemoteException { return value(Op.GOSSIP, updates); }
+    @Override public boolean probe(String target, List<String> updates) throws RemoteException { return bool(Op.PROBE, target, updates); }
+
+    // === Utils
+    @Override public List<String> listAllPaths() throws RemoteException { return value(Op.LIST_ALL_PATHS); }
+    @Override public WalkPage walk(String prefix, String cursor, int limit) throws RemoteException { return value(Op.WALK, prefix, cursor, limit); }
+    @Override public List<DirSummary> treeSummaries(List<String> dirs) throws RemoteException { return value(Op.TREE_SUMMARIES, dirs); }
+    @Override public boolean pathExistsWithVisited(String path, RequestContext ctx) throws RemoteException { return bool(Op.PATH_EXISTS_V, path, ctx); }
+    @Override public Map<String, Object> stats() throws RemoteException { return value(Op.STATS); }
+}
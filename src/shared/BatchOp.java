@@ -0,0 +1,72 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * Singola operazione di una richiesta composta (FileSystemInterface.batch).
+ *
+ * Le operazioni di un batch sono eseguite in ordine; ognuna produce il risultato
+ * che avrebbe la chiamata RMI corrispondente (Boolean, byte[], Map, List).
+ */
+public class BatchOp implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type { MKDIR, MKNOD, WRITE, WRITE_AT, APPEND, TRUNCATE, READ, READ_AT, RENAME, GETATTR, READDIR }
+
+    private final Type type;
+    private final String path;
+    private final String newPath;   // solo RENAME
+    private final byte[] data;
+    private final long offset;      // WRITE_AT, READ_AT; nuova dimensione per TRUNCATE
+    private final int length;       // READ_AT
+
+    private BatchOp(Type type, String path, String newPath, byte[] data, long offset, int length) {
+        this.type = type;
+        this.path = path;
+        this.newPath = newPath;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static BatchOp mkdir(String path) { return new BatchOp(Type.MKDIR, path, null, null, 0, 0); }
+    public static BatchOp mknod(String path) { return new BatchOp(Type.MKNOD, path, null, null, 0, 0); }
+    public static BatchOp write(String path, byte[] data) { return new BatchOp(Type.WRITE, path, null, data, 0, 0); }
+    public static BatchOp write(String path, long offset, byte[] data) { return new BatchOp(Type.WRITE_AT, path, null, data, offset, 0); }
+    public static BatchOp append(String path, byte[] data) { return new BatchOp(Type.APPEND, path, null, data, 0, 0); }
+    public static BatchOp truncate(String path, long size) { return new BatchOp(Type.TRUNCATE, path, null, null, size, 0); }
+    public static BatchOp read(String path) { return new BatchOp(Type.READ, path, null, null, 0, 0); }
+    public static BatchOp read(String path, long offset, int length) { return new BatchOp(Type.READ_AT, path, null, null, offset, length); }
+    public static BatchOp rename(String oldPath, String newPath) { return new BatchOp(Type.RENAME, oldPath, newPath, null, 0, 0); }
+    public static BatchOp getattr(String path) { return new BatchOp(Type.GETATTR, path, null, null, 0, 0); }
+    public static BatchOp readdir(String path) { return new BatchOp(Type.READDIR, path, null, null, 0, 0); }
+
+    public Type getType() { return type; }
+    public String getPath() { return path; }
+    public String getNewPath() { return newPath; }
+    public byte[] getData() { return data; }
+    public long getOffset() { return offset; }
+    public int getLength() { return length; }
+
+    // Le creazioni vanno eseguite dove esiste il padre, le altre dove esiste il path
+    public boolean isCreate() { return type == Type.MKDIR || type == Type.MKNOD; }
+
+    // Risultato di un'operazione fallita, coerente con la chiamata RMI singola
+    public Object failure() {
+        switch (type) {
+            case READ:
+            case READ_AT:
+            case GETATTR:
+                return null;
+            case READDIR:
+                return new java.util.ArrayList<String>();
+            default:
+                return Boolean.FALSE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path + (newPath != null ? " " + newPath : "");
+    }
+}
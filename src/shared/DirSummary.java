@@ -0,0 +1,37 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * Riassunto Merkle di una voce di directory (FileSystemInterface.treeSummaries).
+ *
+ * Per una directory hash riassume tutti i path del sottoalbero e files conta i file
+ * e symlink che contiene; per un file o symlink hash dipende solo dal nome e files
+ * vale 1. Due voci con lo stesso path e lo stesso hash hanno lo stesso contenuto
+ * in termini di path, quindi il confronto tra peer può fermarsi lì.
+ */
+public class DirSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final boolean directory;
+    private final long hash;
+    private final long files;
+
+    public DirSummary(String path, boolean directory, long hash, long files) {
+        this.path = path;
+        this.directory = directory;
+        this.hash = hash;
+        this.files = files;
+    }
+
+    public String getPath() { return path; }
+    public boolean isDirectory() { return directory; }
+    public long getHash() { return hash; }
+    public long getFiles() { return files; }
+
+    @Override
+    public String toString() {
+        return path + (directory ? "/ " : " ") + Long.toHexString(hash) + " (" + files + " file)";
+    }
+}
@@ -17,22 +17,65 @@ public interface FileSystemInterface extends Remote {
     Map<String, Object> getattr(String path) throws RemoteException;
     String locate(String file) throws RemoteException;
 
-    // === Versioni con visited (usate tra peer)
-    boolean writeWithVisited(String path, byte[] content, List<String> visited) throws RemoteException;
-    byte[] readWithVisited(String path, List<String> visited) throws RemoteException;
-    boolean renameWithVisited(String oldPath, String newPath, List<String> visited) throws RemoteException;
-    List<String> readdirWithVisited(String path, List<String> visited) throws RemoteException;
-    Map<String, Object> getattrWithVisited(String path, List<String> visited) throws RemoteException;
-    String locateWithVisited(String file, List<String> visited) throws RemoteException;
-    boolean mkdirWithVisited(String path , List<String> visited) throws RemoteException;
-    boolean mknodWithVisited(String path, List<String> visited) throws RemoteException;
+    // === I/O a blocchi (file grandi senza trasferirli interi)
+    byte[] read(String path, long offset, int length) throws RemoteException;
+    boolean write(String path, long offset, byte[] data) throws RemoteException;
+    boolean append(String path, byte[] data) throws RemoteException;
+    boolean truncate(String path, long size) throws RemoteException;
+
+    // === Scrittura condizionale: riesce solo se la versione del file (getattr "version") è
+    // ancora expected; restituisce la nuova versione, -1 se il file è cambiato o non esiste
+    long writeIfVersion(String path, long expected, byte[] content) throws RemoteException;
+
+    // === Operazioni composte: eseguite in ordine, un risultato per operazione
+    List<Object> batch(List<BatchOp> ops) throws RemoteException;
+
+    // === Trasferimento bulk: il contenuto si scarica dal peer proprietario su un socket dedicato
+    TransferHandle openTransfer(String path) throws RemoteException;
+
+    // === Placement: riceve un file (data) o una directory (data == null) spostato da un altro peer;
+    // la copia locale viene sostituita solo se più vecchia di modifiedAt e ne prende la versione
+    boolean adopt(String path, byte[] data, long modifiedAt, long version) throws RemoteException;
+
+    // === Replicazione: applica una modifica già eseguita dal primario e ne riporta data e versione
+    boolean replicate(BatchOp op, long modifiedAt, long version) throws RemoteException;
+    // Data di modifica delle copie locali dei path (-1 se assenti, -t se rinominati con data t),
+    // per la riparazione in background
+    Map<String, Long> replicaVersions(List<String> paths) throws RemoteException;
+
+    // === Versioni inoltrate tra peer: ctx porta id della richiesta, TTL e peer già coperti
+    boolean writeWithVisited(String path, byte[] content, RequestContext ctx) throws RemoteException;
+    byte[] readWithVisited(String path, RequestContext ctx) throws RemoteException;
+    boolean renameWithVisited(String oldPath, String newPath, RequestContext ctx) throws RemoteException;
+    List<String> readdirWithVisited(String path, RequestContext ctx) throws RemoteException;
+    Map<String, Object> getattrWithVisited(String path, RequestContext ctx) throws RemoteException;
+    String locateWithVisited(String file, RequestContext ctx) throws RemoteException;
+    boolean mkdirWithVisited(String path, RequestContext ctx) throws RemoteException;
+    boolean mknodWithVisited(String path, RequestContext ctx) throws RemoteException;
+    byte[] readWithVisited(String path, long offset, int length, RequestContext ctx) throws RemoteException;
+    boolean writeWithVisited(String path, long offset, byte[] data, RequestContext ctx) throws RemoteException;
+    boolean appendWithVisited(String path, byte[] data, RequestContext ctx) throws RemoteException;
+    boolean truncateWithVisited(String path, long size, RequestContext ctx) throws RemoteException;
+    long writeIfVersionWithVisited(String path, long expected, byte[] content, RequestContext ctx) throws RemoteException;
+    List<Object> batchWithVisited(List<BatchOp> ops, RequestContext ctx) throws RemoteException;
+    TransferHandle openTransferWithVisited(String path, RequestContext ctx) throws RemoteException;
     // === Membership
     void addNeighbor(String name, String host, int port) throws RemoteException;
     void removeNeighbor(String name) throws RemoteException;
     List<String> getNeighbors() throws RemoteException;
+    // Gossip (SWIM): ping con aggiornamenti di membership ("nome:host:porta:STATO:incarnazione"),
+    // la risposta porta quelli del destinatario; probe chiede di sondare target per conto del chiamante
+    List<String> gossip(List<String> updates) throws RemoteException;
+    boolean probe(String target, List<String> updates) throws RemoteException;
 
     // === Utils
     List<String> listAllPaths() throws RemoteException;
-    boolean pathExistsWithVisited(String path, java.util.List<String> visited) throws java.rmi.RemoteException;
+    // Visita ricorsiva dei path locali che iniziano con prefix, a pagine di al più limit voci:
+    // cursor è null alla prima chiamata, poi il getCursor() della pagina precedente
+    WalkPage walk(String prefix, String cursor, int limit) throws RemoteException;
+    // Riassunti Merkle delle voci delle directory indicate, per il controllo di integrità al join
+    List<DirSummary> treeSummaries(List<String> dirs) throws RemoteException;
+    boolean pathExistsWithVisited(String path, RequestContext ctx) throws RemoteException;
+    Map<String, Object> stats() throws RemoteException;
 
 }
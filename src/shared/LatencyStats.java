@@ -0,0 +1,76 @@
+package shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma concorrente di durate in nanosecondi.
+ *
+ * I bucket sono log-lineari: 8 sotto-bucket per ogni potenza di 2, quindi un
+ * percentile è approssimato per eccesso di al più il 12,5%. La registrazione è
+ * senza lock e costa un paio di incrementi atomici, così si può lasciare attiva
+ * sui percorsi caldi (operazioni RPC, attese sui lock del file system).
+ */
+public class LatencyStats {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // Limite superiore dei valori che cadono nel bucket i
+    private static long upper(int i) {
+        if (i < SUB) return i;
+        int exp = i / SUB + SUB_BITS - 1;
+        long base = 1L << exp;
+        return base + ((i % SUB) + 1) * (base >>> SUB_BITS) - 1;
+    }
+
+    public long getCount() { return count.sum(); }
+    public long getSumNanos() { return sum.sum(); }
+    public long getMaxNanos() { return max.get(); }
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // q in [0,1]; 0 se non ci sono campioni
+    public long percentile(double q) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(upper(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Riassunto in microsecondi, per le uscite testuali
+    public String summary() {
+        return String.format("count=%d avg=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                             getCount(), getMeanNanos() / 1000, percentile(0.50) / 1000.0,
+                             percentile(0.99) / 1000.0, getMaxNanos() / 1000.0);
+    }
+}
@@ -0,0 +1,121 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stato di inoltro di una richiesta tra peer (sostituisce la lista visited).
+ *
+ * - id: identifica la richiesta; ogni peer la elabora una sola volta e scarta i duplicati
+ * - traceId: comune a tutte le richieste nate da una stessa operazione del client, anche
+ *   alle sotto-richieste con un nuovo id; lega tra loro le tracce registrate dai peer
+ * - ttl: hop ancora consentiti; a zero il peer risponde solo con i dati locali
+ * - hops: hop già percorsi
+ * - covered: peer già contattati (o in via di contatto) da chi ha inoltrato la richiesta,
+ *   che quindi non vanno interrogati di nuovo. Con la full mesh il primo peer copre
+ *   tutti gli altri e il numero di messaggi per richiesta resta lineare.
+ * - budgetMs: tempo rimasto alla richiesta quando il contesto è stato creato o ricevuto.
+ *   Ogni peer lo misura con il proprio orologio dall'arrivo (niente orari assoluti tra
+ *   macchine diverse) e limita a quanto resta l'attesa delle chiamate che inoltra;
+ *   scaduto il tempo la richiesta non viene più inoltrata.
+ *
+ * Il contesto è immutabile: next() ne crea uno nuovo per l'hop successivo, una sola
+ * volta per inoltro e non per vicino.
+ */
+public final class RequestContext implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_TTL = Integer.getInteger("ptpvfs.request.ttl", 16);
+    public static final long DEFAULT_DEADLINE_MS = Long.getLong("ptpvfs.request.deadlineMs", 10_000);
+
+    private final long id;
+    private final long traceId;
+    private final int ttl;
+    private final int hops;
+    private final Set<String> covered;
+    private final long budgetMs;
+    private transient long receivedAt;   // System.nanoTime() locale, 0 finché non serve
+
+    public RequestContext(long id, long traceId, int ttl, int hops, Collection<String> covered, long budgetMs) {
+        this(id, traceId, ttl, hops, Collections.unmodifiableSet(new HashSet<>(covered)), budgetMs);
+    }
+
+    private RequestContext(long id, long traceId, int ttl, int hops, Set<String> covered, long budgetMs) {
+        this.id = id;
+        this.traceId = traceId;
+        this.ttl = ttl;
+        this.hops = hops;
+        this.covered = covered;
+        this.budgetMs = budgetMs;
+        this.receivedAt = System.nanoTime();
+    }
+
+    // Nuova richiesta originata da questo processo
+    public static RequestContext create() {
+        long id = newId();
+        return new RequestContext(id, id, DEFAULT_TTL, 0, Collections.<String>emptySet(), DEFAULT_DEADLINE_MS);
+    }
+
+    // Sotto-richiesta con un nuovo id (es. la locate di un route, le operazioni di un batch):
+    // i peer che hanno già visto la richiesta originale la elaborano comunque
+    public RequestContext fork() {
+        return new RequestContext(newId(), traceId, ttl, hops, covered, remainingMs());
+    }
+
+    // Richiesta nuova a tutti gli effetti (TTL, scadenza e peer coperti ripartono) ma nella
+    // stessa traccia (es. il controllo di esistenza prima di una mkdir)
+    public RequestContext restart() {
+        return new RequestContext(newId(), traceId, DEFAULT_TTL, 0, Collections.<String>emptySet(), DEFAULT_DEADLINE_MS);
+    }
+
+    // Contesto da inviare ai peer in targets: self e targets diventano coperti
+    public RequestContext next(String self, Collection<String> targets) {
+        Set<String> c = new HashSet<>(covered.size() + targets.size() + 1);
+        c.addAll(covered);
+        c.add(self);
+        c.addAll(targets);
+        return new RequestContext(id, traceId, ttl - 1, hops + 1, Collections.unmodifiableSet(c), remainingMs());
+    }
+
+    // Sotto-richiesta per il solo target, che risponde con i dati locali senza inoltrarla
+    // (es. la lettura da una replica: se la copia manca si prova altrove)
+    public RequestContext direct(String self, String target) {
+        Set<String> c = new HashSet<>(covered);
+        c.add(self);
+        c.add(target);
+        return new RequestContext(newId(), traceId, 0, hops + 1, Collections.unmodifiableSet(c), remainingMs());
+    }
+
+    public boolean canForward() {
+        return ttl > 0 && remainingMs() > 0;
+    }
+
+    // Millisecondi rimasti prima della scadenza, contati da quando il contesto è arrivato qui
+    public long remainingMs() {
+        if (receivedAt == 0) receivedAt = System.nanoTime();   // arrivato deserializzato da RMI
+        return budgetMs - (System.nanoTime() - receivedAt) / 1_000_000;
+    }
+
+    public boolean covers(String peer) {
+        return covered.contains(peer);
+    }
+
+    public long getId() { return id; }
+    public long getTraceId() { return traceId; }
+    public int getTtl() { return ttl; }
+    public int getHops() { return hops; }
+    public Set<String> getCovered() { return covered; }
+
+    private static long newId() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", id) + " (trace " + String.format("%016x", traceId) + ", ttl " + ttl + ", hop " + hops + ", " + remainingMs() + " ms)";
+    }
+}
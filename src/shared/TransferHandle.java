@@ -0,0 +1,39 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * Riferimento a un trasferimento bulk preparato da un peer (FileSystemInterface.openTransfer).
+ *
+ * Il contenuto non viaggia nella risposta RMI: il client si collega a host:port,
+ * invia il token e riceve length byte, serviti dal peer proprietario direttamente
+ * dal disco. Il token vale per una sola connessione e scade dopo poco.
+ */
+public class TransferHandle implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String owner;
+    private final String host;
+    private final int port;
+    private final long token;
+    private final long length;
+
+    public TransferHandle(String owner, String host, int port, long token, long length) {
+        this.owner = owner;
+        this.host = host;
+        this.port = port;
+        this.token = token;
+        this.length = length;
+    }
+
+    public String getOwner() { return owner; }
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public long getToken() { return token; }
+    public long getLength() { return length; }
+
+    @Override
+    public String toString() {
+        return owner + "@" + host + ":" + port + " (" + length + " byte)";
+    }
+}
@@ -0,0 +1,56 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pagina di una visita ricorsiva dei path di un peer (FileSystemInterface.walk).
+ *
+ * Le voci sono in ordine di visita (prima la directory, poi il suo contenuto, i
+ * fratelli in ordine di nome). getCursor() è l'ultimo path restituito, da passare
+ * alla chiamata successiva per avere la pagina seguente; null quando la visita è
+ * finita. Il cursore resta valido anche se nel frattempo l'albero cambia: si
+ * riparte dal primo path che lo segue nell'ordine di visita.
+ */
+public class WalkPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final String type;        // come getattr: DirectoryNode, FileNode, SymlinkNode
+        private final long size;          // 0 per directory e symlink
+        private final long modifiedAt;
+
+        public Entry(String path, String type, long size, long modifiedAt) {
+            this.path = path;
+            this.type = type;
+            this.size = size;
+            this.modifiedAt = modifiedAt;
+        }
+
+        public String getPath() { return path; }
+        public String getType() { return type; }
+        public long getSize() { return size; }
+        public long getModifiedAt() { return modifiedAt; }
+        public boolean isDirectory() { return "DirectoryNode".equals(type); }
+
+        @Override
+        public String toString() {
+            return path + " " + type + " " + size + " " + modifiedAt;
+        }
+    }
+
+    private final List<Entry> entries;
+    private final String cursor;
+
+    public WalkPage(List<Entry> entries, String cursor) {
+        this.entries = entries;
+        this.cursor = cursor;
+    }
+
+    public List<Entry> getEntries() { return entries; }
+    public String getCursor() { return cursor; }
+    public boolean isLast() { return cursor == null; }
+}
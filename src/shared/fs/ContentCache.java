@@ -0,0 +1,83 @@
+package shared.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache LRU del contenuto dei file residenti, con budget in byte.
+ *
+ * Quando il budget è superato si rilascia il contenuto dei file usati meno di
+ * recente; i file aperti (Node.isOpen) e quelli con record del journal non ancora
+ * applicati (FileNode.isDirty) sono pinnati e non vengono mai rilasciati.
+ * Un file rilasciato viene ricaricato dalla copia write-through su disco al
+ * prossimo accesso, quindi la cache ha senso solo su un FileSystem montato.
+ */
+class ContentCache {
+    private long budget;
+    private long residentBytes;
+    // nodo → byte addebitati; in ordine di accesso (il meno recente per primo)
+    private final LinkedHashMap<FileNode, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ContentCache(long budget) {
+        this.budget = budget;
+    }
+
+    void hit(FileNode f) {
+        hits.incrementAndGet();
+        synchronized (this) {
+            lru.get(f);   // aggiorna l'ordine LRU
+        }
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    // Riallinea i byte addebitati a f dopo un caricamento o una scrittura
+    synchronized void charge(FileNode f) {
+        long bytes = f.residentBytes();
+        Long old = bytes > 0 ? lru.put(f, bytes) : lru.remove(f);
+        residentBytes += bytes - (old == null ? 0 : old);
+        evictOverBudget(f);
+    }
+
+    synchronized void forget(FileNode f) {
+        Long old = lru.remove(f);
+        if (old != null) residentBytes -= old;
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evictOverBudget(null);
+    }
+
+    private void evictOverBudget(FileNode keep) {
+        Iterator<Map.Entry<FileNode, Long>> it = lru.entrySet().iterator();
+        while (residentBytes > budget && it.hasNext()) {
+            Map.Entry<FileNode, Long> e = it.next();
+            FileNode f = e.getKey();
+            if (f == keep || !f.evictIfClean()) continue;   // appena usato o pinnato
+            residentBytes -= e.getValue();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    long getHits() { return hits.get(); }
+    long getMisses() { return misses.get(); }
+    long getEvictions() { return evictions.get(); }
+    synchronized long getResidentBytes() { return residentBytes; }
+    synchronized long getBudget() { return budget; }
+
+    double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+}
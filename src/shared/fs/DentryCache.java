@@ -0,0 +1,64 @@
+package shared.fs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache path → nodo risolto, invalidata per generazione.
+ *
+ * Ogni voce ricorda la generazione dell'albero in cui è stata calcolata; rename
+ * e remove incrementano la generazione dopo aver modificato l'albero, rendendo
+ * obsolete tutte le voci precedenti in O(1). Si memorizzano solo risoluzioni
+ * riuscite: una creazione non può invalidare nulla.
+ */
+class DentryCache {
+    private static final int LIMIT = 65536;
+
+    private static final class Entry {
+        final Node node;
+        final long generation;
+
+        Entry(Node node, long generation) {
+            this.node = node;
+            this.generation = generation;
+        }
+    }
+
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentHashMap<String, Entry> followed = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> unfollowed = new ConcurrentHashMap<>();
+
+    // LongAdder: contatori aggiornati a ogni resolve da tutti i core
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Generazione corrente: va letta prima di risolvere il path da memorizzare
+    long generation() {
+        return generation.get();
+    }
+
+    Node get(String path, boolean resolveSymlink) {
+        Entry e = (resolveSymlink ? followed : unfollowed).get(path);
+        if (e != null && e.generation == generation.get()) {
+            hits.increment();
+            return e.node;
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(String path, boolean resolveSymlink, Node node, long gen) {
+        ConcurrentHashMap<String, Entry> map = resolveSymlink ? followed : unfollowed;
+        if (map.size() >= LIMIT) map.clear();
+        map.put(path, new Entry(node, gen));
+    }
+
+    // Da chiamare dopo ogni mutazione che può cambiare il nodo di un path esistente
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    long getHits() { return hits.sum(); }
+    long getMisses() { return misses.sum(); }
+}
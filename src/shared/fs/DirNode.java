@@ -1,10 +1,18 @@
 package shared.fs;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.io.Serializable;
 
 class DirectoryNode extends Node implements Serializable{
-    Map<String, Node> children = new HashMap<>();
+    // Ordinata e concorrente: letture e readdir senza lock anche durante le mutazioni
+    ConcurrentNavigableMap<String, Node> children = new ConcurrentSkipListMap<>();
+
+    // Riassunto Merkle del sottoalbero: somma degli hash delle voci (nome, tipo e, per le
+    // sottodirectory, il loro riassunto) e numero di voci non directory che contiene.
+    // Due directory con lo stesso hash contengono gli stessi path. Aggiornati con treeLock
+    // in scrittura da account(), in O(profondità) per modifica.
+    volatile long treeHash;
+    volatile long treeFiles;
 
     public DirectoryNode(String name){
 	super(name);
@@ -17,5 +25,54 @@ class DirectoryNode extends Node implements Serializable{
 	return children.isEmpty();
     }
 
+    // Aggiunge (sign = 1) o toglie (sign = -1) il contributo della voce name → child e
+    // propaga la variazione agli antenati
+    void account(String name, Node child, int sign) {
+	long delta = sign * entryHash(name, child);
+	long files = sign * filesOf(child);
+	for (DirectoryNode d = this; ; ) {
+	    DirectoryNode up = d.parent;
+	    long before = up != null ? entryHash(d.name, d) : 0;
+	    d.treeHash += delta;
+	    d.treeFiles += files;
+	    if (up == null) return;
+	    delta = entryHash(d.name, d) - before;
+	    d = up;
+	}
+    }
+
+    // Riassunto calcolato da zero dai figli (costruzione al mount)
+    void summarize() {
+	long hash = 0, files = 0;
+	for (java.util.Map.Entry<String, Node> e : children.entrySet()) {
+	    hash += entryHash(e.getKey(), e.getValue());
+	    files += filesOf(e.getValue());
+	}
+	treeHash = hash;
+	treeFiles = files;
+    }
+
+    static long entryHash(String name, Node child) {
+	long h = 0xcbf29ce484222325L;   // FNV-1a del nome
+	for (int i = 0; i < name.length(); i++) {
+	    h ^= name.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	long kind = child instanceof DirectoryNode ? mix(((DirectoryNode) child).treeHash) + 1
+	          : child instanceof SymlinkNode ? 2 : 3;
+	return mix(h ^ mix(kind));
+    }
+
+    static long filesOf(Node child) {
+	return child instanceof DirectoryNode ? ((DirectoryNode) child).treeFiles : 1;
+    }
+
+    // Finalizzatore di splitmix64
+    private static long mix(long z) {
+	z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+	z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+	return z ^ (z >>> 31);
+    }
+
 
 }
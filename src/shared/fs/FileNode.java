@@ -1,28 +1,132 @@
 package shared.fs;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.HashSet;
 import java.io.Serializable;
 
+/**
+ * Il contenuto può non essere residente (data == null): in quel caso vive solo
+ * nella copia write-through su disco e size resta l'unico dato in memoria.
+ * Gli accessi a data sono sincronizzati sul nodo perché la ContentCache può
+ * rilasciarlo in qualsiasi momento.
+ */
 class FileNode extends Node implements Serializable{
-    byte[] data;
+    // Massima dimensione di un array Java
+    static final int MAX_IN_MEMORY = Integer.MAX_VALUE - 8;
+
+    byte[] data; // null se il contenuto non è residente e va letto dal disco
+    long size; // byte validi in data: la capacità può essere maggiore (append)
+    // data è visibile anche fuori dal nodo (restituito da read o ricevuto da write/load):
+    // le modifiche in place devono prima copiarlo, perché chi lo tiene ha un'istantanea
+    private boolean shared;
 
     Set<FileNode> hardLinks = new HashSet<>();
 
+    private int pendingRecords; // record del journal non ancora applicati al disco
+
     public FileNode(String name){
 	super(name);
 	this.data = new byte[0];
+	this.size = 0;
 	hardLinks.add(this);
     }
 
+    // Nodo creato dal mount lazy: solo metadati, contenuto su disco
+    static FileNode onDisk(String name, long size, long modifiedAt){
+	FileNode f = new FileNode(name);
+	f.data = null;
+	f.size = size;
+	f.modifiedAt = modifiedAt;
+	return f;
+    }
+
     boolean isDirectory(){ return false; }
     boolean isSymlink() { return false; }
 
-    void write(byte [] content){
+    synchronized boolean isResident(){ return data != null; }
+
+    // Byte di heap occupati dal contenuto (capacità del buffer)
+    synchronized long residentBytes(){ return data == null ? 0 : data.length; }
+
+    synchronized void write(byte [] content){
 	this.data = content;
-	this.modifiedAt = System.currentTimeMillis();
+	this.size = content.length;
+	this.shared = true;
+	touch();
     }
 
-    byte [] read() {
+    // Contenuto completo, null se non residente
+    synchronized byte [] read() {
+	if (data == null) return null;
+	if (size != data.length) return Arrays.copyOf(data, (int) size);
+	shared = true;
 	return this.data;
     }
+
+    // Legge al più length byte a partire da offset (vuoto oltre la fine), null se non residente
+    synchronized byte [] read(long offset, int length) {
+	if (data == null) return null;
+	if (offset >= size || length <= 0) return new byte[0];
+	int from = (int) offset;
+	int to = (int) Math.min(size, offset + length);
+	return Arrays.copyOfRange(data, from, to);
+    }
+
+    // Scrive bytes a partire da offset; un buco oltre la fine viene riempito di zeri.
+    // Se il contenuto non è residente (o non ci sta in un array) si aggiornano solo i metadati.
+    synchronized void write(long offset, byte [] bytes) {
+	long end = offset + bytes.length;
+	if (data != null && end > MAX_IN_MEMORY) data = null;
+	if (data != null) {
+	    ensureWritable(end);
+	    System.arraycopy(bytes, 0, data, (int) offset, bytes.length);
+	}
+	if (end > size) size = end;
+	touch();
+    }
+
+    synchronized void truncate(long newSize) {
+	if (data != null && newSize > MAX_IN_MEMORY) data = null;
+	if (data != null) {
+	    if (newSize < size) {
+		ensureWritable(newSize);
+		Arrays.fill(data, (int) newSize, (int) size, (byte) 0);
+	    } else {
+		ensureWritable(newSize);
+	    }
+	}
+	size = newSize;
+	touch();
+    }
+
+    // Installa il contenuto letto dal disco, se nel frattempo nessuno l'ha già fatto
+    synchronized byte [] load(byte [] bytes) {
+	if (data == null) {
+	    data = bytes;
+	    size = bytes.length;
+	    shared = true;
+	}
+	return read();
+    }
+
+    // Rilascia il contenuto se la copia su disco è aggiornata e il file non è aperto
+    synchronized boolean evictIfClean() {
+	if (isOpen || pendingRecords > 0) return false;
+	data = null;
+	return true;
+    }
+
+    // Modalità write-behind: un file con record in coda non può essere rilasciato
+    synchronized void pin() { pendingRecords++; }
+    synchronized void unpin() { pendingRecords--; }
+    synchronized boolean isDirty() { return pendingRecords > 0; }
+
+    // Prepara data a una modifica in place: lo copia se è condiviso e lo allarga a needed
+    private void ensureWritable(long needed) {
+	if (!shared && needed <= data.length) return;
+	long grown = needed <= data.length ? data.length
+	    : Math.max(needed, Math.min((long) data.length * 2, MAX_IN_MEMORY));
+	data = Arrays.copyOf(data, (int) grown);
+	shared = false;
+    }
 }
@@ -1,19 +1,34 @@
 package shared.fs;
 
+import shared.LatencyStats;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileSystem {
     private DirectoryNode root;
@@ -22,8 +37,45 @@ public class FileSystem {
     private Path mountedRoot;                  // root reale montata
     private final boolean writeThrough = true;
 
-    // Lock per path (già presente per read/write)
-    private final Map<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+    // Write-behind: se attivo le mutazioni vanno nel journal e il disco viene
+    // aggiornato in background (null → write-through sincrono)
+    private volatile Journal journal;
+    private int journalReplayed;
+
+    // Come MAXSYMLINKS di Linux: symlink attraversabili in una sola risoluzione
+    private static final int MAX_SYMLINKS = 40;
+
+    // Cache path → nodo e conteggio dei path scartati per ciclo di symlink
+    private final DentryCache dentries = new DentryCache();
+    private final LongAdder symlinkLoops = new LongAdder();
+
+    // Contenuto residente dei file: illimitato finché non si imposta un budget
+    private final ContentCache cache = new ContentCache(Long.MAX_VALUE);
+
+    // Statistiche del mount
+    private boolean lazy;
+    private long nodeCount;
+    private long mountMillis;
+
+    // Concorrenza:
+    //  - le directory usano mappe concorrenti, quindi resolve/readdir/getattr/lookup
+    //    non prendono lock e vedono sempre uno stato coerente di ogni directory;
+    //  - treeLock serializza le mutazioni della struttura (create, rename, remove,
+    //    link) che lo prendono in scrittura; le operazioni sul contenuto lo prendono
+    //    in lettura perché il path su disco non cambi sotto di loro;
+    //  - il contenuto dei file è protetto da un lock a strisce per path, preso
+    //    sempre dopo treeLock in lettura: file diversi si leggono e scrivono in parallelo;
+    //  - in write-through le modifiche della struttura toccano il disco fuori da
+    //    treeLock: structureLock le tiene in fila e i path che stanno cambiando restano
+    //    in changing, dove l'I/O sul contenuto sotto quei path li attende.
+    private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock();
+    private final ReentrantLock structureLock = new ReentrantLock();
+    private final Set<String> changing = new HashSet<>();   // protetto dal suo monitor
+    private volatile int changingCount;
+    private final LockStripes stripes = new LockStripes(64);
+    // Attese sui lock contesi; le acquisizioni immediate non vengono misurate
+    private final LatencyStats treeLockWaits = new LatencyStats();
+    private final LatencyStats pathLockWaits = new LatencyStats();
 
     public FileSystem() {
         root = new DirectoryNode("/");
@@ -31,24 +83,46 @@ public class FileSystem {
     }
 
     private ReentrantReadWriteLock getLock(String path) {
-        return locks.computeIfAbsent(path, p -> new ReentrantReadWriteLock());
+        return stripes.forPath(path);
     }
 
-    private String[] tokenize(String path) {
-        return Arrays.stream(path.split("/")).filter(p -> !p.isEmpty()).toArray(String[]::new);
+    // Prende il lock misurando l'attesa. Il tentativo senza attesa si fa solo se nessuno è
+    // in coda, altrimenti i lettori scavalcherebbero all'infinito uno scrittore in attesa.
+    private static void acquire(ReentrantReadWriteLock rw, boolean write, LatencyStats waits) {
+        Lock lock = write ? rw.writeLock() : rw.readLock();
+        if (!rw.hasQueuedThreads() && lock.tryLock()) return;
+        long t0 = System.nanoTime();
+        lock.lock();
+        waits.record(System.nanoTime() - t0);
     }
 
     private Node resolve(String path, boolean resolveSymlink) {
-        if (path.equals("/")) return root;
-        String[] parts = tokenize(path);
-        Node curr = root;
+        Node cached = dentries.get(path, resolveSymlink);
+        if (cached != null) return cached;
+
+        long gen = dentries.generation();   // letta prima della visita
+        ParsedPath pp = ParsedPath.of(path);
+        Node node = resolve(pp, pp.depth(), resolveSymlink, 0);
+        if (node != null) dentries.put(path, resolveSymlink, node, gen);
+        return node;
+    }
 
-        for (String part : parts) {
+    // Risolve i primi depth componenti di pp: nessuna allocazione sul percorso caldo.
+    // links conta i symlink già attraversati: oltre MAX_SYMLINKS il path non si risolve (ELOOP).
+    private Node resolve(ParsedPath pp, int depth, boolean resolveSymlink, int links) {
+        Node curr = root;
+        for (int i = 0; i < depth; i++) {
             if (!(curr instanceof DirectoryNode)) return null;
-            curr = ((DirectoryNode) curr).children.get(part);
+            curr = ((DirectoryNode) curr).children.get(pp.part(i));
             if (curr == null) return null;
             if (resolveSymlink && curr instanceof SymlinkNode) {
-                curr = resolve(((SymlinkNode) curr).targetPath, true);
+                if (++links > MAX_SYMLINKS) {
+                    symlinkLoops.increment();
+                    return null;
+                }
+                ParsedPath target = ParsedPath.of(((SymlinkNode) curr).targetPath);
+                curr = resolve(target, target.depth(), true, links);
+                if (curr == null) return null;
             }
         }
         return curr;
@@ -59,11 +133,15 @@ public class FileSystem {
         if (mountedRoot == null) {
             throw new IllegalStateException("FileSystem non montato su una root reale");
         }
+        return realPath(mountedRoot, vpath);
+    }
+
+    static Path realPath(Path mountedRoot, String vpath) {
         if (vpath == null || vpath.isEmpty() || "/".equals(vpath)) return mountedRoot;
 
-        String[] parts = tokenize(vpath);
+        ParsedPath pp = ParsedPath.of(vpath);
         Path p = mountedRoot;
-        for (String part : parts) p = p.resolve(part);
+        for (int i = 0; i < pp.depth(); i++) p = p.resolve(pp.part(i));
         p = p.normalize();
 
         if (!p.startsWith(mountedRoot)) {
@@ -85,136 +163,335 @@ public class FileSystem {
     }
 
     public boolean link(String existingPath, String newPath) {
-        Node target = resolve(existingPath, false);
-        if (!(target instanceof FileNode)) return false;
+        structureLock.lock();
+        acquire(treeLock, true, treeLockWaits);
+        try {
+            Node target = resolve(existingPath, false);
+            if (!(target instanceof FileNode)) return false;
 
-        String[] parts = tokenize(newPath);
-        String name = parts[parts.length - 1];
-        DirectoryNode parent = (DirectoryNode) resolveParent(newPath);
+            String name = ParsedPath.of(newPath).name();
+            DirectoryNode parent = parentOf(newPath);
 
-        if (parent != null && !parent.children.containsKey(name)) {
-            parent.children.put(name, target);
-            ((FileNode) target).hardLinks.add((FileNode) target);
-            // NB: hard link su disco reale non implementato (dipende da FS/OS)
-            return true;
+            if (parent != null && !parent.children.containsKey(name)) {
+                parent.children.put(name, target);
+                parent.account(name, target, 1);
+                parent.bumpVersion();
+                ((FileNode) target).hardLinks.add((FileNode) target);
+                // NB: hard link su disco reale non implementato (dipende da FS/OS)
+                return true;
+            }
+            return false;
+        } finally {
+            treeLock.writeLock().unlock();
+            structureLock.unlock();
         }
-        return false;
     }
 
     public boolean rename(String oldPath, String newPath) {
+        return changeTree(() -> canRename(oldPath, newPath),
+                          () -> renameInTree(oldPath, newPath),
+                          () -> {
+                              Path oldReal = realPath(oldPath);
+                              Path newReal = realPath(newPath);
+                              if (newReal.getParent() != null) Files.createDirectories(newReal.getParent());
+                              Files.move(oldReal, newReal,
+                                      StandardCopyOption.REPLACE_EXISTING,
+                                      StandardCopyOption.ATOMIC_MOVE);
+                          },
+                          "rename write-through failed", Journal.RENAME, oldPath, newPath);
+    }
+
+    // Chiamato con treeLock in scrittura
+    private boolean canRename(String oldPath, String newPath) {
         Node node = resolve(oldPath, false);
-        DirectoryNode oldParent = (DirectoryNode) resolveParent(oldPath);
-        DirectoryNode newParent = (DirectoryNode) resolveParent(newPath);
+        DirectoryNode oldParent = parentOf(oldPath);
+        DirectoryNode newParent = parentOf(newPath);
         if (node == null || oldParent == null || newParent == null) return false;
 
-        String oldName = tokenize(oldPath)[tokenize(oldPath).length - 1];
-        String newName = tokenize(newPath)[tokenize(newPath).length - 1];
+        // una directory non può finire dentro se stessa
+        for (Node p = newParent; p != null; p = p.parent) {
+            if (p == node) return false;
+        }
 
-        // write-through su disco
-        if (writeThrough && mountedRoot != null) {
-            try {
-                Path oldReal = realPath(oldPath);
-                Path newReal = realPath(newPath);
-                if (newReal.getParent() != null) Files.createDirectories(newReal.getParent());
-                Files.move(oldReal, newReal,
-                        StandardCopyOption.REPLACE_EXISTING,
-                        StandardCopyOption.ATOMIC_MOVE);
-            } catch (IOException e) {
-                System.err.println("rename write-through failed: " + e.getMessage());
+        // stesse regole di rename(2): in write-behind il disco viene aggiornato dopo,
+        // quindi l'albero in memoria non può accettare ciò che il disco rifiuterebbe
+        Node existing = newParent.children.get(ParsedPath.of(newPath).name());
+        if (existing != null && existing != node) {
+            if (existing instanceof DirectoryNode) {
+                if (!(node instanceof DirectoryNode) || !((DirectoryNode) existing).isEmpty()) return false;
+            } else if (node instanceof DirectoryNode) {
                 return false;
             }
         }
+        return true;
+    }
 
-        // aggiornamento in memoria
-        oldParent.children.remove(oldName);
+    // Chiamato con treeLock in scrittura, dopo canRename
+    private void renameInTree(String oldPath, String newPath) {
+        Node node = resolve(oldPath, false);
+        DirectoryNode oldParent = parentOf(oldPath);
+        DirectoryNode newParent = parentOf(newPath);
+        String oldName = ParsedPath.of(oldPath).name();
+        String newName = ParsedPath.of(newPath).name();
+
+        // prima si inserisce il nuovo nome e poi si toglie il vecchio, così un lettore
+        // concorrente non vede mai sparire il nodo
+        if (oldParent == newParent && oldName.equals(newName)) return;
+        oldParent.account(oldName, node, -1);
         node.name = newName;
-        newParent.children.put(newName, node);
         node.parent = newParent;
-        return true;
+        Node replaced = newParent.children.put(newName, node);
+        if (replaced != null && replaced != node) newParent.account(newName, replaced, -1);
+        if (replaced instanceof FileNode && replaced != node) cache.forget((FileNode) replaced);
+        oldParent.children.remove(oldName, node);
+        newParent.account(newName, node, 1);
+        newParent.bumpVersion();
+        oldParent.bumpVersion();
+        dentries.invalidate();
     }
 
     public boolean rmdir(String path) {
-        Node node = resolve(path, false);
-        if (!(node instanceof DirectoryNode) || !((DirectoryNode) node).isEmpty()) return false;
-        return removeNode(path);
+        return removeNode(path, node -> node instanceof DirectoryNode && ((DirectoryNode) node).isEmpty());
+    }
+
+    // Rimuove un file o un symlink
+    public boolean unlink(String path) {
+        return removeNode(path, node -> !(node instanceof DirectoryNode));
+    }
+
+    // Rimuove il file solo se non è stato modificato dopo la lettura che ha restituito
+    // modifiedAt e size (es. dopo averne copiato il contenuto su un altro peer).
+    // Le scritture sul file attendono la rimozione (vedi acquireContent), quindi il
+    // controllo e la rimozione non possono intercalarsi con una scrittura.
+    public boolean unlinkIfUnchanged(String path, long modifiedAt, long size) {
+        return removeNode(path, node -> node instanceof FileNode && node.modifiedAt == modifiedAt
+                                        && ((FileNode) node).size == size);
+    }
+
+    // Rimuove path se il suo nodo soddisfa allowed
+    private boolean removeNode(String path, Predicate<Node> allowed) {
+        String name = ParsedPath.of(path).name();
+        if (name == null) return false;
+        return changeTree(() -> {
+                              DirectoryNode parent = parentOf(path);
+                              Node victim = parent != null ? parent.children.get(name) : null;
+                              return victim != null && allowed.test(victim);
+                          },
+                          () -> {
+                              DirectoryNode parent = parentOf(path);
+                              Node victim = parent.children.remove(name);
+                              parent.account(name, victim, -1);
+                              parent.bumpVersion();
+                              dentries.invalidate();
+                              if (victim instanceof FileNode) cache.forget((FileNode) victim);
+                          },
+                          () -> {
+                              Path rp = realPath(path);
+                              if (Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) {
+                                  // directory: ci aspettiamo sia vuota (già verificato in rmdir)
+                                  Files.delete(rp);
+                              } else {
+                                  Files.deleteIfExists(rp);
+                              }
+                          },
+                          "delete write-through failed for " + path, Journal.REMOVE, path, null);
     }
 
     public boolean createNode(String path, String type, String symlinkTarget) {
-        ReentrantReadWriteLock lock = getLock(path);
-        lock.writeLock().lock();
-        String[] parts = tokenize(path);
-        String name = parts[parts.length - 1];
-        DirectoryNode parent = (DirectoryNode) resolveParent(path);
-        try{
-            if (parent == null || parent.children.containsKey(name)) return false;
-
-            Node node;
-            switch (type) {
-            case "file":
-                node = new FileNode(name);
-                break;
-            case "dir":
-                node = new DirectoryNode(name);
-                break;
-            case "symlink":
-                node = new SymlinkNode(name, symlinkTarget);
-                break;
-            default:
-                return false;
-            }
+        String name = ParsedPath.of(path).name();
+        if (name == null) return false;
+
+        Node node;
+        switch (type) {
+        case "file":
+            node = new FileNode(name);
+            break;
+        case "dir":
+            node = new DirectoryNode(name);
+            break;
+        case "symlink":
+            node = new SymlinkNode(name, symlinkTarget);
+            break;
+        default:
+            return false;
+        }
+        byte kind = node instanceof DirectoryNode ? Journal.MKDIR
+                  : node instanceof FileNode ? Journal.MKNOD : Journal.SYMLINK;
+
+        return changeTree(() -> {
+                              DirectoryNode parent = parentOf(path);
+                              return parent != null && !parent.children.containsKey(name);
+                          },
+                          () -> {
+                              DirectoryNode parent = parentOf(path);
+                              node.parent = parent;
+                              parent.children.put(name, node);
+                              parent.account(name, node, 1);
+                              parent.bumpVersion();
+                          },
+                          () -> {
+                              Path rp = realPath(path);
+                              if (node instanceof DirectoryNode) {
+                                  Files.createDirectories(rp);
+                              } else if (node instanceof FileNode) {
+                                  if (rp.getParent() != null) Files.createDirectories(rp.getParent());
+                                  if (!Files.exists(rp)) Files.createFile(rp);
+                              } else if (node instanceof SymlinkNode) {
+                                  if (rp.getParent() != null) Files.createDirectories(rp.getParent());
+                                  try {
+                                      Path target = Paths.get(((SymlinkNode) node).readLink());
+                                      Files.createSymbolicLink(rp, target);
+                                  } catch (UnsupportedOperationException ex) {
+                                      System.err.println("Symlink non supportato o richiede privilegi: " + ex.getMessage());
+                                  }
+                              }
+                          },
+                          "createNode write-through failed for " + path, kind, path, symlinkTarget);
+    }
 
-            node.parent = parent;
-            parent.children.put(name, node);
+    // === Modifiche della struttura ===
+
+    @FunctionalInterface
+    private interface DiskChange {
+        void apply() throws IOException;
+    }
+
+    // Modifica della struttura dell'albero. check verifica che si possa fare e update
+    // aggiorna l'albero, entrambi con treeLock in scrittura. In write-behind la modifica
+    // su disco è il record (kind, path, path2) del journal; in write-through disk la
+    // applica al disco prima di update, ma fuori da treeLock: l'I/O sul contenuto degli
+    // altri file continua, e solo quello sotto i path toccati attende (vedi
+    // acquireContent). structureLock tiene in fila le modifiche, così tra check e
+    // update l'albero non cambia.
+    private boolean changeTree(BooleanSupplier check, Runnable update, DiskChange disk, String failure,
+                               byte kind, String path, String path2) {
+        Journal.Entry ticket = null;
+        String[] touched = kind == Journal.RENAME ? new String[] {path, path2} : new String[] {path};
+        boolean onDisk;
+        structureLock.lock();
+        try {
+            acquire(treeLock, true, treeLockWaits);
+            try {
+                if (!check.getAsBoolean()) return false;
+                onDisk = journal == null && writeThrough && mountedRoot != null;
+                if (onDisk) {
+                    beginChange(touched);
+                } else {
+                    update.run();
+                    if (journal != null) ticket = journal.append(kind, path, path2, 0, null, null);
+                }
+            } finally {
+                treeLock.writeLock().unlock();
+            }
 
-            // write-through su disco
-            if (writeThrough && mountedRoot != null) {
+            if (onDisk) {
                 try {
-                    Path rp = realPath(path);
-                    if (node instanceof DirectoryNode) {
-                        Files.createDirectories(rp);
-                    } else if (node instanceof FileNode) {
-                        if (rp.getParent() != null) Files.createDirectories(rp.getParent());
-                        if (!Files.exists(rp)) Files.createFile(rp);
-                    } else if (node instanceof SymlinkNode) {
-                        if (rp.getParent() != null) Files.createDirectories(rp.getParent());
-                        try {
-                            Path target = Paths.get(((SymlinkNode) node).readLink());
-                            Files.createSymbolicLink(rp, target);
-                        } catch (UnsupportedOperationException ex) {
-                            System.err.println("Symlink non supportato o richiede privilegi: " + ex.getMessage());
-                        }
+                    disk.apply();
+                    acquire(treeLock, true, treeLockWaits);
+                    try {
+                        update.run();
+                    } finally {
+                        treeLock.writeLock().unlock();
                     }
                 } catch (IOException e) {
-                    System.err.println("createNode write-through failed for " + path + ": " + e.getMessage());
-                    // opzionale: rollback in-mem
+                    System.err.println(failure + ": " + e.getMessage());
+                    return false;
+                } finally {
+                    endChange(touched);
                 }
             }
+        } finally {
+            structureLock.unlock();
+        }
+        return commit(ticket);
+    }
 
-            return true;
-        } finally{
-            lock.writeLock().unlock();
+    private void beginChange(String[] paths) {
+        synchronized (changing) {
+            for (String p : paths) changing.add(canonical(p));
+            changingCount = changing.size();
         }
     }
 
+    private void endChange(String[] paths) {
+        synchronized (changing) {
+            for (String p : paths) changing.remove(canonical(p));
+            changingCount = changing.size();
+            changing.notifyAll();
+        }
+    }
+
+    // treeLock in lettura per l'I/O sul contenuto di path. Se path (o una directory che
+    // lo contiene) sta cambiando su disco si rilascia e si attende la fine della modifica:
+    // i path in changing si registrano con treeLock in scrittura, quindi chi ha il lock in
+    // lettura e non trova il suo path non può trovarsi in mezzo a una modifica.
+    private void acquireContent(String path) {
+        while (true) {
+            acquire(treeLock, false, treeLockWaits);
+            if (changingCount == 0) return;
+            String p = canonical(path);
+            synchronized (changing) {
+                if (!isChanging(p)) return;
+            }
+            treeLock.readLock().unlock();
+            long t0 = System.nanoTime();
+            synchronized (changing) {
+                while (isChanging(p)) {
+                    try {
+                        changing.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            treeLockWaits.record(System.nanoTime() - t0);
+        }
+    }
+
+    // Chiamato con il monitor di changing
+    private boolean isChanging(String path) {
+        for (String c : changing) {
+            if (path.equals(c) || "/".equals(c) || path.startsWith(c + "/")) return true;
+        }
+        return false;
+    }
+
+    private static String canonical(String path) {
+        ParsedPath pp = ParsedPath.of(path);
+        if (pp.isRoot()) return "/";
+        String parent = pp.parentPath();
+        return ("/".equals(parent) ? "" : parent) + "/" + pp.name();
+    }
+
     public DirectoryNode resolveParent(String path) {
-        String[] parts = tokenize(path);
-        if (parts.length == 0) return null;
-        String parentPath = "/" + String.join("/", Arrays.copyOf(parts, parts.length - 1));
-        Node parent = resolve(parentPath, false);
+        return parentOf(path);
+    }
+
+    private DirectoryNode parentOf(String path) {
+        ParsedPath pp = ParsedPath.of(path);
+        if (pp.isRoot()) return null;
+        Node parent = resolve(pp.parentPath(), false);
         return (parent instanceof DirectoryNode) ? (DirectoryNode) parent : null;
     }
 
     public boolean open(String path) {
         Node node = resolve(path, true);
-        if (node == null || node.isOpen) return false;
-        node.isOpen = true;
+        if (node == null) return false;
+        synchronized (node) {
+            if (node.isOpen) return false;
+            node.isOpen = true;
+        }
         return true;
     }
 
     public boolean close(String path) {
         Node node = resolve(path, true);
-        if (node == null || !node.isOpen) return false;
-        node.isOpen = false;
+        if (node == null) return false;
+        synchronized (node) {
+            if (!node.isOpen) return false;
+            node.isOpen = false;
+        }
         return true;
     }
 
@@ -225,7 +502,123 @@ public class FileSystem {
     public List<String> readdir(String path) {
         Node node = resolve(path, false);
         if (!(node instanceof DirectoryNode)) return null;
-        return new ArrayList<>(((DirectoryNode) node).children.keySet());
+        return new ArrayList<>(((DirectoryNode) node).children.keySet());   // già ordinati
+    }
+
+    // === Visita ricorsiva ===
+
+    public interface WalkVisitor {
+        void visit(String path, String type, long size, long modifiedAt);
+    }
+
+    // Visita in profondità dei path che iniziano con prefix ("/" o "" → tutti): prima la
+    // directory, poi il suo contenuto, i fratelli in ordine di nome. Riparte dopo il path
+    // after (null → dall'inizio) e si ferma dopo limit voci; restituisce l'ultimo path
+    // visitato se ne restano altri, null se la visita è finita o after non appartiene a
+    // prefix. Un solo passaggio sulle mappe delle directory, senza lock né risoluzioni dalla
+    // root per voce; i symlink sono riportati ma non seguiti.
+    public String walk(String prefix, String after, int limit, WalkVisitor visitor) {
+        if (prefix == null || prefix.isEmpty()) prefix = "/";
+        ParsedPath pp = ParsedPath.of(prefix);
+        // "/a/b" → voci di /a il cui nome inizia con "b"; "/a/b/" → contenuto di /a/b
+        boolean wholeDir = pp.isRoot() || prefix.endsWith("/");
+        int startDepth = wholeDir ? pp.depth() : pp.depth() - 1;
+        String namePrefix = wholeDir ? null : pp.name();
+
+        Node start = resolve(pp, startDepth, true, 0);
+        if (!(start instanceof DirectoryNode) || limit <= 0) return null;
+        StringBuilder dirPath = new StringBuilder();
+        for (int i = 0; i < startDepth; i++) dirPath.append('/').append(pp.part(i));
+
+        ParsedPath resume = null;
+        if (after != null) {
+            resume = ParsedPath.of(after);
+            if (resume.depth() <= startDepth) return null;
+            for (int i = 0; i < startDepth; i++) {
+                if (!resume.part(i).equals(pp.part(i))) return null;
+            }
+            if (namePrefix != null && !resume.part(startDepth).startsWith(namePrefix)) return null;
+        }
+
+        Walk w = new Walk(limit, visitor);
+        walkDir((DirectoryNode) start, dirPath.toString(), namePrefix, resume, startDepth, w);
+        return w.more ? w.last : null;
+    }
+
+    // === Riassunti Merkle delle directory ===
+
+    public interface SummaryVisitor {
+        void visit(String name, boolean directory, long hash, long files);
+    }
+
+    // Riassunto di ogni voce di dir: per le directory l'hash dei path del sottoalbero e il
+    // numero di file e symlink che contiene, per le altre voci un hash del solo nome e
+    // files = 1. Confrontando i riassunti di due peer si scende solo dove differiscono.
+    // false se dir non è una directory.
+    public boolean summarize(String dir, SummaryVisitor visitor) {
+        Node node = resolve(dir, true);
+        if (!(node instanceof DirectoryNode)) return false;
+        for (Map.Entry<String, Node> e : ((DirectoryNode) node).children.entrySet()) {
+            Node child = e.getValue();
+            visitor.visit(e.getKey(), child instanceof DirectoryNode,
+                          DirectoryNode.entryHash(e.getKey(), child), DirectoryNode.filesOf(child));
+        }
+        return true;
+    }
+
+    // Riassunto dell'intero albero (hash e numero di file), per statistiche e confronti rapidi
+    public long treeHash() { return root.treeHash; }
+    public long treeFiles() { return root.treeFiles; }
+
+    private static final class Walk {
+        final int limit;
+        final WalkVisitor visitor;
+        int emitted;
+        String last;
+        boolean more;
+
+        Walk(int limit, WalkVisitor visitor) {
+            this.limit = limit;
+            this.visitor = visitor;
+        }
+
+        // false quando la pagina è piena: c'è almeno un'altra voce
+        boolean emit(String path, Node node) {
+            if (emitted == limit) {
+                more = true;
+                return false;
+            }
+            long size = node instanceof FileNode ? ((FileNode) node).size : 0;
+            visitor.visit(path, node.getClass().getSimpleName(), size, node.modifiedAt);
+            emitted++;
+            last = path;
+            return true;
+        }
+    }
+
+    // resume, se presente, è il cursore e level l'indice del suo componente in dir: si
+    // riprende dal contenuto del cursore (se è una directory) e poi dai fratelli successivi
+    private boolean walkDir(DirectoryNode dir, String dirPath, String namePrefix, ParsedPath resume, int level, Walk w) {
+        NavigableMap<String, Node> view = dir.children;
+        if (resume != null && level < resume.depth()) {
+            String from = resume.part(level);
+            Node current = dir.children.get(from);
+            if (current instanceof DirectoryNode
+                && !walkDir((DirectoryNode) current, dirPath + "/" + from, null, resume, level + 1, w)) return false;
+            view = dir.children.tailMap(from, false);
+        } else if (namePrefix != null) {
+            view = dir.children.tailMap(namePrefix, true);
+        }
+
+        for (Map.Entry<String, Node> e : view.entrySet()) {
+            if (namePrefix != null && !e.getKey().startsWith(namePrefix)) break;
+            String path = dirPath + "/" + e.getKey();
+            Node child = e.getValue();
+            if (!w.emit(path, child)) return false;
+            if (child instanceof DirectoryNode
+                && !walkDir((DirectoryNode) child, path, null, null, level + 1, w)) return false;
+        }
+        return true;
     }
 
     public String readlink(String path) {
@@ -241,42 +634,135 @@ public class FileSystem {
         attr.put("type", node.getClass().getSimpleName());
         attr.put("createdAt", node.createdAt);
         attr.put("modifiedAt", node.modifiedAt);
+        attr.put("version", node.version);
+        if (node instanceof FileNode) attr.put("size", ((FileNode) node).size);
         return attr;
     }
 
-    public boolean setattr(String path, String attr, Object value) {
+    // Path su disco del contenuto di un file, per servirlo senza passare dall'heap
+    // (trasferimenti zero-copy). null se il path non è un file o il FileSystem non è
+    // montato. In write-behind si attende che la copia su disco sia aggiornata.
+    public Path diskCopy(String path) {
+        if (mountedRoot == null) return null;
         Node node = resolve(path, true);
-        if (node == null) return false;
-        if ("name".equals(attr) && value instanceof String) {
-            node.name = (String) value;
+        if (!(node instanceof FileNode)) return null;
+
+        Journal j = journal;
+        if (j != null) {
+            if (((FileNode) node).isDirty()) j.drain(); else j.awaitTree();
+        }
+
+        // path del nodo risolto: i symlink virtuali non corrispondono a quelli su disco
+        acquireContent(path);
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Node n = node; n != null && n.parent != null; n = n.parent) sb.insert(0, n.name).insert(0, '/');
+            return realPath(sb.toString());
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    // Imposta data di modifica e versione (es. quelle della copia da cui un file è stato
+    // replicato, così le repliche restano confrontabili); version <= 0 lascia la versione
+    // locale. In write-behind la data su disco è quella di applicazione del record.
+    public boolean setModifiedAt(String path, long modifiedAt, long version) {
+        ReentrantReadWriteLock lock = getLock(path);
+        acquireContent(path);
+        acquire(lock, true, pathLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (node == null) return false;
+            node.modifiedAt = modifiedAt;
+            if (version > 0) node.adoptVersion(version);
+            if (journal == null && writeThrough && mountedRoot != null) {
+                try {
+                    Files.setLastModifiedTime(realPath(path), FileTime.fromMillis(modifiedAt));
+                } catch (IOException e) {
+                    System.err.println("setModifiedAt write-through failed for " + path + ": " + e.getMessage());
+                }
+            }
             return true;
+        } finally {
+            lock.writeLock().unlock();
+            treeLock.readLock().unlock();
+        }
+    }
+
+    // Solo in memoria, come link: treeLock in scrittura per il tempo di un assegnamento
+    public boolean setattr(String path, String attr, Object value) {
+        structureLock.lock();
+        acquire(treeLock, true, treeLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (node == null) return false;
+            if ("name".equals(attr) && value instanceof String) {
+                node.name = (String) value;
+                return true;
+            }
+            return false;
+        } finally {
+            treeLock.writeLock().unlock();
+            structureLock.unlock();
         }
-        return false;
     }
 
     public byte[] read(String path) {
         ReentrantReadWriteLock lock = getLock(path);
-        lock.readLock().lock();
+        acquireContent(path);
+        acquire(lock, false, pathLockWaits);
         try {
             Node node = resolve(path, true);
-            return (node instanceof FileNode) ? ((FileNode) node).read() : null;
+            if (!(node instanceof FileNode)) return null;
+            FileNode file = (FileNode) node;
+            byte[] data = file.read();
+            if (data != null) {
+                cache.hit(file);
+                return data;
+            }
+            cache.miss();
+            return load(path, file);
         } finally {
             lock.readLock().unlock();
+            treeLock.readLock().unlock();
         }
     }
 
     public boolean write(String path, byte[] content) {
+        return writeIf(path, -1, content) > 0;
+    }
+
+    // Scrittura condizionale (compare-and-set): sostituisce il contenuto solo se la
+    // versione del file è ancora expected. Restituisce la nuova versione, -1 se il file
+    // non esiste, è cambiato nel frattempo o la scrittura fallisce.
+    public long writeIfVersion(String path, long expected, byte[] content) {
+        if (expected <= 0) return -1;
+        return writeIf(path, expected, content);
+    }
+
+    // expected < 0: scrittura incondizionata
+    private long writeIf(String path, long expected, byte[] content) {
+        Journal.Entry ticket = null;
+        long version;
         ReentrantReadWriteLock lock = getLock(path);
-        lock.writeLock().lock();
+        acquireContent(path);
+        acquire(lock, true, pathLockWaits);
         try {
             Node node = resolve(path, true);
-            if (!(node instanceof FileNode)) return false;
+            if (!(node instanceof FileNode)) return -1;
+            FileNode file = (FileNode) node;
+            if (expected >= 0 && file.version != expected) return -1;
 
-            // in-mem
-            ((FileNode) node).write(content);
+            // in-mem (in write-behind il file resta residente finché il record non è applicato)
+            if (journal != null) file.pin();
+            file.write(content);
+            cache.charge(file);
+            version = file.version;
 
-            // write-through
-            if (writeThrough && mountedRoot != null) {
+            if (journal != null) {
+                ticket = journal.append(Journal.WRITE, path, null, 0, content, file);
+            } else if (writeThrough && mountedRoot != null) {
+                // write-through
                 try {
                     Path rp = realPath(path);
                     if (rp.getParent() != null) Files.createDirectories(rp.getParent());
@@ -289,96 +775,413 @@ public class FileSystem {
                     );
                 } catch (IOException e) {
                     System.err.println("write-through failed for " + path + ": " + e.getMessage());
-                    return false;
+                    return -1;
                 }
             }
-            return true;
         } finally {
             lock.writeLock().unlock();
+            treeLock.readLock().unlock();
         }
+        return commit(ticket) ? version : -1;
     }
 
-    private boolean removeNode(String path) {
-        String[] parts = tokenize(path);
-        String name = parts[parts.length - 1];
-        DirectoryNode parent = (DirectoryNode) resolveParent(path);
-        if (parent == null) return false;
+    // === I/O a blocchi: scrivono su disco solo l'intervallo toccato ===
 
-        Node victim = parent.children.get(name);
-        if (victim == null) return false;
+    public byte[] read(String path, long offset, int length) {
+        if (offset < 0 || length < 0) return null;
+        ReentrantReadWriteLock lock = getLock(path);
+        acquireContent(path);
+        acquire(lock, false, pathLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (!(node instanceof FileNode)) return null;
+            FileNode file = (FileNode) node;
+            byte[] data = file.read(offset, length);
+            if (data != null) {
+                cache.hit(file);
+                return data;
+            }
+            // non residente: si legge l'intervallo dal disco senza caricare il file
+            cache.miss();
+            try {
+                return readFromDisk(path, offset, length);
+            } catch (IOException e) {
+                System.err.println("read failed for " + path + ": " + e.getMessage());
+                return null;
+            }
+        } finally {
+            lock.readLock().unlock();
+            treeLock.readLock().unlock();
+        }
+    }
+
+    public boolean write(String path, long offset, byte[] bytes) {
+        if (offset < 0) return false;
+        Journal.Entry ticket = null;
+        ReentrantReadWriteLock lock = getLock(path);
+        acquireContent(path);
+        acquire(lock, true, pathLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (!(node instanceof FileNode)) return false;
+            FileNode file = (FileNode) node;
+            if (journal != null && pinResident(path, file, offset + bytes.length)) {
+                file.write(offset, bytes);
+                cache.charge(file);
+                ticket = journal.append(Journal.WRITE_AT, path, null, offset, bytes, file);
+            } else if (!writeAt(path, file, offset, bytes)) {
+                return false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            treeLock.readLock().unlock();
+        }
+        return commit(ticket);
+    }
+
+    public boolean append(String path, byte[] bytes) {
+        Journal.Entry ticket = null;
+        ReentrantReadWriteLock lock = getLock(path);
+        acquireContent(path);
+        acquire(lock, true, pathLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (!(node instanceof FileNode)) return false;
+            FileNode file = (FileNode) node;
+            long offset = file.size;
+            if (journal != null && pinResident(path, file, offset + bytes.length)) {
+                file.write(offset, bytes);
+                cache.charge(file);
+                // nel journal con l'offset esplicito, così il replay è idempotente
+                ticket = journal.append(Journal.WRITE_AT, path, null, offset, bytes, file);
+            } else if (!writeAt(path, file, offset, bytes)) {
+                return false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            treeLock.readLock().unlock();
+        }
+        return commit(ticket);
+    }
+
+    public boolean truncate(String path, long size) {
+        if (size < 0) return false;
+        Journal.Entry ticket = null;
+        ReentrantReadWriteLock lock = getLock(path);
+        acquireContent(path);
+        acquire(lock, true, pathLockWaits);
+        try {
+            Node node = resolve(path, true);
+            if (!(node instanceof FileNode)) return false;
+            FileNode file = (FileNode) node;
+
+            if (journal != null && pinResident(path, file, size)) {
+                file.truncate(size);
+                cache.charge(file);
+                ticket = journal.append(Journal.TRUNCATE, path, null, size, null, file);
+            } else if (!truncateAt(path, file, size)) {
+                return false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            treeLock.readLock().unlock();
+        }
+        return commit(ticket);
+    }
+
+    // Chiamato con il write lock del path già acquisito
+    private boolean truncateAt(String path, FileNode file, long size) {
+        drainJournal();   // write-through sincrono: i record in coda vanno applicati prima
 
-      
         if (writeThrough && mountedRoot != null) {
-            try {
-                Path rp = realPath(path);
-                if (victim instanceof DirectoryNode) {
-                    // directory: ci aspettiamo sia vuota (già verificato in rmdir)
-                    Files.delete(rp);
-                } else {
-                    Files.deleteIfExists(rp);
+            try (FileChannel ch = FileChannel.open(realPath(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (size < ch.size()) {
+                    ch.truncate(size);
+                } else if (size > ch.size()) {
+                    ch.write(ByteBuffer.wrap(new byte[1]), size - 1);   // estende con zeri
                 }
             } catch (IOException e) {
-                System.err.println("delete write-through failed for " + path + ": " + e.getMessage());
+                System.err.println("truncate write-through failed for " + path + ": " + e.getMessage());
+                return false;
+            }
+        } else if (size > FileNode.MAX_IN_MEMORY) {
+            return false;   // senza copia su disco il contenuto deve stare in memoria
+        }
+
+        file.truncate(size);
+        cache.charge(file);
+        return true;
+    }
+
+    // Chiamato con il write lock del path già acquisito
+    private boolean writeAt(String path, FileNode file, long offset, byte[] bytes) {
+        drainJournal();   // write-through sincrono: i record in coda vanno applicati prima
+
+        if (writeThrough && mountedRoot != null) {
+            try (FileChannel ch = FileChannel.open(realPath(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                long pos = offset;
+                while (buf.hasRemaining()) pos += ch.write(buf, pos);
+            } catch (IOException e) {
+                System.err.println("write-through failed for " + path + ": " + e.getMessage());
                 return false;
             }
+        } else if (offset + bytes.length > FileNode.MAX_IN_MEMORY) {
+            return false;   // senza copia su disco il contenuto deve stare in memoria
         }
 
-        // aggiornamento in memoria
-        parent.children.remove(name);
+        file.write(offset, bytes);
+        cache.charge(file);
         return true;
     }
 
+    // Write-behind: pinna il file e lo porta in memoria, perché finché i suoi record non
+    // sono applicati la copia su disco non è aggiornata. false (file non pinnato) se il
+    // contenuto non può stare in memoria: si ripiega sul write-through sincrono.
+    private boolean pinResident(String path, FileNode file, long end) {
+        if (end > FileNode.MAX_IN_MEMORY) return false;
+        file.pin();   // da qui in poi la cache non può più rilasciarlo
+        if (file.isResident() || load(path, file) != null) return true;
+        file.unpin();
+        return false;
+    }
+
+    // Con Sync.ALWAYS attende, fuori dai lock, l'fsync del gruppo che contiene il record
+    private boolean commit(Journal.Entry ticket) {
+        Journal j = journal;
+        return ticket == null || j == null || j.awaitDurable(ticket);
+    }
+
+    // Prima di leggere dal disco un file non residente: create, rename e remove in
+    // coda devono essere applicati perché il file si trovi al suo path. Il contenuto
+    // invece è già aggiornato, dato che i file con record in coda restano residenti.
+    private void awaitJournalTree() {
+        Journal j = journal;
+        if (j != null) j.awaitTree();
+    }
+
+    private void drainJournal() {
+        Journal j = journal;
+        if (j != null) j.drain();
+    }
+
+    // Porta in memoria il contenuto di un file non residente (mount lazy o rilasciato dalla cache)
+    private byte[] load(String path, FileNode file) {
+        if (mountedRoot == null || file.size > FileNode.MAX_IN_MEMORY) return null;
+        awaitJournalTree();
+        byte[] data;
+        try {
+            data = file.load(Files.readAllBytes(realPath(path)));
+        } catch (IOException e) {
+            System.err.println("load failed for " + path + ": " + e.getMessage());
+            return null;
+        }
+        cache.charge(file);
+        return data;
+    }
+
+    // Lettura di un intervallo direttamente dal disco, senza caricare il file
+    private byte[] readFromDisk(String path, long offset, int length) throws IOException {
+        awaitJournalTree();
+        try (FileChannel ch = FileChannel.open(realPath(path), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (offset >= size || length <= 0) return new byte[0];
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, size - offset));
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) break;
+            }
+            return buf.hasRemaining() ? Arrays.copyOf(buf.array(), buf.position()) : buf.array();
+        }
+    }
+
     public static FileSystem mount(String rootPath) {
+        return mount(rootPath, false);
+    }
+
+    // lazy = true → si costruisce solo l'albero di directory e metadati;
+    // il contenuto dei file viene letto dal disco al primo accesso
+    public static FileSystem mount(String rootPath, boolean lazy) {
         File rootFile = new File(rootPath);
         if (!rootFile.exists() || !rootFile.isDirectory()) {
             throw new IllegalArgumentException("Invalid root directory: " + rootPath);
         }
 
-        DirectoryNode rootNode = buildTreeFromDisk(rootFile, null);
+        long start = System.nanoTime();
+        Path realRoot = rootFile.toPath().toAbsolutePath().normalize();
+
+        // un journal rimasto da un arresto non pulito va riapplicato prima di leggere il disco
+        int replayed = 0;
+        try {
+            replayed = Journal.replay(realRoot);
+        } catch (IOException e) {
+            System.err.println("journal replay failed for " + rootPath + ": " + e.getMessage());
+        }
+
+        LongAdder count = new LongAdder();
+        DirectoryNode rootNode = ForkJoinPool.commonPool().invoke(new BuildTask(rootFile, null, lazy, count));
         rootNode.name = "/"; // normalizziamo il nome della radice
 
         FileSystem fs = new FileSystem();
         fs.root = rootNode; // siamo nella stessa classe: ok
-        fs.mountedRoot = rootFile.toPath().toAbsolutePath().normalize();
+        fs.mountedRoot = realRoot;
+        fs.journalReplayed = replayed;
+        fs.lazy = lazy;
+        fs.nodeCount = count.sum();
+        fs.mountMillis = (System.nanoTime() - start) / 1_000_000;
+        if (!lazy) fs.chargeResident(rootNode);
         return fs;
     }
 
-    private static DirectoryNode buildTreeFromDisk(File dir, DirectoryNode parent) {
-        DirectoryNode dirNode = new DirectoryNode(dir.getName());
-        dirNode.parent = parent;
+    private void chargeResident(Node node) {
+        if (node instanceof FileNode) {
+            cache.charge((FileNode) node);
+        } else if (node instanceof DirectoryNode) {
+            for (Node child : ((DirectoryNode) node).children.values()) chargeResident(child);
+        }
+    }
+
+    // Visita fork-join del disco: ogni sottodirectory è costruita da un task separato
+    private static class BuildTask extends RecursiveTask<DirectoryNode> {
+        private static final long serialVersionUID = 1L;
 
-        File[] entries = dir.listFiles();
-        if (entries != null) {
-            for (File entry : entries) {
-                try {
-                    Node childNode;
-                    if (Files.isSymbolicLink(entry.toPath())) {
-                        String target = Files.readSymbolicLink(entry.toPath()).toString();
-                        SymlinkNode symNode = new SymlinkNode(entry.getName(), target);
-                        symNode.parent = dirNode;
-                        childNode = symNode;
-                    } else if (entry.isDirectory()) {
-                        childNode = buildTreeFromDisk(entry, dirNode);
-                    } else if (entry.isFile()) {
-                        FileNode fileNode = new FileNode(entry.getName());
-                        fileNode.parent = dirNode;
-                        fileNode.data = Files.readAllBytes(entry.toPath());
-                        childNode = fileNode;
-                    } else {
-                        continue; // altri tipi ignorati
+        private final File dir;
+        private final DirectoryNode parent;
+        private final boolean lazy;
+        private final LongAdder count;
+
+        BuildTask(File dir, DirectoryNode parent, boolean lazy, LongAdder count) {
+            this.dir = dir;
+            this.parent = parent;
+            this.lazy = lazy;
+            this.count = count;
+        }
+
+        @Override
+        protected DirectoryNode compute() {
+            DirectoryNode dirNode = new DirectoryNode(dir.getName());
+            dirNode.parent = parent;
+            count.increment();
+
+            List<BuildTask> subdirs = new ArrayList<>();
+            File[] entries = dir.listFiles();
+            if (entries != null) {
+                for (File entry : entries) {
+                    try {
+                        Node childNode;
+                        if (Files.isSymbolicLink(entry.toPath())) {
+                            String target = Files.readSymbolicLink(entry.toPath()).toString();
+                            SymlinkNode symNode = new SymlinkNode(entry.getName(), target);
+                            symNode.parent = dirNode;
+                            childNode = symNode;
+                        } else if (entry.isDirectory()) {
+                            BuildTask t = new BuildTask(entry, dirNode, lazy, count);
+                            t.fork();
+                            subdirs.add(t);
+                            continue;
+                        } else if (entry.isFile()) {
+                            FileNode fileNode;
+                            if (lazy) {
+                                fileNode = FileNode.onDisk(entry.getName(), entry.length(), entry.lastModified());
+                            } else {
+                                fileNode = new FileNode(entry.getName());
+                                fileNode.write(Files.readAllBytes(entry.toPath()));
+                                fileNode.modifiedAt = entry.lastModified();
+                            }
+                            fileNode.parent = dirNode;
+                            childNode = fileNode;
+                        } else {
+                            continue; // altri tipi ignorati
+                        }
+                        dirNode.children.put(childNode.name, childNode);
+                        count.increment();
+                    } catch (IOException e) {
+                        System.err.println("Errore leggendo " + entry.getAbsolutePath() + ": " + e.getMessage());
                     }
-                    dirNode.children.put(childNode.name, childNode);
-                } catch (IOException e) {
-                    System.err.println("Errore leggendo " + entry.getAbsolutePath() + ": " + e.getMessage());
                 }
             }
+
+            for (BuildTask t : subdirs) {
+                DirectoryNode child = t.join();
+                dirNode.children.put(child.name, child);
+            }
+            dirNode.summarize();   // i figli directory hanno già il proprio riassunto
+            return dirNode;
         }
+    }
 
-        return dirNode;
+    // Budget in byte del contenuto residente; ha effetto solo su un FileSystem montato,
+    // dove il contenuto rilasciato si può rileggere dal disco
+    public void setCacheBudget(long bytes) {
+        if (mountedRoot == null) return;
+        cache.setBudget(bytes);
+    }
+
+    // Attiva la modalità write-behind. Il journal vive accanto alla root montata
+    // (<root>.journal) e viene riapplicato dal prossimo mount se il peer si ferma
+    // senza closeJournal.
+    public void enableJournal(Journal.Sync sync, long intervalMs, long maxQueueBytes) throws IOException {
+        if (mountedRoot == null) {
+            throw new IllegalStateException("FileSystem non montato su una root reale");
+        }
+        structureLock.lock();   // nessuna modifica della struttura a metà tra disco e albero
+        acquire(treeLock, true, treeLockWaits);
+        try {
+            if (journal == null) journal = Journal.open(mountedRoot, sync, intervalMs, maxQueueBytes);
+        } finally {
+            treeLock.writeLock().unlock();
+            structureLock.unlock();
+        }
     }
 
+    // Torna al write-through sincrono dopo aver applicato al disco tutti i record in coda
+    public void closeJournal() {
+        Journal j;
+        structureLock.lock();
+        acquire(treeLock, true, treeLockWaits);
+        try {
+            j = journal;
+            journal = null;
+        } finally {
+            treeLock.writeLock().unlock();
+            structureLock.unlock();
+        }
+        if (j != null) {
+            j.close();
+            try {
+                Files.deleteIfExists(Journal.pathFor(mountedRoot));
+            } catch (IOException e) {
+                System.err.println("journal delete failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public Journal getJournal() { return journal; }
+    public int getJournalReplayed() { return journalReplayed; }
+
+    public long getCacheBudget() { return cache.getBudget(); }
+    public long getCacheHits() { return cache.getHits(); }
+    public long getCacheMisses() { return cache.getMisses(); }
+    public double getCacheHitRatio() { return cache.getHitRatio(); }
+    public long getCacheEvictions() { return cache.getEvictions(); }
+    public long getCacheResidentBytes() { return cache.getResidentBytes(); }
+
+    public long getDentryHits() { return dentries.getHits(); }
+    public long getDentryMisses() { return dentries.getMisses(); }
+    public long getSymlinkLoops() { return symlinkLoops.sum(); }
+    public LatencyStats getTreeLockWaits() { return treeLockWaits; }
+    public LatencyStats getPathLockWaits() { return pathLockWaits; }
+
+    public boolean isLazy() { return lazy; }
+    public long getNodeCount() { return nodeCount; }
+    public long getMountMillis() { return mountMillis; }
+
     public void tree() {
-        printTree(this.root, "");
+        acquire(treeLock, false, treeLockWaits);
+        try {
+            printTree(this.root, "");
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
     private void printTree(Node node, String indent) {
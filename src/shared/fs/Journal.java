@@ -0,0 +1,583 @@
+package shared.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal append-only per la modalità write-behind del FileSystem.
+ *
+ * Le mutazioni non toccano più il disco sul percorso della richiesta: vengono
+ * accodate qui e un thread di flush le scrive in sequenza nel journal (group
+ * commit: tutto ciò che si è accumulato durante il flush precedente parte con
+ * una sola write e un solo fsync) e poi le applica alla copia su disco.
+ *
+ * Il file inizia con un header di 8 byte con la sequenza dell'ultimo record
+ * applicato; seguono i record [lunghezza][crc32][seq][corpo]. L'header non
+ * supera mai ciò che è già sincronizzato: con ALWAYS avanza dopo ogni gruppo,
+ * una volta forzati i file toccati dal gruppo, con INTERVAL all'fsync
+ * periodico, con NEVER dopo ogni gruppo senza fsync. Al mount si riapplicano i
+ * record successivi all'header fino al primo troncato o corrotto. Quando tutto
+ * è applicato e registrato nell'header e il file supera CHECKPOINT_BYTES lo si
+ * tronca all'header.
+ *
+ * I file con record non ancora applicati restano residenti (FileNode.isDirty):
+ * la loro copia su disco non è aggiornata.
+ */
+public class Journal {
+    // ALWAYS: chi scrive attende l'fsync del suo gruppo; INTERVAL: fsync periodico; NEVER: solo page cache
+    public enum Sync { ALWAYS, INTERVAL, NEVER }
+
+    static final byte MKDIR = 1, MKNOD = 2, SYMLINK = 3, WRITE = 4, WRITE_AT = 5, TRUNCATE = 6, RENAME = 7, REMOVE = 8;
+
+    private static final int HEADER = 8;
+    private static final int FRAME_HEADER = 16;   // lunghezza, crc, seq
+    private static final long CHECKPOINT_BYTES = 16L << 20;
+
+    // Record accodato; fa anche da ricevuta per chi attende l'fsync
+    static final class Entry {
+        final long seq;
+        final byte type;
+        final byte[] body;
+        final FileNode pin;
+        boolean done;      // scritto nel journal (e sincronizzato se ALWAYS)
+        boolean durable;   // false se la scrittura del journal è fallita
+
+        Entry(long seq, byte type, byte[] body, FileNode pin) {
+            this.seq = seq;
+            this.type = type;
+            this.body = body;
+            this.pin = pin;
+        }
+    }
+
+    private final Path file;
+    private final Path mountedRoot;
+    private final Sync sync;
+    private final long intervalMs;
+    private final long maxQueueBytes;
+    private final FileChannel channel;
+    private final Thread flusher;
+
+    // Stato della coda, protetto dal monitor del journal
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private long nextSeq;
+    private long queuedBytes;
+    private long pending;        // record accodati e non ancora applicati
+    private long appliedSeq;
+    private long lastTreeSeq;    // ultimo record che cambia la struttura dell'albero su disco
+    private boolean closed;
+
+    // Stato del thread di flush
+    private final Set<Path> toForce = new LinkedHashSet<>();   // file e directory applicati ma non forzati
+    private long lastApplied;    // ultimo record applicato al disco
+    private long headerSeq;      // sequenza scritta nell'header
+
+    // Metriche (scritte solo dal thread di flush)
+    private volatile long flushes;
+    private volatile long flushedRecords;
+    private volatile long fsyncs;
+    private volatile long flushNanosTotal;
+    private volatile long flushNanosMax;
+    private volatile long applyErrors;
+
+    private Journal(Path file, Path mountedRoot, Sync sync, long intervalMs, long maxQueueBytes) throws IOException {
+        this.file = file;
+        this.mountedRoot = mountedRoot;
+        this.sync = sync;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.maxQueueBytes = maxQueueBytes;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.channel.truncate(0);
+        writeHeader(0);
+        this.channel.position(HEADER);
+        this.nextSeq = 1;
+
+        this.flusher = new Thread(this::flushLoop, "journal-" + mountedRoot.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Il journal di una root vive accanto alla directory, non dentro
+    static Path pathFor(Path mountedRoot) {
+        return mountedRoot.resolveSibling(mountedRoot.getFileName() + ".journal");
+    }
+
+    // Da chiamare dopo il replay del mount: il file viene creato vuoto
+    static Journal open(Path mountedRoot, Sync sync, long intervalMs, long maxQueueBytes) throws IOException {
+        // se c'è ancora, il replay al mount è fallito: non va sovrascritto
+        if (Files.exists(pathFor(mountedRoot))) {
+            throw new IOException("journal non riapplicato: " + pathFor(mountedRoot));
+        }
+        return new Journal(pathFor(mountedRoot), mountedRoot, sync, intervalMs, maxQueueBytes);
+    }
+
+    // ===== Accodamento (chiamato dal FileSystem con i lock del path già presi) =====
+
+    // pin, se presente, è già stato pinnato dal chiamante prima di modificarne il
+    // contenuto; viene rilasciato quando il record è applicato al disco
+    Entry append(byte type, String path, String path2, long offset, byte[] data, FileNode pin) {
+        byte[] body = encode(type, path, path2, offset, data);
+        synchronized (this) {
+            // back-pressure: il contenuto in coda è pinnato in memoria
+            while (queuedBytes > maxQueueBytes && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            Entry e = new Entry(nextSeq++, type, body, pin);
+            if (type == MKDIR || type == MKNOD || type == SYMLINK || type == RENAME || type == REMOVE) {
+                lastTreeSeq = e.seq;
+            }
+            queue.add(e);
+            queuedBytes += body.length;
+            pending++;
+            notifyAll();
+            return e;
+        }
+    }
+
+    // Con Sync.ALWAYS attende che il record sia sul journal e sincronizzato; false se la scrittura è fallita
+    boolean awaitDurable(Entry e) {
+        if (sync != Sync.ALWAYS) return true;
+        synchronized (this) {
+            while (!e.done) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return e.durable;
+        }
+    }
+
+    // Attende che tutti i record che cambiano la struttura siano applicati al disco:
+    // va fatto prima di leggere dal disco un file non residente
+    synchronized void awaitTree() {
+        awaitApplied(lastTreeSeq);
+    }
+
+    // Attende che tutto ciò che è stato accodato finora sia applicato al disco
+    synchronized void drain() {
+        awaitApplied(nextSeq - 1);
+    }
+
+    private synchronized void awaitApplied(long seq) {
+        while (appliedSeq < seq && flusher.isAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Svuota la coda, sincronizza e ferma il thread di flush
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            if (sync != Sync.NEVER) channel.force(false);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("journal close failed for " + file + ": " + e.getMessage());
+        }
+    }
+
+    // ===== Thread di flush =====
+
+    private void flushLoop() {
+        long lastForce = System.nanoTime();
+        boolean unsynced = false;   // INTERVAL: journal scritto ma non ancora forzato
+        while (true) {
+            List<Entry> batch;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait(sync == Sync.INTERVAL && unsynced ? intervalMs : 0);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                    if (sync == Sync.INTERVAL && unsynced) break;   // fsync periodico anche a coda vuota
+                }
+                if (queue.isEmpty() && closed) {
+                    if (sync != Sync.NEVER) syncApplied();
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+
+            if (!batch.isEmpty()) {
+                long start = System.nanoTime();
+                boolean ok = writeBatch(batch);
+                if (ok && sync == Sync.ALWAYS) ok = force();
+                unsynced = sync == Sync.INTERVAL;
+                long elapsed = System.nanoTime() - start;
+                flushes++;
+                flushedRecords += batch.size();
+                flushNanosTotal += elapsed;
+                if (elapsed > flushNanosMax) flushNanosMax = elapsed;
+
+                synchronized (this) {
+                    for (Entry e : batch) {
+                        e.done = true;
+                        e.durable = ok;
+                    }
+                    notifyAll();
+                }
+                apply(batch);
+                if (sync == Sync.ALWAYS) {
+                    syncApplied();
+                } else if (sync == Sync.NEVER) {
+                    toForce.clear();
+                    updateHeader(lastApplied);
+                }
+            }
+
+            if (unsynced && System.nanoTime() - lastForce >= intervalMs * 1_000_000L) {
+                if (force()) syncApplied();
+                lastForce = System.nanoTime();
+                unsynced = false;
+            }
+            checkpoint();
+        }
+    }
+
+    // Group commit: tutti i record del gruppo con una sola write vettoriale
+    private boolean writeBatch(List<Entry> batch) {
+        ByteBuffer[] bufs = new ByteBuffer[batch.size() * 2];
+        long total = 0;
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry e = batch.get(i);
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+            crc.reset();
+            crc.update(ByteBuffer.allocate(8).putLong(0, e.seq));
+            crc.update(e.body);
+            header.putInt(e.body.length).putInt((int) crc.getValue()).putLong(e.seq).flip();
+            bufs[2 * i] = header;
+            bufs[2 * i + 1] = ByteBuffer.wrap(e.body);
+            total += FRAME_HEADER + e.body.length;
+        }
+        try {
+            while (total > 0) total -= channel.write(bufs);
+            return true;
+        } catch (IOException e) {
+            System.err.println("journal write failed for " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean force() {
+        try {
+            channel.force(false);
+            fsyncs++;
+            return true;
+        } catch (IOException e) {
+            System.err.println("journal fsync failed for " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Applica i record alla copia su disco, nell'ordine in cui sono stati accodati.
+    // L'header resta indietro finché i file toccati non sono forzati (syncApplied).
+    private void apply(List<Entry> batch) {
+        for (Entry e : batch) {
+            try {
+                applyRecord(mountedRoot, e.body, toForce);
+            } catch (IOException | RuntimeException ex) {
+                applyErrors++;
+                System.err.println("journal apply failed (seq " + e.seq + "): " + ex.getMessage());
+            }
+            lastApplied = e.seq;
+            if (e.pin != null) e.pin.unpin();
+            synchronized (this) {
+                appliedSeq = e.seq;
+                queuedBytes -= e.body.length;
+                pending--;
+                notifyAll();
+            }
+        }
+    }
+
+    // Forza i file toccati dai record applicati e solo dopo avanza l'header, così un
+    // crash del sistema non perde record che l'header dà per applicati. Se un fsync
+    // fallisce l'header resta dov'è e il replay ripeterà quei record.
+    private void syncApplied() {
+        if (headerSeq == lastApplied) return;
+        try {
+            forceAll(toForce);
+        } catch (IOException e) {
+            System.err.println("journal data fsync failed for " + file + ": " + e.getMessage());
+            return;
+        }
+        toForce.clear();
+        if (updateHeader(lastApplied)) force();
+    }
+
+    private boolean updateHeader(long seq) {
+        try {
+            writeHeader(seq);
+            headerSeq = seq;
+            return true;
+        } catch (IOException e) {
+            System.err.println("journal header update failed for " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // A coda vuota e header aggiornato tutto è applicato: il journal si può riportare al solo header
+    private void checkpoint() {
+        try {
+            synchronized (this) {
+                if (pending > 0 || headerSeq != lastApplied || channel.position() < CHECKPOINT_BYTES) return;
+            }
+            channel.truncate(HEADER);
+            channel.position(HEADER);
+            if (sync != Sync.NEVER) channel.force(false);
+        } catch (IOException e) {
+            System.err.println("journal checkpoint failed for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeHeader(long seq) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER).putLong(0, seq);
+        while (buf.hasRemaining()) channel.write(buf, buf.position());
+    }
+
+    // ===== Formato dei record =====
+
+    private static byte[] encode(byte type, String path, String path2, long offset, byte[] data) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64 + (data == null ? 0 : data.length));
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(type);
+            out.writeUTF(path);
+            out.writeUTF(path2 == null ? "" : path2);
+            out.writeLong(offset);
+            out.writeInt(data == null ? 0 : data.length);
+            if (data != null) out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // ByteArrayOutputStream non fallisce
+        }
+        return bos.toByteArray();
+    }
+
+    // Applica un record alla root reale e aggiunge a touched i file e le directory da
+    // forzare perché sia durevole. L'header avanza solo dopo l'fsync di un gruppo,
+    // quindi un replay può ripetere record già applicati su un disco che si trova in
+    // uno stato successivo (es. WRITE /a quando /a è ormai una directory): un record
+    // che non trova più il tipo atteso viene saltato, perché un record successivo ha
+    // già sostituito il path, e i record seguenti lo riportano allo stato finale
+    private static void applyRecord(Path root, byte[] body, Set<Path> touched) throws IOException {
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String path = in.readUTF();
+        String path2 = in.readUTF();
+        long offset = in.readLong();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+
+        Path rp = FileSystem.realPath(root, path);
+        switch (type) {
+            case MKDIR:
+                if (Files.exists(rp, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(rp)) break;
+                Files.createDirectories(rp);
+                touched.add(rp.getParent());
+                break;
+            case MKNOD:
+                createParents(rp);
+                if (!Files.exists(rp, LinkOption.NOFOLLOW_LINKS)) Files.createFile(rp);
+                touched.add(rp.getParent());
+                break;
+            case SYMLINK:
+                createParents(rp);
+                if (!Files.exists(rp, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        Files.createSymbolicLink(rp, Paths.get(path2));
+                    } catch (UnsupportedOperationException ex) {
+                        System.err.println("Symlink non supportato o richiede privilegi: " + ex.getMessage());
+                    }
+                }
+                touched.add(rp.getParent());
+                break;
+            case WRITE:
+                if (Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) break;
+                createParents(rp);
+                Files.write(rp, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE);
+                touched.add(rp);
+                touched.add(rp.getParent());
+                break;
+            case WRITE_AT:
+                if (Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) break;
+                try (FileChannel ch = FileChannel.open(rp, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    ByteBuffer buf = ByteBuffer.wrap(data);
+                    long pos = offset;
+                    while (buf.hasRemaining()) pos += ch.write(buf, pos);
+                }
+                touched.add(rp);
+                break;
+            case TRUNCATE:
+                if (Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) break;
+                try (FileChannel ch = FileChannel.open(rp, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    if (offset < ch.size()) {
+                        ch.truncate(offset);
+                    } else if (offset > ch.size()) {
+                        ch.write(ByteBuffer.wrap(new byte[1]), offset - 1);   // estende con zeri
+                    }
+                }
+                touched.add(rp);
+                break;
+            case RENAME:
+                // già applicato prima del crash: il vecchio path non c'è più
+                if (!Files.exists(rp, LinkOption.NOFOLLOW_LINKS)) break;
+                Path dest = FileSystem.realPath(root, path2);
+                // destinazione di tipo diverso: il path è stato ricreato dopo il rename
+                if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)
+                        && Files.isDirectory(dest, LinkOption.NOFOLLOW_LINKS) != Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) {
+                    break;
+                }
+                createParents(dest);
+                Files.move(rp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                touched.add(rp.getParent());
+                touched.add(dest.getParent());
+                break;
+            case REMOVE:
+                // directory ripopolata da record successivi: la svuoteranno loro
+                if (Files.isDirectory(rp, LinkOption.NOFOLLOW_LINKS)) {
+                    try (Stream<Path> children = Files.list(rp)) {
+                        if (children.findAny().isPresent()) break;
+                    }
+                }
+                Files.deleteIfExists(rp);
+                touched.add(rp.getParent());
+                break;
+            default:
+                throw new IOException("tipo di record sconosciuto: " + type);
+        }
+    }
+
+    private static void createParents(Path p) throws IOException {
+        if (p.getParent() != null) Files.createDirectories(p.getParent());
+    }
+
+    // fsync di file e directory (per le voci create, rinominate o rimosse). I path che
+    // non esistono più sono stati rimossi da un record successivo; le directory che la
+    // piattaforma non sa aprire in lettura (Windows) si saltano.
+    private static void forceAll(Set<Path> paths) throws IOException {
+        for (Path p : paths) {
+            if (p == null || !Files.exists(p, LinkOption.NOFOLLOW_LINKS)) continue;
+            boolean dir = Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS);
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                ch.force(true);
+            } catch (IOException e) {
+                if (!dir) throw e;
+            }
+        }
+    }
+
+    // Riapplica i record rimasti nel journal di mountedRoot dopo un arresto non pulito
+    // e rimuove il file. Restituisce il numero di record riapplicati. Come in apply un
+    // record che fallisce viene segnalato e si prosegue con i successivi: fermarsi
+    // perderebbe anche i record confermati dopo di lui.
+    static int replay(Path mountedRoot) throws IOException {
+        Path file = pathFor(mountedRoot);
+        if (!Files.exists(file)) return 0;
+
+        int replayed = 0;
+        Set<Path> touched = new LinkedHashSet<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (readFully(ch, header, 0)) {
+                long applied = header.getLong(0);
+                long pos = HEADER;
+                CRC32 crc = new CRC32();
+                ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER);
+                while (true) {
+                    frame.clear();
+                    if (!readFully(ch, frame, pos)) break;
+                    int len = frame.getInt(0);
+                    int sum = frame.getInt(4);
+                    long seq = frame.getLong(8);
+                    if (len < 0 || pos + FRAME_HEADER + len > ch.size()) break;   // record troncato
+                    ByteBuffer body = ByteBuffer.allocate(len);
+                    if (!readFully(ch, body, pos + FRAME_HEADER)) break;
+                    crc.reset();
+                    crc.update(ByteBuffer.allocate(8).putLong(0, seq));
+                    crc.update(body.array());
+                    if ((int) crc.getValue() != sum) break;   // record corrotto: fine del journal valido
+                    if (seq > applied) {
+                        try {
+                            applyRecord(mountedRoot, body.array(), touched);
+                            replayed++;
+                        } catch (IOException | RuntimeException ex) {
+                            System.err.println("journal replay failed (seq " + seq + "): " + ex.getMessage());
+                        }
+                    }
+                    pos += FRAME_HEADER + len;
+                }
+            }
+        }
+        forceAll(touched);   // il journal si può cancellare solo con i record riapplicati sul disco
+        Files.delete(file);
+        return replayed;
+    }
+
+    private static boolean readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    // ===== Metriche =====
+
+    public Sync getSync() { return sync; }
+    public synchronized long getQueueDepth() { return pending; }
+    public synchronized long getQueuedBytes() { return queuedBytes; }
+    public long getFlushes() { return flushes; }
+    public long getFsyncs() { return fsyncs; }
+    public long getApplyErrors() { return applyErrors; }
+    public long getFlushMaxMicros() { return flushNanosMax / 1000; }
+
+    public double getFlushAvgMicros() {
+        long n = flushes;
+        return n == 0 ? 0.0 : flushNanosTotal / 1000.0 / n;
+    }
+
+    // Record per group commit
+    public double getAvgBatch() {
+        long n = flushes;
+        return n == 0 ? 0.0 : (double) flushedRecords / n;
+    }
+}
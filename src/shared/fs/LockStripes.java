@@ -0,0 +1,31 @@
+package shared.fs;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Insieme fisso di lock read/write indicizzati per hash del path.
+ *
+ * Due path diversi possono condividere lo stesso lock (falsa contesa), ma la
+ * memoria occupata non cresce con il numero di path mai visti.
+ */
+class LockStripes {
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    LockStripes(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;   // potenza di 2
+        stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) stripes[i] = new ReentrantReadWriteLock();
+        mask = size - 1;
+    }
+
+    ReentrantReadWriteLock forPath(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);   // come HashMap: sparge i bit alti su quelli bassi
+        return stripes[h & mask];
+    }
+
+    int size() {
+        return stripes.length;
+    }
+}
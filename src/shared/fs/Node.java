@@ -3,20 +3,44 @@ import java.util.*;
 import java.util.Map;
 import java.util.HashMap;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 abstract class Node implements Serializable{
     private static final long serialVersionUID = 1L;
-    String name;
-    DirectoryNode parent; // to be implemented
+    volatile String name;
+    volatile DirectoryNode parent; // to be implemented
     long createdAt;
     long modifiedAt;
-    boolean isOpen = false;
+    volatile boolean isOpen = false;
+
+    // Versioni da un contatore unico del processo, inizializzato dall'orologio: ogni
+    // modifica produce una versione mai vista, anche se il path viene ricreato o il
+    // peer riavviato. Per i file cambia con il contenuto, per le directory con le voci.
+    private static final AtomicLong VERSIONS = new AtomicLong(System.currentTimeMillis() * 1000);
+    volatile long version = VERSIONS.incrementAndGet();
 
     public Node(String name){
 	this.name = name;
 	this.createdAt = System.currentTimeMillis();
 	this.modifiedAt = this.createdAt;
     }
+    // Modifica del contenuto: nuova data e nuova versione
+    void touch(){
+	this.modifiedAt = System.currentTimeMillis();
+	bumpVersion();
+    }
+
+    void bumpVersion(){
+	this.version = VERSIONS.incrementAndGet();
+    }
+
+    // Versione ricevuta da un altro peer (replica): il contatore locale la supera,
+    // così le modifiche successive restano crescenti
+    void adoptVersion(long v){
+	VERSIONS.accumulateAndGet(v, Math::max);
+	this.version = v;
+    }
+
     abstract boolean isDirectory();
     abstract boolean isSymlink();
 }
@@ -0,0 +1,74 @@
+package shared.fs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Path virtuale già scomposto nei suoi componenti.
+ *
+ * Le istanze sono immutabili e vengono riusate tramite una cache limitata:
+ * sui path caldi ParsedPath.of non alloca nulla e la risoluzione nell'albero
+ * lavora sui componenti senza split, stream o concatenazioni.
+ */
+public final class ParsedPath {
+    private static final int CACHE_LIMIT = 8192;
+    private static final ConcurrentHashMap<String, ParsedPath> CACHE = new ConcurrentHashMap<>();
+
+    public static final ParsedPath ROOT = new ParsedPath("/", new String[0]);
+
+    private final String path;
+    private final String[] parts;
+    private final String parentPath;   // null per la root
+
+    private ParsedPath(String path, String[] parts) {
+        this.path = path;
+        this.parts = parts;
+        this.parentPath = parts.length == 0 ? null : join(parts, parts.length - 1);
+    }
+
+    public static ParsedPath of(String path) {
+        ParsedPath pp = CACHE.get(path);
+        if (pp != null) return pp;
+
+        pp = parse(path);
+        if (CACHE.size() >= CACHE_LIMIT) CACHE.clear();   // cache limitata, niente LRU
+        CACHE.put(path, pp);
+        return pp;
+    }
+
+    private static ParsedPath parse(String path) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int len = path.length();
+        while (start < len) {
+            int slash = path.indexOf('/', start);
+            int end = slash < 0 ? len : slash;
+            if (end > start) parts.add(path.substring(start, end));
+            start = end + 1;
+        }
+        return parts.isEmpty() ? ROOT : new ParsedPath(path, parts.toArray(new String[0]));
+    }
+
+    private static String join(String[] parts, int count) {
+        if (count == 0) return "/";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append('/').append(parts[i]);
+        return sb.toString();
+    }
+
+    public int depth() { return parts.length; }
+
+    public String part(int i) { return parts[i]; }
+
+    // Ultimo componente, null per la root
+    public String name() { return parts.length == 0 ? null : parts[parts.length - 1]; }
+
+    // Path del padre ("/a/b/c" → "/a/b", "/a" → "/"), null per la root
+    public String parentPath() { return parentPath; }
+
+    public boolean isRoot() { return parts.length == 0; }
+
+    @Override
+    public String toString() { return path; }
+}
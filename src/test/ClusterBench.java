@@ -0,0 +1,224 @@
+package test;
+
+import peer.DistributedNode;
+import shared.FileSystemInterface;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmark di carico su una rete di peer.
+ *
+ * Avvia N DistributedNode in-process su loopback (porte RMI da 1600, full mesh),
+ * prepara un namespace di directory e file distribuiti su tutti i peer e poi,
+ * per una durata fissa, fa eseguire a T client un mix configurabile di read,
+ * write, mkdir e readdir. Ogni client parla RMI con un peer scelto a caso, come un
+ * client vero, quindi la misura comprende l'inoltro tra peer. Alla fine riporta
+ * per ogni operazione throughput e latenze (p50, p99, p999, max) da istogrammi.
+ *
+ * Con lo stesso seed la sequenza di operazioni di ogni client è la stessa, così i
+ * risultati di due versioni sono confrontabili. Le proprietà ptpvfs.* (trasporto,
+ * placement, replicazione...) si passano alla JVM come per i peer.
+ *
+ * Uso: java test.ClusterBench [chiave=valore...]
+ *   nodes=4 threads=8 seconds=10 warmup=3 mix=read:70,write:20,mkdir:5,readdir:5
+ *   dirs=16 files=512 size=4096 seed=42
+ */
+public class ClusterBench {
+    private static final int BASE_PORT = 1600;
+    private static final String[] OPS = {"read", "write", "mkdir", "readdir"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new LinkedHashMap<>();
+        opt.put("nodes", "4");
+        opt.put("threads", "8");
+        opt.put("seconds", "10");
+        opt.put("warmup", "3");
+        opt.put("mix", "read:70,write:20,mkdir:5,readdir:5");
+        opt.put("dirs", "16");
+        opt.put("files", "512");
+        opt.put("size", "4096");
+        opt.put("seed", "42");
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq < 0 || !opt.containsKey(a.substring(0, eq))) {
+                System.err.println("Opzione sconosciuta: " + a + " (valide: " + opt.keySet() + ")");
+                System.exit(1);
+            }
+            opt.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        int nodes = Integer.parseInt(opt.get("nodes"));
+        int threads = Integer.parseInt(opt.get("threads"));
+        int dirs = Integer.parseInt(opt.get("dirs"));
+        int files = Integer.parseInt(opt.get("files"));
+        byte[] payload = new byte[Integer.parseInt(opt.get("size"))];
+        long seed = Long.parseLong(opt.get("seed"));
+        int[] weights = parseMix(opt.get("mix"));
+        System.out.println("ClusterBench " + opt);
+
+        // === Rete
+        List<DistributedNode> cluster = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            Path dir = Files.createTempDirectory("ptpvfs-bench");
+            DistributedNode node = new DistributedNode("N" + i, "localhost", BASE_PORT + i, dir.toString());
+            node.start();
+            cluster.add(node);
+        }
+        for (DistributedNode a : cluster) {
+            for (DistributedNode b : cluster) {
+                if (a != b) a.addNeighbor(b.getName(), b.getHost(), b.getPort());
+            }
+        }
+        List<FileSystemInterface> stubs = new ArrayList<>();
+        for (DistributedNode n : cluster) {
+            stubs.add((FileSystemInterface) LocateRegistry.getRegistry("localhost", n.getPort()).lookup(n.getName()));
+        }
+
+        // === Namespace: directory e file creati a turno dai peer, quindi distribuiti
+        Random setup = new Random(seed);
+        stubs.get(0).mkdir("/bench");
+        for (int d = 0; d < dirs; d++) stubs.get(d % nodes).mkdir("/bench/d" + d);
+        String[] paths = new String[files];
+        for (int f = 0; f < files; f++) {
+            paths[f] = "/bench/d" + (f % dirs) + "/f" + f;
+            FileSystemInterface fs = stubs.get(setup.nextInt(nodes));
+            fs.mknod(paths[f]);
+            fs.write(paths[f], payload);
+        }
+
+        // === Carico
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, new Random(seed + t), stubs, paths, dirs, payload, weights);
+        }
+        long warmupMs = Long.parseLong(opt.get("warmup")) * 1000;
+        long measureMs = Long.parseLong(opt.get("seconds")) * 1000;
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> running = new ArrayList<>();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupMs * 1_000_000;
+        long end = measureFrom + measureMs * 1_000_000;
+        for (Worker w : workers) {
+            Thread th = new Thread(() -> {
+                try {
+                    w.run(measureFrom, end);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "bench-client-" + w.id);
+            running.add(th);
+            th.start();
+        }
+        for (Thread th : running) th.join();
+        if (failure.get() != null) throw failure.get();
+
+        // === Risultati
+        double seconds = measureMs / 1000.0;
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s %8s%n",
+                          "op", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "failed");
+        Histogram all = new Histogram();
+        long failedAll = 0;
+        for (int o = 0; o < OPS.length; o++) {
+            Histogram h = new Histogram();
+            long failed = 0;
+            for (Worker w : workers) {
+                h.merge(w.latencies[o]);
+                failed += w.failed[o];
+            }
+            if (h.count() == 0) continue;
+            print(OPS[o], h, failed, seconds);
+            all.merge(h);
+            failedAll += failed;
+        }
+        print("total", all, failedAll, seconds);
+
+        long received = 0;
+        for (DistributedNode n : cluster) received += (Long) n.stats().get("requests.received");
+        System.out.printf("richieste elaborate dai peer: %d (%.2f per operazione, setup compreso)%n",
+                          received, (double) received / Math.max(1, all.count()));
+        System.exit(0);   // i nodi RMI esportati terrebbero viva la JVM
+    }
+
+    private static void print(String name, Histogram h, long failed, double seconds) {
+        System.out.printf("%-8s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %8d%n", name, h.count(), h.count() / seconds,
+                          h.percentile(0.50) / 1000.0, h.percentile(0.99) / 1000.0,
+                          h.percentile(0.999) / 1000.0, h.max() / 1000.0, failed);
+    }
+
+    // "read:70,write:20" → pesi nell'ordine di OPS
+    private static int[] parseMix(String mix) {
+        int[] w = new int[OPS.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split(":");
+            int o = java.util.Arrays.asList(OPS).indexOf(kv[0].trim());
+            if (o < 0 || kv.length != 2) throw new IllegalArgumentException("mix non valido: " + part);
+            w[o] = Integer.parseInt(kv[1].trim());
+        }
+        return w;
+    }
+
+    // Un client: operazioni estratte dal mix, su un peer a caso per ciascuna
+    private static final class Worker {
+        final int id;
+        final Random rnd;
+        final List<FileSystemInterface> stubs;
+        final String[] paths;
+        final int dirs;
+        final byte[] payload;
+        final int[] weights;
+        final int totalWeight;
+        final Histogram[] latencies = new Histogram[OPS.length];
+        final long[] failed = new long[OPS.length];
+        int created;
+
+        Worker(int id, Random rnd, List<FileSystemInterface> stubs, String[] paths, int dirs, byte[] payload, int[] weights) {
+            this.id = id;
+            this.rnd = rnd;
+            this.stubs = stubs;
+            this.paths = paths;
+            this.dirs = dirs;
+            this.payload = payload;
+            this.weights = weights;
+            int sum = 0;
+            for (int w : weights) sum += w;
+            this.totalWeight = sum;
+            for (int o = 0; o < OPS.length; o++) latencies[o] = new Histogram();
+        }
+
+        void run(long measureFrom, long end) throws Exception {
+            while (true) {
+                int op = pick();
+                FileSystemInterface fs = stubs.get(rnd.nextInt(stubs.size()));
+                long t0 = System.nanoTime();
+                if (t0 >= end) return;
+                boolean ok;
+                switch (op) {
+                    case 0:  ok = fs.read(paths[rnd.nextInt(paths.length)]) != null; break;
+                    case 1:  ok = fs.write(paths[rnd.nextInt(paths.length)], payload); break;
+                    case 2:  ok = fs.mkdir("/bench/d" + rnd.nextInt(dirs) + "/c" + id + "-" + created++); break;
+                    default: ok = fs.readdir("/bench/d" + rnd.nextInt(dirs)) != null; break;
+                }
+                long elapsed = System.nanoTime() - t0;
+                if (t0 < measureFrom) continue;   // warmup
+                latencies[op].record(elapsed);
+                if (!ok) failed[op]++;
+            }
+        }
+
+        private int pick() {
+            int r = rnd.nextInt(totalWeight);
+            for (int o = 0; o < weights.length; o++) {
+                r -= weights[o];
+                if (r < 0) return o;
+            }
+            return weights.length - 1;
+        }
+    }
+}
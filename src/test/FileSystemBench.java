@@ -0,0 +1,123 @@
+package test;
+
+import shared.fs.FileSystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Microbenchmark delle operazioni di shared.fs.FileSystem.
+ *
+ * Su un file system in memoria già popolato misura, su un thread, tempo e byte
+ * allocati per operazione di getattr, read, write, scrittura a offset, append,
+ * mknod+unlink, readdir e writeIfVersion; poi ripete le stesse operazioni con più
+ * thread su file distinti della stessa directory per vedere il costo dei lock
+ * (throughput e percentili da istogrammi). Stesso harness di ResolveBench
+ * (warmup + misura), pensato per confronti relativi tra versioni.
+ *
+ * Uso: java test.FileSystemBench [iterazioni] [thread]
+ */
+public class FileSystemBench {
+    private static final int FILES = 1024;
+    private static final int SIZE = 4096;
+    private static volatile Object sink;
+
+    interface Op {
+        Object run(int thread, int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        FileSystem fs = new FileSystem();
+        byte[] payload = new byte[SIZE];
+        byte[] small = new byte[64];
+        fs.mkdir("/bench");
+        for (int t = 0; t < threads; t++) fs.mkdir("/bench/t" + t);
+        String[] files = new String[FILES];
+        for (int f = 0; f < FILES; f++) {
+            files[f] = "/bench/f" + f;
+            fs.mknod(files[f]);
+            fs.write(files[f], payload);
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Op> ops = new ArrayList<>();
+        names.add("getattr");        ops.add((t, i) -> fs.getattr(files[i % FILES]));
+        names.add("read");           ops.add((t, i) -> fs.read(files[i % FILES]));
+        names.add("write");          ops.add((t, i) -> fs.write(files[i % FILES], payload));
+        names.add("write@offset");   ops.add((t, i) -> fs.write(files[i % FILES], (i * 64L) % SIZE, small));
+        names.add("append+truncate"); ops.add((t, i) -> fs.append(files[i % FILES], small) && fs.truncate(files[i % FILES], SIZE));
+        names.add("mknod+unlink");   ops.add((t, i) -> fs.mknod("/bench/t" + t + "/n" + i) && fs.unlink("/bench/t" + t + "/n" + i));
+        names.add("readdir");        ops.add((t, i) -> fs.readdir("/bench"));
+        names.add("writeIfVersion"); ops.add((t, i) -> {
+            String path = files[i % FILES];
+            return fs.writeIfVersion(path, (Long) fs.getattr(path).get("version"), payload);
+        });
+
+        System.out.printf("%-16s %12s %12s%n", "benchmark", "ns/op", "B/op");
+        for (int o = 0; o < ops.size(); o++) {
+            Op op = ops.get(o);
+            int[] i = {0};
+            single(names.get(o), iterations, () -> op.run(0, i[0]++));
+        }
+
+        System.out.printf("%n%d thread, file distinti per thread%n", threads);
+        System.out.printf("%-16s %12s %10s %10s %10s%n", "benchmark", "ops/s", "p50 ns", "p99 ns", "p999 ns");
+        for (int o = 0; o < ops.size(); o++) {
+            concurrent(names.get(o), ops.get(o), iterations, threads);
+        }
+    }
+
+    private static void single(String name, int iterations, Supplier<Object> op) {
+        for (int i = 0; i < iterations / 5; i++) sink = op.get();   // warmup
+
+        com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink = op.get();
+        long elapsed = System.nanoTime() - start;
+        long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+
+        System.out.printf("%-16s %12.1f %12.1f%n", name,
+                          (double) elapsed / iterations, (double) bytes / iterations);
+    }
+
+    // Ogni thread lavora su una fetta diversa dei file (e sulla propria directory per mknod)
+    private static void concurrent(String name, Op op, int iterations, int threads) throws InterruptedException {
+        int perThread = iterations / threads;
+        Histogram[] hist = new Histogram[threads];
+        long[] from = new long[threads];
+        long[] to = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            int base = t * (FILES / threads);
+            hist[t] = new Histogram();
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread / 5; i++) sink = op.run(thread, base + i % (FILES / threads));
+                from[thread] = System.nanoTime();
+                for (int i = 0; i < perThread; i++) {
+                    long t0 = System.nanoTime();
+                    sink = op.run(thread, base + i % (FILES / threads));
+                    hist[thread].record(System.nanoTime() - t0);
+                }
+                to[thread] = System.nanoTime();
+            });
+        }
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        // finestra di misura: dalla prima partenza dopo il warmup all'ultima fine
+        long elapsed = java.util.Arrays.stream(to).max().getAsLong() - java.util.Arrays.stream(from).min().getAsLong();
+
+        Histogram all = new Histogram();
+        for (Histogram h : hist) all.merge(h);
+        System.out.printf("%-16s %12.0f %10d %10d %10d%n", name, all.count() * 1e9 / elapsed,
+                          all.percentile(0.50), all.percentile(0.99), all.percentile(0.999));
+    }
+}
@@ -0,0 +1,100 @@
+package test;
+
+import peer.DistributedNode;
+import shared.RequestContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Conta i messaggi tra peer generati da una singola richiesta al variare del
+ * numero di peer.
+ *
+ * Per ogni dimensione avvia N nodi in-process (porte RMI da 1400), li collega in
+ * full mesh o ad anello e da un nodo esegue una locate e una pathExists di un
+ * path inesistente (flooding completo), una readdir della root (fan-out) e la
+ * read di un file presente solo sul peer più lontano. I messaggi sono le richieste
+ * ricevute da tutti i peer (requests.received), chiamata iniziale compresa; con
+ * id di richiesta, seen-set e peer coperti devono crescere linearmente con N.
+ *
+ * Uso: java test.FloodMessages [mesh|ring] [N...]
+ */
+public class FloodMessages {
+    private static final int BASE_PORT = 1400;
+
+    public static void main(String[] args) throws Exception {
+        String topology = args.length > 0 ? args[0] : "mesh";
+        int[] sizes = args.length > 1
+            ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+            : new int[] {2, 4, 8, 16};
+
+        List<DistributedNode> nodes = new ArrayList<>();
+        System.out.printf("%-8s %4s %-10s %9s %9s %11s%n", "topology", "N", "op", "messages", "per peer", "duplicates");
+        for (int n : sizes) {
+            // i nodi già avviati si riusano: le porte restano esportate fino all'uscita
+            while (nodes.size() < n) nodes.add(startNode(nodes.size()));
+            List<DistributedNode> cluster = nodes.subList(0, n);
+            connect(cluster, topology);
+
+            DistributedNode origin = cluster.get(0);
+            String far = "/far-" + n + ".txt";   // sul peer più lontano dall'origine
+            cluster.get(topology.equals("ring") ? n / 2 : n - 1).mknod(far);
+
+            measure(topology, cluster, "locate", () -> origin.locate("/missing"));
+            measure(topology, cluster, "exists", () -> origin.pathExistsWithVisited("/missing", RequestContext.create()));
+            measure(topology, cluster, "readdir", () -> origin.readdir("/"));
+            measure(topology, cluster, "read", () -> origin.read(far));
+        }
+        System.exit(0);   // i nodi RMI esportati terrebbero viva la JVM
+    }
+
+    @FunctionalInterface
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private static DistributedNode startNode(int i) throws Exception {
+        Path dir = Files.createTempDirectory("ptpvfs-flood");
+        DistributedNode node = new DistributedNode("P" + i, "localhost", BASE_PORT + i, dir.toString());
+        node.start();
+        return node;
+    }
+
+    // Ricollega da capo i nodi del cluster secondo la topologia
+    private static void connect(List<DistributedNode> cluster, String topology) throws Exception {
+        int n = cluster.size();
+        for (DistributedNode a : cluster) {
+            for (String entry : a.getNeighbors()) a.removeNeighbor(entry.split(":")[0]);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                boolean linked = topology.equals("ring")
+                    ? (j == (i + 1) % n || i == (j + 1) % n)
+                    : i != j;
+                if (linked && i != j) {
+                    DistributedNode b = cluster.get(j);
+                    cluster.get(i).addNeighbor(b.getName(), b.getHost(), b.getPort());
+                }
+            }
+        }
+    }
+
+    private static void measure(String topology, List<DistributedNode> cluster, String name, Op op) throws Exception {
+        op.run();   // warmup: stub risolti e indice popolato come a regime
+        long received = counter(cluster, "requests.received");
+        long duplicates = counter(cluster, "requests.duplicates");
+        op.run();
+        long msgs = counter(cluster, "requests.received") - received;
+        System.out.printf("%-8s %4d %-10s %9d %9.2f %11d%n", topology, cluster.size(), name, msgs,
+                          (double) msgs / cluster.size(), counter(cluster, "requests.duplicates") - duplicates);
+    }
+
+    private static long counter(List<DistributedNode> cluster, String key) throws Exception {
+        long sum = 0;
+        for (DistributedNode node : cluster) sum += (Long) node.stats().get(key);
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package test;
+
+/**
+ * Istogramma di latenze a bucket log-lineari (stile HdrHistogram), per i benchmark.
+ *
+ * I valori in nanosecondi sono divisi per potenza di due e, dentro ciascuna, in
+ * SUB_BUCKETS intervalli uguali: l'errore relativo dei percentili resta sotto
+ * 1/SUB_BUCKETS (~0.8%) da 1 ns a ore, con memoria fissa e record() senza
+ * allocazioni. Non è thread-safe: ogni thread registra nel proprio istogramma e
+ * alla fine si uniscono con merge().
+ */
+final class Histogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;   // 128 intervalli per ottava
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+    private long total;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        total++;
+        sum += nanos;
+        if (nanos < min) min = nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    void merge(Histogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long count() { return total; }
+    long max() { return max; }
+    long min() { return total == 0 ? 0 : min; }
+    double mean() { return total == 0 ? 0 : (double) sum / total; }
+
+    // Valore (limite superiore del bucket) sotto cui cade la frazione p dei campioni
+    long percentile(double p) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(p * total);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    // Valori sotto SUB_BUCKETS esatti; sopra, bucket di ampiezza 2^(esponente - SUB_BITS)
+    private static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);   // v in [2^exp, 2^(exp+1))
+        int shift = exp - SUB_BITS;
+        int sub = (int) (v >>> shift) - SUB_BUCKETS;    // 0 .. SUB_BUCKETS-1
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,103 @@
+package test;
+
+import peer.DistributedNode;
+import peer.HashRing;
+import shared.FileSystemInterface;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scrittura condizionale su un file replicato inviata a una replica secondaria
+ * rimasta indietro.
+ *
+ * Avvia due peer in-process con placement hash e replicazione 2, così entrambi
+ * hanno ogni file. Il primario riceve poi una versione più recente che la
+ * secondaria non vede; una writeIfVersion mandata alla secondaria con la sua
+ * versione (ormai vecchia) deve essere rifiutata dal primario, e il rifiuto non
+ * deve tradursi in una scrittura locale della secondaria propagata al primario.
+ * Alla fine una writeIfVersion con la versione giusta, sempre dalla secondaria,
+ * deve arrivare uguale su entrambe le repliche.
+ *
+ * Uso: java test.ReplicaCas
+ */
+public class ReplicaCas {
+    private static final int BASE_PORT = 1650;
+    private static final String PATH = "/cas.txt";
+
+    public static void main(String[] args) throws Exception {
+        // prima di caricare DistributedNode, che legge le proprietà all'avvio
+        System.setProperty("ptpvfs.placement", "hash");
+        System.setProperty("ptpvfs.replication", "2");
+
+        List<DistributedNode> cluster = new ArrayList<>();
+        HashRing ring = new HashRing(Integer.getInteger("ptpvfs.placement.vnodes", 64));
+        for (int i = 0; i < 2; i++) {
+            DistributedNode node = new DistributedNode("R" + i, "localhost", BASE_PORT + i,
+                                                       Files.createTempDirectory("ptpvfs-cas").toString());
+            node.start();
+            cluster.add(node);
+            ring.add(node.getName());
+        }
+        cluster.get(0).addNeighbor("R1", "localhost", BASE_PORT + 1);
+        cluster.get(1).addNeighbor("R0", "localhost", BASE_PORT);
+
+        String primaryName = ring.ownersOf(PATH, 2).get(0);
+        DistributedNode primary = cluster.get(primaryName.equals("R0") ? 0 : 1);
+        DistributedNode secondary = cluster.get(primaryName.equals("R0") ? 1 : 0);
+        FileSystemInterface viaSecondary = (FileSystemInterface) LocateRegistry
+            .getRegistry("localhost", secondary.getPort()).lookup(secondary.getName());
+
+        List<String> problems = new ArrayList<>();
+        viaSecondary.mknod(PATH);
+        viaSecondary.write(PATH, bytes("v1"));
+        expect(problems, "dopo la prima scrittura", primary, secondary, "v1", "v1");
+
+        // il primario va avanti da solo: la secondaria resta alla versione precedente
+        long stale = version(secondary);
+        primary.adopt(PATH, bytes("primario"), System.currentTimeMillis() + 1000, version(primary) + 1);
+
+        long res = viaSecondary.writeIfVersion(PATH, stale, bytes("vecchia"));
+        if (res != -1) problems.add("writeIfVersion con versione superata accettata (" + res + ")");
+        expect(problems, "dopo il rifiuto", primary, secondary, "primario", "v1");
+
+        long fresh = version(primary);
+        res = viaSecondary.writeIfVersion(PATH, fresh, bytes("v3"));
+        if (res <= fresh) problems.add("writeIfVersion con la versione del primario rifiutata (" + res + ")");
+        expect(problems, "dopo la scrittura condizionale", primary, secondary, "v3", "v3");
+
+        System.out.println("primario " + primary.getName() + ", secondaria " + secondary.getName());
+        if (problems.isEmpty()) {
+            System.out.println("OK: il rifiuto del primario è definitivo e le repliche restano allineate a lui");
+        } else {
+            problems.forEach(p -> System.out.println("ERRORE: " + p));
+        }
+        System.exit(problems.isEmpty() ? 0 : 1);   // i nodi RMI esportati terrebbero viva la JVM
+    }
+
+    // Contenuto atteso delle due copie, lette ciascuna dal proprio peer
+    private static void expect(List<String> problems, String when, DistributedNode primary,
+                               DistributedNode secondary, String onPrimary, String onSecondary) throws Exception {
+        String p = text(primary.read(PATH));
+        String s = text(secondary.read(PATH));
+        if (!onPrimary.equals(p)) problems.add(when + ": primario " + p + ", atteso " + onPrimary);
+        if (!onSecondary.equals(s)) problems.add(when + ": secondaria " + s + ", attesa " + onSecondary);
+    }
+
+    private static long version(DistributedNode node) throws Exception {
+        Map<String, Object> attr = node.getattr(PATH);
+        return (Long) attr.get("version");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] data) {
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package test;
+
+import peer.DistributedNode;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rename di un file replicato mentre una replica non è raggiungibile.
+ *
+ * Avvia due peer in-process con placement hash e replicazione 2, così entrambi
+ * hanno ogni file. R0 rinomina il file mentre non vede R1, che resta con la copia
+ * sotto il vecchio nome. Quando i due si ritrovano, la riparazione in background
+ * non deve rimandare il vecchio path a R0 ma cancellarlo da R1: alla fine entrambi
+ * hanno solo il nuovo path. Un secondo rename che riporta il file al nome di
+ * partenza non deve essere annullato dalla lapide del primo.
+ *
+ * Uso: java test.ReplicaRename
+ */
+public class ReplicaRename {
+    private static final int BASE_PORT = 1660;
+    private static final String OLD = "/vecchio.txt";
+    private static final String NEW = "/nuovo.txt";
+
+    public static void main(String[] args) throws Exception {
+        // prima di caricare DistributedNode, che legge le proprietà all'avvio
+        System.setProperty("ptpvfs.placement", "hash");
+        System.setProperty("ptpvfs.replication", "2");
+        System.setProperty("ptpvfs.replication.repairMs", "300");
+        System.setProperty("ptpvfs.gossip", "false");
+
+        List<DistributedNode> cluster = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            DistributedNode node = new DistributedNode("N" + i, "localhost", BASE_PORT + i,
+                                                       Files.createTempDirectory("ptpvfs-rename").toString());
+            node.start();
+            cluster.add(node);
+        }
+        DistributedNode a = cluster.get(0);
+        DistributedNode b = cluster.get(1);
+        a.addNeighbor("N1", "localhost", BASE_PORT + 1);
+        b.addNeighbor("N0", "localhost", BASE_PORT);
+
+        List<String> problems = new ArrayList<>();
+        a.mknod(OLD);
+        a.write(OLD, "dati".getBytes(StandardCharsets.UTF_8));
+        expect(problems, "dopo la creazione", a, b, true, false);
+
+        // N0 non vede N1 mentre rinomina: N1 resta con il vecchio path
+        a.removeNeighbor("N1");
+        if (!a.rename(OLD, NEW)) problems.add("rename rifiutato");
+        a.addNeighbor("N1", "localhost", BASE_PORT + 1);
+        Thread.sleep(2000);
+        expect(problems, "dopo la riparazione", a, b, false, true);
+
+        // di nuovo al nome di partenza, con entrambi raggiungibili
+        if (!a.rename(NEW, OLD)) problems.add("secondo rename rifiutato");
+        Thread.sleep(2000);
+        expect(problems, "dopo il secondo rename", a, b, true, false);
+
+        if (problems.isEmpty()) {
+            System.out.println("OK: il vecchio path non torna e il nuovo è su entrambe le repliche");
+        } else {
+            problems.forEach(p -> System.out.println("ERRORE: " + p));
+        }
+        System.exit(problems.isEmpty() ? 0 : 1);   // i nodi RMI esportati terrebbero viva la JVM
+    }
+
+    // Presenza dei due path sulle copie locali di entrambi i peer
+    private static void expect(List<String> problems, String when, DistributedNode a, DistributedNode b,
+                               boolean old, boolean renamed) throws Exception {
+        for (DistributedNode node : new DistributedNode[]{a, b}) {
+            if ((node.getattr(OLD) != null) != old) {
+                problems.add(when + ": " + node.getName() + (old ? " non ha " : " ha ancora ") + OLD);
+            }
+            if ((node.getattr(NEW) != null) != renamed) {
+                problems.add(when + ": " + node.getName() + (renamed ? " non ha " : " ha ancora ") + NEW);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package test;
+
+import shared.fs.FileSystem;
+import shared.fs.ParsedPath;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Microbenchmark della risoluzione dei path in shared.fs.FileSystem.
+ *
+ * Per varie profondità misura tempo e byte allocati per operazione di lookup
+ * e getattr, e confronta il parsing con ParsedPath con il vecchio tokenize
+ * basato su split/stream. Harness minimale (warmup + misura su un thread),
+ * pensato per confronti relativi tra versioni.
+ *
+ * Uso: java test.ResolveBench [iterazioni]
+ */
+public class ResolveBench {
+    private static final int[] DEPTHS = {1, 4, 8, 16};
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        FileSystem fs = new FileSystem();
+        String dir = "";
+        for (int d = 0; d < DEPTHS[DEPTHS.length - 1]; d++) {
+            dir = dir + "/level" + d;
+            fs.mkdir(dir);
+            fs.mknod(dir + "/file");
+        }
+
+        System.out.printf("%-22s %6s %12s %12s%n", "benchmark", "depth", "ns/op", "B/op");
+        for (int depth : DEPTHS) {
+            String path = pathAtDepth(depth);
+            run("lookup", depth, iterations, () -> fs.lookup(path));
+            run("getattr", depth, iterations, () -> fs.getattr(path));
+            run("parse (ParsedPath)", depth, iterations, () -> ParsedPath.of(path));
+            run("parse (split/stream)", depth, iterations, () -> legacyTokenize(path));
+        }
+    }
+
+    // path di un file a profondità depth (la directory contenitore è a depth - 1)
+    private static String pathAtDepth(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int d = 0; d < depth - 1; d++) sb.append("/level").append(d);
+        return sb.append("/file").toString();
+    }
+
+    // Il tokenize usato da FileSystem prima di ParsedPath, per confronto
+    private static String[] legacyTokenize(String path) {
+        return Arrays.stream(path.split("/")).filter(p -> !p.isEmpty()).toArray(String[]::new);
+    }
+
+    private static void run(String name, int depth, int iterations, Supplier<Object> op) {
+        for (int i = 0; i < iterations / 5; i++) sink = op.get();   // warmup
+
+        com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink = op.get();
+        long elapsed = System.nanoTime() - start;
+        long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+
+        System.out.printf("%-22s %6d %12.1f %12.1f%n", name, depth,
+                          (double) elapsed / iterations, (double) bytes / iterations);
+    }
+}
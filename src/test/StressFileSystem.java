@@ -0,0 +1,163 @@
+package test;
+
+import shared.fs.FileSystem;
+import shared.fs.Journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Stress test multithread di shared.fs.FileSystem.
+ *
+ * Più thread eseguono operazioni casuali (create, write, append, truncate,
+ * rename, rmdir, letture) su un namespace piccolo, così da collidere spesso.
+ * Alla fine si verifica che l'albero in memoria coincida con la copia su disco
+ * e con un nuovo mount della stessa directory. Con una politica di fsync come
+ * terzo argomento il FileSystem lavora in write-behind e la verifica avviene
+ * dopo aver svuotato il journal.
+ *
+ * Uso: java test.StressFileSystem [threads] [secondi] [always|interval|never]
+ */
+public class StressFileSystem {
+    private static final String[] DIRS = {"/d0", "/d1", "/d2", "/d0/s0", "/d1/s1"};
+    private static final String[] NAMES = {"f0", "f1", "f2", "f3", "f4", "f5"};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path root = Files.createTempDirectory("ptpvfs-stress");
+        FileSystem fs = FileSystem.mount(root.toString(), false);
+        fs.setCacheBudget(16 * 1024);   // forza anche il rilascio del contenuto
+        if (args.length > 2) fs.enableJournal(Journal.Sync.valueOf(args[2].toUpperCase()), 10, 1 << 20);
+
+        AtomicLong ops = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread w = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        randomOp(fs, rnd);
+                        ops.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "stress-" + t);
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+        fs.closeJournal();   // applica al disco i record ancora in coda
+
+        List<String> problems = new ArrayList<>();
+        if (failure.get() != null) {
+            problems.add("eccezione in un worker: " + failure.get());
+            failure.get().printStackTrace();
+        }
+        verifyAgainstDisk(fs, root, problems);
+        verifyRemount(fs, root, problems);
+
+        System.out.println(threads + " thread, " + ops.get() + " operazioni in " + seconds + " s");
+        deleteTree(root);
+        if (problems.isEmpty()) {
+            System.out.println("OK: albero in memoria coerente con il disco");
+        } else {
+            problems.forEach(p -> System.out.println("ERRORE: " + p));
+            System.exit(1);
+        }
+    }
+
+    private static void randomOp(FileSystem fs, Random rnd) {
+        String dir = DIRS[rnd.nextInt(DIRS.length)];
+        String file = dir + "/" + NAMES[rnd.nextInt(NAMES.length)];
+        byte[] payload = new byte[rnd.nextInt(2048)];
+        rnd.nextBytes(payload);
+
+        switch (rnd.nextInt(12)) {
+            case 0: fs.mkdir(dir); break;
+            case 1: fs.mknod(file); break;
+            case 2: fs.write(file, payload); break;
+            case 3: fs.append(file, payload); break;
+            case 4: fs.write(file, rnd.nextInt(4096), payload); break;
+            case 5: fs.truncate(file, rnd.nextInt(4096)); break;
+            case 6: fs.rename(file, DIRS[rnd.nextInt(DIRS.length)] + "/" + NAMES[rnd.nextInt(NAMES.length)]); break;
+            case 7: fs.rename(dir, DIRS[rnd.nextInt(DIRS.length)]); break;
+            case 8: fs.rmdir(dir); break;
+            case 9: fs.readdir(dir); break;
+            case 10: fs.getattr(file); break;
+            default: fs.read(file); break;
+        }
+    }
+
+    // Ogni path in memoria esiste su disco con lo stesso tipo e contenuto, e viceversa
+    private static void verifyAgainstDisk(FileSystem fs, Path root, List<String> problems) throws IOException {
+        TreeSet<String> inMemory = new TreeSet<>();
+        collect(fs, "/", inMemory);
+
+        TreeSet<String> onDisk = new TreeSet<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(p -> !p.equals(root))
+                .forEach(p -> onDisk.add("/" + root.relativize(p).toString().replace('\\', '/')));
+        }
+        if (!inMemory.equals(onDisk)) {
+            problems.add("path diversi tra memoria e disco: memoria=" + inMemory + " disco=" + onDisk);
+            return;
+        }
+
+        for (String p : inMemory) {
+            Map<String, Object> attr = fs.getattr(p);
+            Path real = root.resolve(p.substring(1));
+            boolean isDir = "DirectoryNode".equals(attr.get("type"));
+            if (isDir != Files.isDirectory(real)) {
+                problems.add("tipo diverso per " + p);
+            } else if (!isDir) {
+                byte[] mem = fs.read(p);
+                byte[] disk = Files.readAllBytes(real);
+                if (!Arrays.equals(mem, disk)) problems.add("contenuto diverso per " + p);
+                if (((Long) attr.get("size")) != disk.length) problems.add("size diversa per " + p);
+            }
+        }
+    }
+
+    // Un nuovo mount della stessa root deve vedere lo stesso albero
+    private static void verifyRemount(FileSystem fs, Path root, List<String> problems) {
+        TreeSet<String> before = new TreeSet<>();
+        collect(fs, "/", before);
+        TreeSet<String> after = new TreeSet<>();
+        collect(FileSystem.mount(root.toString(), true), "/", after);
+        if (!before.equals(after)) problems.add("il remount vede un albero diverso: " + after);
+    }
+
+    private static void collect(FileSystem fs, String dir, TreeSet<String> out) {
+        List<String> children = fs.readdir(dir);
+        if (children == null) return;
+        for (String child : children) {
+            String full = dir.equals("/") ? "/" + child : dir + "/" + child;
+            if (!out.add(full)) continue;
+            collect(fs, full, out);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
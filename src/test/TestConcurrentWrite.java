@@ -1,39 +1,80 @@
 import shared.FileSystemInterface;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Uso: java TestConcurrentWrite [blind|cas] [nomePeer]
+// blind: scritture concorrenti, vince l'ultima. cas: ogni client aggiunge una riga con
+// read-modify-write condizionato alla versione (writeIfVersion) e riprova sui conflitti;
+// alla fine il file deve contenere tutte le righe.
 public class TestConcurrentWrite {
     public static void main(String[] args) {
+        boolean cas = args.length > 0 && args[0].equals("cas");
+        String peer = args.length > 1 ? args[1] : "VirtualFS";
         try {
             Registry registry = LocateRegistry.getRegistry("localhost", 1099);
-            FileSystemInterface fs = (FileSystemInterface) registry.lookup("VirtualFS");
+            FileSystemInterface fs = (FileSystemInterface) registry.lookup(peer);
+            if (cas) {
+                fs.mknod("/shared.txt");
+                fs.write("/shared.txt", new byte[0]);
+            }
+            AtomicLong conflicts = new AtomicLong();
 
             // Crea e avvia 5 thread concorrenti
-            for (int i = 0; i < 1000; i++) {
+            int writers = cas ? 100 : 1000;
+            Thread[] threads = new Thread[writers];
+            for (int i = 0; i < writers; i++) {
                 int finalI = i; // necessario perché "i" deve essere effettivamente final
-                new Thread(() -> {
+                threads[i] = new Thread(() -> {
                     try {
                         String content = "Hello from client " + finalI;
                         System.out.println("Client " + finalI + " writing...");
-                        fs.write("/shared.txt", content.getBytes());
+                        if (cas) {
+                            appendLine(fs, content, conflicts);
+                        } else {
+                            fs.write("/shared.txt", content.getBytes());
+                        }
                         System.out.println("Client " + finalI + " wrote.");
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
-                }).start();
+                });
+                threads[i].start();
             }
 
             // aspetta per permettere ai thread di completare
-            Thread.sleep(3000);
+            if (cas) {
+                for (Thread t : threads) t.join();
+            } else {
+                Thread.sleep(3000);
+            }
 
             // leggi il contenuto finale
             byte[] data = fs.read("/shared.txt");
             String finalContent = data != null ? new String(data) : "(null)";
             System.out.println("Final content in /shared.txt:");
             System.out.println(finalContent);
+            if (cas) {
+                long lines = finalContent.isEmpty() ? 0 : finalContent.split("\n").length;
+                System.out.println("Lines: " + lines + "/" + writers + ", conflicts retried: " + conflicts.get());
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    // Aggiunge una riga senza lock esterni: se un altro client ha scritto tra la lettura
+    // e la scrittura la versione non corrisponde più e si riprova
+    private static void appendLine(FileSystemInterface fs, String line, AtomicLong conflicts) throws Exception {
+        while (true) {
+            Map<String, Object> attr = fs.getattr("/shared.txt");
+            long version = (Long) attr.get("version");
+            byte[] data = fs.read("/shared.txt");
+            String next = new String(data) + line + "\n";
+            if (fs.writeIfVersion("/shared.txt", version, next.getBytes()) > 0) return;
+            conflicts.incrementAndGet();
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package test;
+
+import peer.DistributedNode;
+import peer.WireStub;
+import shared.FileSystemInterface;
+import shared.RequestContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Confronto su loopback tra RMI e il protocollo binario tra peer.
+ *
+ * Avvia un nodo in-process con entrambi i trasporti e misura, per ciascuno,
+ * ops/s e latenze (p50, p99) delle chiamate "WithVisited" usate dall'inoltro
+ * tra peer: getattr, read e write di un file da 4 KiB. Ogni thread esegue le
+ * stesse operazioni sulla stessa connessione (stub), così con più thread si
+ * misura anche il multiplexing.
+ *
+ * Uso: java test.WireBench [operazioni per thread] [thread...]
+ */
+public class WireBench {
+    private static final int PORT = 1199;
+    private static final String PATH = "/bench.bin";
+    private static final byte[] PAYLOAD = new byte[4096];
+
+    @FunctionalInterface
+    private interface Op {
+        void run(FileSystemInterface fs) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int[] threads = args.length > 1
+            ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+            : new int[] {1, 8};
+
+        System.setProperty("ptpvfs.transport", "wire");   // prima di caricare DistributedNode
+        Path dir = Files.createTempDirectory("ptpvfs-wire");
+        Files.write(dir.resolve(PATH.substring(1)), PAYLOAD);
+        DistributedNode node = new DistributedNode("bench", "localhost", PORT, dir.toString());
+        node.start();
+
+        FileSystemInterface rmi = (FileSystemInterface) LocateRegistry.getRegistry("localhost", PORT).lookup("bench");
+        WireStub wire = new WireStub("localhost", PORT + Integer.getInteger("ptpvfs.wire.portOffset", 1000));
+
+        // contesto come in un inoltro reale (un hop, qualche peer coperto); un id nuovo
+        // per chiamata, altrimenti il nodo scarterebbe le ripetizioni come duplicati
+        List<String> covered = Arrays.asList("B", "C");
+        Op getattr = fs -> fs.getattrWithVisited(PATH, RequestContext.create().next("A", covered));
+        Op read = fs -> fs.readWithVisited(PATH, RequestContext.create().next("A", covered));
+        Op write = fs -> fs.writeWithVisited(PATH, PAYLOAD, RequestContext.create().next("A", covered));
+
+        System.out.printf("%-8s %-10s %7s %12s %10s %10s%n", "op", "transport", "threads", "ops/s", "p50 us", "p99 us");
+        for (int t : threads) {
+            for (String name : new String[] {"getattr", "read", "write"}) {
+                Op op = name.equals("getattr") ? getattr : name.equals("read") ? read : write;
+                run(name, "rmi", rmi, op, t, ops);
+                run(name, "wire", wire, op, t, ops);
+            }
+        }
+
+        wire.close();
+        System.exit(0);   // il nodo RMI esportato terrebbe viva la JVM
+    }
+
+    private static void run(String name, String transport, FileSystemInterface fs, Op op,
+                            int threads, int ops) throws Exception {
+        for (int i = 0; i < Math.min(ops, 5000); i++) op.run(fs);   // warmup
+
+        long[][] latencies = new long[threads][ops];
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long[] lat = latencies[t];
+            Thread w = new Thread(() -> {
+                try {
+                    for (int i = 0; i < ops; i++) {
+                        long s = System.nanoTime();
+                        op.run(fs);
+                        lat[i] = System.nanoTime() - s;
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null) throw failure.get();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-8s %-10s %7d %12.0f %10.1f %10.1f%n", name, transport, threads,
+                          all.length / (elapsed / 1e9),
+                          all[all.length / 2] / 1000.0, all[(int) (all.length * 0.99)] / 1000.0);
+    }
+}